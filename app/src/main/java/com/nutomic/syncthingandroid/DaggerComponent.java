@@ -1,12 +1,15 @@
 package com.nutomic.syncthingandroid;
 
 import com.nutomic.syncthingandroid.activities.FirstStartActivity;
+import com.nutomic.syncthingandroid.activities.FolderActivity;
 import com.nutomic.syncthingandroid.activities.FolderPickerActivity;
 import com.nutomic.syncthingandroid.activities.MainActivity;
+import com.nutomic.syncthingandroid.activities.RequestStatsActivity;
 import com.nutomic.syncthingandroid.activities.SettingsActivity;
 import com.nutomic.syncthingandroid.receiver.AppConfigReceiver;
 import com.nutomic.syncthingandroid.service.RunConditionMonitor;
 import com.nutomic.syncthingandroid.service.EventProcessor;
+import com.nutomic.syncthingandroid.service.MediaReconciliationJobService;
 import com.nutomic.syncthingandroid.service.NotificationHandler;
 import com.nutomic.syncthingandroid.service.RestApi;
 import com.nutomic.syncthingandroid.service.SyncthingRunnable;
@@ -24,7 +27,9 @@ public interface DaggerComponent {
     void inject(SyncthingApp app);
     void inject(MainActivity activity);
     void inject(FirstStartActivity activity);
+    void inject(FolderActivity activity);
     void inject(FolderPickerActivity activity);
+    void inject(RequestStatsActivity activity);
     void inject(Languages languages);
     void inject(SyncthingService service);
     void inject(RunConditionMonitor runConditionMonitor);
@@ -33,5 +38,6 @@ public interface DaggerComponent {
     void inject(NotificationHandler notificationHandler);
     void inject(AppConfigReceiver appConfigReceiver);
     void inject(RestApi restApi);
+    void inject(MediaReconciliationJobService jobService);
     void inject(SettingsActivity.SettingsFragment fragment);
 }
@@ -2,8 +2,11 @@ package com.nutomic.syncthingandroid;
 
 import android.app.Application;
 import android.os.StrictMode;
+import android.preference.PreferenceManager;
 
+import com.nutomic.syncthingandroid.service.Constants;
 import com.nutomic.syncthingandroid.util.Languages;
+import com.nutomic.syncthingandroid.util.Tracer;
 
 import javax.inject.Inject;
 
@@ -15,6 +18,9 @@ public class SyncthingApp extends Application {
     public void onCreate() {
         super.onCreate();
 
+        Tracer.setEnabled(PreferenceManager.getDefaultSharedPreferences(this)
+                .getBoolean(Constants.PREF_TRACING_ENABLED, false));
+
         DaggerDaggerComponent.builder()
                 .syncthingModule(new SyncthingModule(this))
                 .build()
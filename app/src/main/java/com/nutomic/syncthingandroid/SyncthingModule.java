@@ -3,7 +3,11 @@ package com.nutomic.syncthingandroid;
 import android.content.SharedPreferences;
 import android.preference.PreferenceManager;
 
+import com.nutomic.syncthingandroid.service.EventBus;
+import com.nutomic.syncthingandroid.service.MediaIndexFilter;
+import com.nutomic.syncthingandroid.service.MediaIndexer;
 import com.nutomic.syncthingandroid.service.NotificationHandler;
+import com.nutomic.syncthingandroid.service.ThroughputStore;
 
 import javax.inject.Singleton;
 
@@ -30,4 +34,28 @@ public class SyncthingModule {
     public NotificationHandler getNotificationHandler() {
         return new NotificationHandler(mApp);
     }
+
+    @Provides
+    @Singleton
+    public EventBus getEventBus() {
+        return new EventBus();
+    }
+
+    @Provides
+    @Singleton
+    public MediaIndexer getMediaIndexer() {
+        return new MediaIndexer(mApp);
+    }
+
+    @Provides
+    @Singleton
+    public MediaIndexFilter getMediaIndexFilter(SharedPreferences preferences) {
+        return new MediaIndexFilter(preferences);
+    }
+
+    @Provides
+    @Singleton
+    public ThroughputStore getThroughputStore() {
+        return new ThroughputStore();
+    }
 }
@@ -21,12 +21,12 @@ import android.widget.EditText;
 import android.widget.TextView;
 import android.widget.Toast;
 
-import com.google.gson.Gson;
 import com.google.zxing.integration.android.IntentIntegrator;
 import com.google.zxing.integration.android.IntentResult;
 import com.nutomic.syncthingandroid.R;
 import com.nutomic.syncthingandroid.model.Connections;
 import com.nutomic.syncthingandroid.model.Device;
+import com.nutomic.syncthingandroid.service.RestApi;
 import com.nutomic.syncthingandroid.service.SyncthingService;
 import com.nutomic.syncthingandroid.util.Compression;
 import com.nutomic.syncthingandroid.util.TextWatcherAdapter;
@@ -40,6 +40,7 @@ import static android.text.TextUtils.isEmpty;
 import static android.view.View.GONE;
 import static android.view.View.VISIBLE;
 import static android.view.WindowManager.LayoutParams.SOFT_INPUT_STATE_ALWAYS_HIDDEN;
+import static com.nutomic.syncthingandroid.model.ModelTypeAdapters.GSON;
 import static com.nutomic.syncthingandroid.service.SyncthingService.State.ACTIVE;
 import static com.nutomic.syncthingandroid.util.Compression.METADATA;
 
@@ -92,6 +93,14 @@ public class DeviceActivity extends SyncthingActivity implements View.OnClickLis
 
     private boolean mDeviceNeedsToUpdate;
 
+    /**
+     * RestApi instance that {@link #mOnConnectionsChangedListener} is registered with.
+     */
+    private RestApi mConnectionsApi;
+
+    private final RestApi.OnResultListener1<Connections> mOnConnectionsChangedListener =
+            this::onReceiveConnections;
+
     private Dialog mDeleteDialog;
     private Dialog mDiscardDialog;
     private Dialog mCompressionDialog;
@@ -184,7 +193,7 @@ public class DeviceActivity extends SyncthingActivity implements View.OnClickLis
 
         if (savedInstanceState != null){
             if (mDevice == null) {
-                mDevice = new Gson().fromJson(savedInstanceState.getString("device"), Device.class);
+                mDevice = GSON.fromJson(savedInstanceState.getString("device"), Device.class);
             }
             restoreDialogStates(savedInstanceState);
         }
@@ -222,6 +231,10 @@ public class DeviceActivity extends SyncthingActivity implements View.OnClickLis
             syncthingService.getNotificationHandler().cancelConsentNotification(getIntent().getIntExtra(EXTRA_NOTIFICATION_ID, 0));
             syncthingService.unregisterOnServiceStateChangeListener(this::onServiceStateChange);
         }
+        if (mConnectionsApi != null) {
+            mConnectionsApi.unregisterOnConnectionStatesChangedListener(mOnConnectionsChangedListener);
+            mConnectionsApi = null;
+        }
         mIdView.removeTextChangedListener(mIdTextWatcher);
         mNameView.removeTextChangedListener(mNameTextWatcher);
         mAddressesView.removeTextChangedListener(mAddressesTextWatcher);
@@ -244,7 +257,7 @@ public class DeviceActivity extends SyncthingActivity implements View.OnClickLis
     @Override
     public void onSaveInstanceState(Bundle outState) {
         super.onSaveInstanceState(outState);
-        outState.putString("device", new Gson().toJson(mDevice));
+        outState.putString("device", GSON.toJson(mDevice));
         if (mIsCreateMode){
             outState.putBoolean(IS_SHOWING_DISCARD_DIALOG, mDiscardDialog != null && mDiscardDialog.isShowing());
             Util.dismissDialogSafe(mDiscardDialog, this);
@@ -267,8 +280,7 @@ public class DeviceActivity extends SyncthingActivity implements View.OnClickLis
     /**
      * Sets version and current address of the device.
      * <p/>
-     * NOTE: This is only called once on startup, should be called more often to properly display
-     * version/address changes.
+     * Called on startup and whenever the connection state of any device changed.
      */
     private void onReceiveConnections(Connections connections) {
         boolean viewsExist = mSyncthingVersionView != null && mCurrentAddressView != null;
@@ -287,14 +299,8 @@ public class DeviceActivity extends SyncthingActivity implements View.OnClickLis
         }
 
         if (!mIsCreateMode) {
-            List<Device> devices = getApi().getDevices(false);
-            mDevice = null;
-            for (Device device : devices) {
-                if (device.deviceID.equals(getIntent().getStringExtra(EXTRA_DEVICE_ID))) {
-                    mDevice = device;
-                    break;
-                }
-            }
+            Device device = getApi().getDevice(getIntent().getStringExtra(EXTRA_DEVICE_ID));
+            mDevice = (device != null) ? getApi().deepCopy(device, Device.class) : null;
             if (mDevice == null) {
                 Log.w(TAG, "Device not found in API update, maybe it was deleted?");
                 finish();
@@ -302,7 +308,17 @@ public class DeviceActivity extends SyncthingActivity implements View.OnClickLis
             }
         }
 
-        getApi().getConnections(this::onReceiveConnections);
+        // Connection state doesn't include transfer rates here, so it is taken from events
+        // instead of polling.
+        RestApi api = getApi();
+        if (mConnectionsApi != api) {
+            if (mConnectionsApi != null) {
+                mConnectionsApi.unregisterOnConnectionStatesChangedListener(mOnConnectionsChangedListener);
+            }
+            mConnectionsApi = api;
+            api.registerOnConnectionStatesChangedListener(mOnConnectionsChangedListener);
+        }
+        api.getConnectionStates(this::onReceiveConnections);
 
         updateViewsAndSetListeners();
     }
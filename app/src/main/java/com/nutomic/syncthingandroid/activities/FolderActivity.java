@@ -26,11 +26,12 @@ import android.widget.LinearLayout;
 import android.widget.TextView;
 import android.widget.Toast;
 
-import com.google.gson.Gson;
 import com.nutomic.syncthingandroid.R;
+import com.nutomic.syncthingandroid.SyncthingApp;
 import com.nutomic.syncthingandroid.model.Device;
 import com.nutomic.syncthingandroid.model.Folder;
 import com.nutomic.syncthingandroid.service.Constants;
+import com.nutomic.syncthingandroid.service.MediaIndexFilter;
 import com.nutomic.syncthingandroid.service.RestApi;
 import com.nutomic.syncthingandroid.service.SyncthingService;
 import com.nutomic.syncthingandroid.util.FileUtils;
@@ -44,11 +45,14 @@ import java.util.Random;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
+import javax.inject.Inject;
+
 import static android.support.v4.view.MarginLayoutParamsCompat.setMarginEnd;
 import static android.support.v4.view.MarginLayoutParamsCompat.setMarginStart;
 import static android.util.TypedValue.COMPLEX_UNIT_DIP;
 import static android.view.Gravity.CENTER_VERTICAL;
 import static android.view.ViewGroup.LayoutParams.WRAP_CONTENT;
+import static com.nutomic.syncthingandroid.model.ModelTypeAdapters.GSON;
 import static com.nutomic.syncthingandroid.service.SyncthingService.State.ACTIVE;
 
 /**
@@ -72,6 +76,7 @@ public class FolderActivity extends SyncthingActivity
 
     private static final String IS_SHOWING_DELETE_DIALOG = "DELETE_FOLDER_DIALOG_STATE";
     private static final String IS_SHOW_DISCARD_DIALOG = "DISCARD_FOLDER_DIALOG_STATE";
+    private static final String MEDIA_INDEX_MODE = "MEDIA_INDEX_MODE";
 
     private static final int FILE_VERSIONING_DIALOG_REQUEST = 3454;
     private static final int PULL_ORDER_DIALOG_REQUEST = 3455;
@@ -81,7 +86,11 @@ public class FolderActivity extends SyncthingActivity
     private static final String FOLDER_MARKER_NAME = ".stfolder";
     private static final String IGNORE_FILE_NAME = ".stignore";
 
+    @Inject MediaIndexFilter mMediaIndexFilter;
+
     private Folder mFolder;
+    // Stored in MediaIndexFilter right away in edit mode, and when the folder is created otherwise.
+    private MediaIndexFilter.Mode mMediaIndexMode = MediaIndexFilter.DEFAULT_MODE;
     // Contains SAF readwrite access URI on API level >= Build.VERSION_CODES.LOLLIPOP (21)
     private Uri mFolderUri = null;
     // Indicates the result of the write test to mFolder.path on dialog init or after a path change.
@@ -98,6 +107,7 @@ public class FolderActivity extends SyncthingActivity
     private ViewGroup mDevicesContainer;
     private TextView mPullOrderTypeView;
     private TextView mPullOrderDescriptionView;
+    private TextView mMediaIndexValueView;
     private TextView mVersioningDescriptionView;
     private TextView mVersioningTypeView;
     private TextView mEditIgnores;
@@ -149,6 +159,7 @@ public class FolderActivity extends SyncthingActivity
     @Override
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        ((SyncthingApp) getApplication()).component().inject(this);
         setContentView(R.layout.fragment_folder);
 
         mIsCreateMode = getIntent().getBooleanExtra(EXTRA_IS_CREATE, false);
@@ -165,6 +176,7 @@ public class FolderActivity extends SyncthingActivity
         mFolderPaused = findViewById(R.id.folderPause);
         mPullOrderTypeView = findViewById(R.id.pullOrderType);
         mPullOrderDescriptionView = findViewById(R.id.pullOrderDescription);
+        mMediaIndexValueView = findViewById(R.id.mediaIndexValue);
         mVersioningDescriptionView = findViewById(R.id.versioningDescription);
         mVersioningTypeView = findViewById(R.id.versioningType);
         mDevicesContainer = findViewById(R.id.devicesContainer);
@@ -174,12 +186,15 @@ public class FolderActivity extends SyncthingActivity
 
         findViewById(R.id.folderTypeContainer).setOnClickListener(v -> showFolderTypeDialog());
         findViewById(R.id.pullOrderContainer).setOnClickListener(v -> showPullOrderDialog());
+        findViewById(R.id.mediaIndexContainer).setOnClickListener(v -> showMediaIndexDialog());
         findViewById(R.id.versioningContainer).setOnClickListener(v -> showVersioningDialog());
         mEditIgnores.setOnClickListener(v -> editIgnores());
 
         if (mIsCreateMode) {
             if (savedInstanceState != null) {
-                mFolder = new Gson().fromJson(savedInstanceState.getString("folder"), Folder.class);
+                mFolder = GSON.fromJson(savedInstanceState.getString("folder"), Folder.class);
+                mMediaIndexMode = MediaIndexFilter.Mode.values()[savedInstanceState.getInt(
+                        MEDIA_INDEX_MODE, MediaIndexFilter.DEFAULT_MODE.ordinal())];
                 if (savedInstanceState.getBoolean(IS_SHOW_DISCARD_DIALOG)){
                     showDiscardDialog();
                 }
@@ -285,6 +300,21 @@ public class FolderActivity extends SyncthingActivity
         startActivityForResult(intent, FOLDER_TYPE_DIALOG_REQUEST);
     }
 
+    private void showMediaIndexDialog() {
+        Util.getAlertDialogBuilder(this)
+                .setTitle(R.string.media_index)
+                .setSingleChoiceItems(R.array.media_index_entries, mMediaIndexMode.ordinal(),
+                        (dialog, which) -> {
+                            mMediaIndexMode = MediaIndexFilter.Mode.values()[which];
+                            if (!mIsCreateMode) {
+                                mMediaIndexFilter.setMode(mFolder.id, mMediaIndexMode);
+                            }
+                            updateMediaIndexDescription();
+                            dialog.dismiss();
+                        })
+                .show();
+    }
+
     private void showPullOrderDialog() {
         Intent intent = new Intent(this, PullOrderDialogActivity.class);
         intent.putExtra(PullOrderDialogActivity.EXTRA_PULL_ORDER, mFolder.order);
@@ -344,6 +374,7 @@ public class FolderActivity extends SyncthingActivity
         if (mIsCreateMode){
             outState.putBoolean(IS_SHOW_DISCARD_DIALOG, mDiscardDialog != null && mDiscardDialog.isShowing());
             Util.dismissDialogSafe(mDiscardDialog, this);
+            outState.putInt(MEDIA_INDEX_MODE, mMediaIndexMode.ordinal());
         }
     }
 
@@ -366,20 +397,14 @@ public class FolderActivity extends SyncthingActivity
         }
 
         if (!mIsCreateMode) {
-            List<Folder> folders = getApi().getFolders();
-            String passedId = getIntent().getStringExtra(EXTRA_FOLDER_ID);
-            mFolder = null;
-            for (Folder currentFolder : folders) {
-                if (currentFolder.id.equals(passedId)) {
-                    mFolder = currentFolder;
-                    break;
-                }
-            }
+            Folder folder = getApi().getFolder(getIntent().getStringExtra(EXTRA_FOLDER_ID));
+            mFolder = (folder != null) ? getApi().deepCopy(folder, Folder.class) : null;
             if (mFolder == null) {
                 Log.w(TAG, "Folder not found in API update, maybe it was deleted?");
                 finish();
                 return;
             }
+            mMediaIndexMode = mMediaIndexFilter.getMode(mFolder.id);
             checkWriteAndUpdateUI();
         }
         if (getIntent().hasExtra(EXTRA_DEVICE_ID)) {
@@ -413,6 +438,7 @@ public class FolderActivity extends SyncthingActivity
         mIdView.setText(mFolder.id);
         updateFolderTypeDescription();
         updatePullOrderDescription();
+        updateMediaIndexDescription();
         updateVersioningDescription();
         mFolderFileWatcher.setChecked(mFolder.fsWatcherEnabled);
         mFolderPaused.setChecked(mFolder.paused);
@@ -479,6 +505,7 @@ public class FolderActivity extends SyncthingActivity
                     }
                 }
                 getApi().createFolder(mFolder);
+                mMediaIndexFilter.setMode(mFolder.id, mMediaIndexMode);
                 finish();
                 return true;
             case R.id.remove:
@@ -505,6 +532,7 @@ public class FolderActivity extends SyncthingActivity
                     if (restApi != null) {
                         restApi.removeFolder(mFolder.id);
                     }
+                    mMediaIndexFilter.removeMode(mFolder.id);
                     mFolderNeedsToUpdate = false;
                     finish();
                 })
@@ -777,6 +805,11 @@ public class FolderActivity extends SyncthingActivity
         mPullOrderDescriptionView.setText(description);
     }
 
+    private void updateMediaIndexDescription() {
+        mMediaIndexValueView.setText(
+                getResources().getStringArray(R.array.media_index_entries)[mMediaIndexMode.ordinal()]);
+    }
+
     private void updateVersioningDescription() {
         if (mFolder == null){
             return;
@@ -508,7 +508,7 @@ public class MainActivity extends StateDialogActivity
             }
         };
 
-        restApi.getUsageReport(report -> {
+        restApi.getUsageReport(this, report -> {
             @SuppressLint("InflateParams")
             View v = LayoutInflater.from(MainActivity.this)
                     .inflate(R.layout.dialog_usage_reporting, null);
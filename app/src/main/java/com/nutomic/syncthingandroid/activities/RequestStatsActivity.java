@@ -0,0 +1,116 @@
+package com.nutomic.syncthingandroid.activities;
+
+import android.os.Bundle;
+import android.util.Log;
+import android.view.Menu;
+import android.view.MenuItem;
+import android.widget.TextView;
+import android.widget.Toast;
+
+import com.google.gson.stream.JsonWriter;
+import com.nutomic.syncthingandroid.R;
+import com.nutomic.syncthingandroid.SyncthingApp;
+import com.nutomic.syncthingandroid.http.RequestMetrics;
+import com.nutomic.syncthingandroid.service.MediaIndexer;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import javax.inject.Inject;
+
+/**
+ * Shows the statistics of requests to the Syncthing API collected by {@link RequestMetrics}
+ * and those of the {@link MediaIndexer}, and exports them as JSON.
+ */
+public class RequestStatsActivity extends SyncthingActivity {
+
+    private static final String TAG = "RequestStatsActivity";
+
+    private static final String EXPORT_FILE = "request_stats.json";
+
+    @Inject MediaIndexer mMediaIndexer;
+
+    private TextView mStats;
+
+    @Override
+    public void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        ((SyncthingApp) getApplication()).component().inject(this);
+
+        setContentView(R.layout.activity_log);
+        setTitle(R.string.request_stats_title);
+
+        mStats = findViewById(R.id.log);
+        updateStats();
+    }
+
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        getMenuInflater().inflate(R.menu.request_stats, menu);
+        return true;
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        switch (item.getItemId()) {
+            case R.id.refresh:
+                updateStats();
+                return true;
+            case R.id.export:
+                exportStats();
+                return true;
+            case R.id.reset:
+                RequestMetrics.reset();
+                updateStats();
+                return true;
+            default:
+                return super.onOptionsItemSelected(item);
+        }
+    }
+
+    private void updateStats() {
+        String summary = RequestMetrics.getSummary();
+        if (summary.isEmpty()) {
+            summary = getString(R.string.request_stats_empty) + "\n\n";
+        }
+        mStats.setText(summary + mMediaIndexer.getSummary());
+    }
+
+    /**
+     * Writes the statistics to the app's external files directory, which can be read with
+     * adb without root.
+     */
+    private void exportStats() {
+        File dir = getExternalFilesDir(null);
+        File file = new File((dir != null) ? dir : getFilesDir(), EXPORT_FILE);
+        Writer writer = null;
+        try {
+            writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+            JsonWriter json = new JsonWriter(writer);
+            json.setIndent("  ");
+            json.beginObject();
+            json.name("requests");
+            RequestMetrics.writeJson(json);
+            json.name("mediaIndexer");
+            mMediaIndexer.writeJson(json);
+            json.endObject();
+            json.flush();
+            Toast.makeText(this, getString(R.string.request_stats_exported, file.getPath()),
+                    Toast.LENGTH_LONG).show();
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to export request statistics", e);
+            Toast.makeText(this, R.string.request_stats_export_failed, Toast.LENGTH_LONG).show();
+        } finally {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                    Log.w(TAG, "Failed to close " + file, e);
+                }
+            }
+        }
+    }
+}
@@ -35,9 +35,15 @@ import com.nutomic.syncthingandroid.service.NotificationHandler;
 import com.nutomic.syncthingandroid.service.RestApi;
 import com.nutomic.syncthingandroid.service.SyncthingService;
 import com.nutomic.syncthingandroid.util.Languages;
+import com.nutomic.syncthingandroid.util.Tracer;
 import com.nutomic.syncthingandroid.util.Util;
 import com.nutomic.syncthingandroid.views.WifiSsidPreference;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.lang.ref.WeakReference;
 import java.security.InvalidParameterException;
 import java.util.HashSet;
@@ -95,6 +101,7 @@ public class SettingsActivity extends SyncthingActivity {
         private static final String KEY_UNDO_IGNORED_DEVICES_FOLDERS = "undo_ignored_devices_folders";
         private static final String KEY_ST_RESET_DATABASE = "st_reset_database";
         private static final String KEY_ST_RESET_DELTAS = "st_reset_deltas";
+        private static final String KEY_EXPORT_TRACE = "export_trace";
 
         @Inject NotificationHandler mNotificationHandler;
         @Inject SharedPreferences mPreferences;
@@ -217,6 +224,9 @@ public class SettingsActivity extends SyncthingActivity {
             Preference environmentVariables         = findPreference("environment_variables");
             Preference stResetDatabase              = findPreference("st_reset_database");
             Preference stResetDeltas                = findPreference("st_reset_deltas");
+            Preference tracingEnabled               = findPreference(Constants.PREF_TRACING_ENABLED);
+            Preference exportTrace                  = findPreference(KEY_EXPORT_TRACE);
+            Preference useUnixSocket                = findPreference(Constants.PREF_USE_UNIX_SOCKET);
 
             mUseRoot                        = (CheckBoxPreference) findPreference(Constants.PREF_USE_ROOT);
             mUseWakelock                    = (CheckBoxPreference) findPreference(Constants.PREF_USE_WAKE_LOCK);
@@ -243,10 +253,13 @@ public class SettingsActivity extends SyncthingActivity {
             environmentVariables.setOnPreferenceChangeListener(this);
             stResetDatabase.setOnPreferenceClickListener(this);
             stResetDeltas.setOnPreferenceClickListener(this);
+            tracingEnabled.setOnPreferenceChangeListener(this);
+            exportTrace.setOnPreferenceClickListener(this);
 
             /* Experimental options */
             mUseRoot.setOnPreferenceClickListener(this);
             mUseWakelock.setOnPreferenceChangeListener(this);
+            useUnixSocket.setOnPreferenceChangeListener(this);
             mUseTor.setOnPreferenceChangeListener(this);
 
             mSocksProxyAddress.setEnabled(!(Boolean) mUseTor.isChecked());
@@ -323,8 +336,8 @@ public class SettingsActivity extends SyncthingActivity {
                 return;
 
             mSyncthingVersion.setSummary(mApi.getVersion());
-            mOptions = mApi.getOptions();
-            mGui = mApi.getGui();
+            mOptions = mApi.deepCopy(mApi.getOptions(), Options.class);
+            mGui = mApi.deepCopy(mApi.getGui(), Config.Gui.class);
 
             Joiner joiner = Joiner.on(", ");
             mDeviceName.setText(mApi.getLocalDevice().name);
@@ -338,7 +351,7 @@ public class SettingsActivity extends SyncthingActivity {
             mGlobalAnnounceServers.setText(joiner.join(mOptions.globalAnnounceServers));
             mAddress.setText(mGui.address);
             mRestartOnWakeup.setChecked(mOptions.restartOnWakeup);
-            mApi.getSystemInfo(systemInfo ->
+            mApi.getSystemInfo(getActivity(), systemInfo ->
                     mUrAccepted.setChecked(mOptions.isUsageReportingAccepted(systemInfo.urVersionMax)));
         }
 
@@ -381,11 +394,25 @@ public class SettingsActivity extends SyncthingActivity {
             return true;
         }
 
+        /**
+         * Applies the change in a config transaction, so a change that edits several parts of
+         * the config is sent as one request.
+         */
         public boolean onSyncthingPreferenceChange(Preference preference, Object o) {
+            RestApi api = mApi;
+            api.beginConfigTransaction();
+            try {
+                return applySyncthingPreferenceChange(preference, o);
+            } finally {
+                api.commitConfigTransaction();
+            }
+        }
+
+        private boolean applySyncthingPreferenceChange(Preference preference, Object o) {
             Splitter splitter = Splitter.on(",").trimResults().omitEmptyStrings();
             switch (preference.getKey()) {
                 case "deviceName":
-                    Device localDevice = mApi.getLocalDevice();
+                    Device localDevice = mApi.deepCopy(mApi.getLocalDevice(), Device.class);
                     localDevice.name = (String) o;
                     mApi.editDevice(localDevice);
                     break;
@@ -440,6 +467,7 @@ public class SettingsActivity extends SyncthingActivity {
                         mOptions.urAccepted = ((boolean) o)
                                 ? systemInfo.urVersionMax
                                 : Options.USAGE_REPORTING_DENIED;
+                        mApi.editSettings(mGui, mOptions);
                     });
                     break;
                 default: throw new InvalidParameterException();
@@ -491,6 +519,9 @@ public class SettingsActivity extends SyncthingActivity {
                 case Constants.PREF_USE_WAKE_LOCK:
                     mPendingConfig = true;
                     break;
+                case Constants.PREF_USE_UNIX_SOCKET:
+                    mPendingConfig = true;
+                    break;
                 case Constants.PREF_USE_TOR:
                     mSocksProxyAddress.setEnabled(!(Boolean) o);
                     mHttpProxyAddress.setEnabled(!(Boolean) o);
@@ -521,6 +552,9 @@ public class SettingsActivity extends SyncthingActivity {
                             .addNextIntent(getActivity().getIntent())
                             .startActivities();
                     break;
+                case Constants.PREF_TRACING_ENABLED:
+                    Tracer.setEnabled((Boolean) o);
+                    break;
             }
 
             return true;
@@ -620,11 +654,42 @@ public class SettingsActivity extends SyncthingActivity {
                             })
                             .show();
                     return true;
+                case KEY_EXPORT_TRACE:
+                    exportTrace();
+                    return true;
                 default:
                     return false;
             }
         }
 
+        /**
+         * Writes the events recorded by {@link Tracer} to the app's external files directory,
+         * which can be read with adb without root.
+         */
+        private void exportTrace() {
+            File dir = getActivity().getExternalFilesDir(null);
+            File file = new File((dir != null) ? dir : getActivity().getFilesDir(),
+                    Constants.TRACE_EXPORT_FILE);
+            Writer writer = null;
+            try {
+                writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+                Tracer.writeChromeTrace(writer);
+                Toast.makeText(getActivity(), getString(R.string.export_trace_done, file.getPath()),
+                        Toast.LENGTH_LONG).show();
+            } catch (IOException e) {
+                Log.w(TAG, "Failed to export trace", e);
+                Toast.makeText(getActivity(), R.string.export_trace_failed, Toast.LENGTH_LONG).show();
+            } finally {
+                if (writer != null) {
+                    try {
+                        writer.close();
+                    } catch (IOException e) {
+                        Log.w(TAG, "Failed to close " + file, e);
+                    }
+                }
+            }
+        }
+
         /**
          * Enables or disables {@link #mUseRoot} preference depending whether root is available.
          */
@@ -54,8 +54,15 @@ public abstract class SyncthingActivity extends ThemedAppCompatActivity implemen
         getSupportActionBar().setDisplayHomeAsUpEnabled(true);
     }
 
+    /**
+     * Cancels requests made for this screen, as their results won't be shown anymore.
+     */
     @Override
     protected void onPause() {
+        RestApi api = getApi();
+        if (api != null) {
+            api.cancelRequests(this);
+        }
         unbindService(this);
         super.onPause();
     }
@@ -19,6 +19,7 @@ import com.nutomic.syncthingandroid.service.RestApi;
 import com.nutomic.syncthingandroid.service.SyncthingService;
 import com.nutomic.syncthingandroid.views.DevicesAdapter;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
@@ -86,10 +87,7 @@ public class DeviceListFragment extends ListFragment implements SyncthingService
         if (restApi == null || !restApi.isConfigLoaded()) {
             return;
         }
-        List<Device> devices = restApi.getDevices(false);
-        if (devices == null) {
-            return;
-        }
+        List<Device> devices = new ArrayList<>(restApi.getDevices(false));
         if (mAdapter == null) {
             mAdapter = new DevicesAdapter(activity);
             setListAdapter(mAdapter);
@@ -100,7 +98,8 @@ public class DeviceListFragment extends ListFragment implements SyncthingService
         mAdapter.clear();
         Collections.sort(devices, DEVICES_COMPARATOR);
         mAdapter.addAll(devices);
-        mAdapter.updateConnections(restApi);
+        // The ViewPager keeps this fragment resumed while another tab is shown.
+        mAdapter.updateConnections(restApi, getUserVisibleHint());
         mAdapter.notifyDataSetChanged();
         setListShown(true);
     }
@@ -155,9 +155,9 @@ public class DrawerFragment extends Fragment implements View.OnClickListener {
 
         RestApi mApi = mainActivity.getApi();
         if (mApi != null) {
-            mApi.getSystemInfo(this::onReceiveSystemInfo);
-            mApi.getSystemVersion(this::onReceiveSystemVersion);
-            mApi.getConnections(this::onReceiveConnections);
+            mApi.getSystemInfo(mainActivity, this::onReceiveSystemInfo);
+            mApi.getSystemVersion(mainActivity, this::onReceiveSystemVersion);
+            mApi.getConnections(mainActivity, this::onReceiveConnections);
         }
     }
 
@@ -1,37 +1,52 @@
 package com.nutomic.syncthingandroid.http;
 
 
+import android.app.ActivityManager;
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
 import android.support.annotation.Nullable;
+import android.support.v4.app.ActivityManagerCompat;
 import android.util.Log;
 import android.widget.ImageView;
 
 import com.android.volley.AuthFailureError;
 import com.android.volley.DefaultRetryPolicy;
+import com.android.volley.NetworkResponse;
+import com.android.volley.Request;
 import com.android.volley.RequestQueue;
+import com.android.volley.Response;
 import com.android.volley.VolleyError;
-import com.android.volley.toolbox.HurlStack;
+import com.android.volley.toolbox.BaseHttpStack;
 import com.android.volley.toolbox.ImageRequest;
-import com.android.volley.toolbox.StringRequest;
-import com.android.volley.toolbox.Volley;
-import com.google.common.base.Optional;
+import com.android.volley.toolbox.NoCache;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.CharStreams;
+import com.google.common.io.CountingOutputStream;
 import com.nutomic.syncthingandroid.service.Constants;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.security.KeyManagementException;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
-import javax.net.ssl.HttpsURLConnection;
 import javax.net.ssl.SSLContext;
-import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.SSLSessionContext;
 import javax.net.ssl.TrustManager;
 
 public abstract class ApiRequest {
@@ -43,6 +58,58 @@ public abstract class ApiRequest {
      */
     private static final String HEADER_API_KEY = "X-API-Key";
 
+    private static final String HEADER_ACCEPT_ENCODING = "Accept-Encoding";
+
+    /**
+     * Endpoints whose responses grow with the number of folders, devices or events. Their
+     * responses are requested gzip compressed and decompressed while they are parsed.
+     *
+     * How much this saves depends on the config and the device. {@link RequestMetrics} records
+     * transferred and decompressed bytes and parse time per endpoint to measure it.
+     */
+    private static final Set<String> GZIP_PATHS = ImmutableSet.of(
+            GetRequest.URI_CONFIG, GetRequest.URI_EVENTS, GetRequest.URI_REPORT);
+
+    /**
+     * TLS sessions kept for resumption. There is only one server, but it may be restarted or
+     * listen on a different port.
+     */
+    private static final int TLS_SESSION_CACHE_SIZE = 4;
+
+    private static final int TLS_SESSION_TIMEOUT_SECONDS = (int) TimeUnit.HOURS.toSeconds(1);
+
+    /**
+     * Requests per second (sustained and burst) sent to Syncthing, see {@link RequestBudget}.
+     */
+    private static final double REQUEST_BUDGET_RATE = 50;
+    private static final int REQUEST_BUDGET_BURST = 50;
+    private static final double REQUEST_BUDGET_RATE_LOW_RAM = 10;
+    private static final int REQUEST_BUDGET_BURST_LOW_RAM = 20;
+
+    /**
+     * Order in which queued requests are sent.
+     */
+    public enum Priority {
+        /**
+         * Requested for a screen the user is looking at. Never waits for the request budget.
+         */
+        INTERACTIVE(Request.Priority.HIGH),
+        /**
+         * Keeps the app's state current, e.g. events and config reloads.
+         */
+        BACKGROUND(Request.Priority.NORMAL),
+        /**
+         * Many requests that are not needed immediately.
+         */
+        BULK(Request.Priority.LOW);
+
+        private final Request.Priority mVolleyPriority;
+
+        Priority(Request.Priority volleyPriority) {
+            mVolleyPriority = volleyPriority;
+        }
+    }
+
     public interface OnSuccessListener {
         void onSuccess(String result);
     }
@@ -55,26 +122,153 @@ public abstract class ApiRequest {
         void onError(VolleyError error);
     }
 
+    /**
+     * Parses a response body while it is received. Called on a network thread.
+     */
+    public interface ResponseParser<T> {
+        T parse(Reader body) throws IOException;
+    }
+
+    public interface OnParsedListener<T> {
+        void onParsed(T result);
+    }
+
+    /**
+     * Writes a request body straight to the connection, instead of building it in memory
+     * first. Called on a network thread, again if the request is retried.
+     */
+    public interface BodyWriter {
+        void writeTo(OutputStream out) throws IOException;
+    }
+
+    /**
+     * Implemented by requests whose body {@link OkHttpStack} can stream with a
+     * {@link BodyWriter}. Other stacks use {@link Request#getBody}, which buffers it.
+     */
+    interface StreamedBody {
+        @Nullable BodyWriter getBodyWriter();
+    }
+
+    private static final ResponseParser<String> STRING_PARSER = CharStreams::toString;
+
+    /**
+     * Transport shared by all queues, so they use the same connection pool.
+     */
+    private static BaseHttpStack sHttpStack;
+
+    /**
+     * Sends all requests over Syncthing's Unix domain socket at the given path, or over TCP if
+     * it is null. Takes effect for requests started afterwards.
+     */
+    public static void setApiSocket(@Nullable File socket) {
+        LocalSocketStack.setSocketPath((socket != null) ? socket.getAbsolutePath() : null);
+    }
+
+    private BaseHttpStack getHttpStack() {
+        if (sHttpStack == null) {
+            sHttpStack = createHttpStack();
+        }
+        return sHttpStack;
+    }
+
+    /**
+     * Budget shared by all queues, lower on low RAM devices.
+     */
+    private static RequestBudget sRequestBudget;
+
+    private RequestBudget getRequestBudget() {
+        if (sRequestBudget == null) {
+            ActivityManager am = (ActivityManager) mContext.getSystemService(Context.ACTIVITY_SERVICE);
+            sRequestBudget = (am != null && ActivityManagerCompat.isLowRamDevice(am))
+                    ? new RequestBudget(REQUEST_BUDGET_RATE_LOW_RAM, REQUEST_BUDGET_BURST_LOW_RAM)
+                    : new RequestBudget(REQUEST_BUDGET_RATE, REQUEST_BUDGET_BURST);
+        }
+        return sRequestBudget;
+    }
+
+    /**
+     * Queue for all regular requests. Responses are never stored in Volley's cache, as
+     * {@link ResponseCache} handles the few that can be cached.
+     */
     private static RequestQueue sVolleyQueue;
 
     private RequestQueue getVolleyQueue() {
         if (sVolleyQueue == null) {
-            Context context = mContext.getApplicationContext();
-            sVolleyQueue = Volley.newRequestQueue(context, new NetworkStack());
+            sVolleyQueue = new RequestQueue(new NoCache(),
+                    new StreamingNetwork(getHttpStack()));
+            sVolleyQueue.start();
         }
         return sVolleyQueue;
     }
 
+    /**
+     * Separate queue for long polling requests, so they don't occupy the network threads of
+     * {@link #sVolleyQueue} while the server holds the response back. It has two threads so
+     * a new poll can start while a cancelled one still waits for its response.
+     */
+    private static RequestQueue sLongPollQueue;
+
+    private RequestQueue getLongPollQueue() {
+        if (sLongPollQueue == null) {
+            sLongPollQueue = new RequestQueue(new NoCache(),
+                    new StreamingNetwork(getHttpStack()), 2);
+            sLongPollQueue.start();
+        }
+        return sLongPollQueue;
+    }
+
+    /**
+     * Requests waiting for {@link #sRequestBudget} before they are added to a queue, so
+     * {@link #cancelAll} finds them. Locked on itself.
+     */
+    private static final List<Request<?>> sDelayedRequests = new ArrayList<>();
+
+    private static final Handler sDelayHandler = new Handler(Looper.getMainLooper());
+
     private final Context mContext;
     private final URL mUrl;
     private final String mPath;
     private final String mApiKey;
+    private final Priority mPriority;
+    private final @Nullable Object mTag;
+
+    private @Nullable Request<?> mRequest;
 
     ApiRequest(Context context, URL url, String path, String apiKey) {
+        this(context, url, path, apiKey, Priority.BACKGROUND, null);
+    }
+
+    /**
+     * @param tag If not null, the request is cancelled by {@link #cancelAll} with this tag,
+     *            e.g. the activity it was made for.
+     */
+    ApiRequest(Context context, URL url, String path, String apiKey, Priority priority,
+               @Nullable Object tag) {
         mContext = context;
         mUrl           = url;
         mPath          = path;
         mApiKey        = apiKey;
+        mPriority      = priority;
+        mTag           = tag;
+    }
+
+    /**
+     * Cancels all requests made with the given tag, so none of their listeners is called.
+     */
+    public static void cancelAll(Object tag) {
+        synchronized (sDelayedRequests) {
+            for (Request<?> request : sDelayedRequests) {
+                if (request.getTag() == tag) {
+                    request.cancel();
+                }
+            }
+        }
+        if (sVolleyQueue != null) {
+            sVolleyQueue.cancelAll(tag);
+        }
+        if (sLongPollQueue != null) {
+            sLongPollQueue.cancelAll(tag);
+        }
     }
 
     Uri buildUri(Map<String, String> params) {
@@ -90,36 +284,272 @@ public abstract class ApiRequest {
     /**
      * Opens the connection, then returns success status and response string.
      */
-    void connect(int requestMethod, Uri uri, @Nullable String requestBody,
+    void connect(int requestMethod, Uri uri, @Nullable byte[] requestBody,
                  @Nullable OnSuccessListener listener, @Nullable OnErrorListener errorListener) {
-        Log.v(TAG, "Performing request to " + uri.toString());
-        StringRequest request = new StringRequest(requestMethod, uri.toString(), reply -> {
-            if (listener != null) {
-                listener.onSuccess(reply);
-            }
-        }, error -> {
-            if (errorListener != null) {
-                errorListener.onError(error);
-            } else {
-                Log.w(TAG, "Request to " + uri + " failed, " + error.getMessage());
-            }
-        }) {
-            @Override
-            public Map<String, String> getHeaders() throws AuthFailureError {
-                return ImmutableMap.of(HEADER_API_KEY, mApiKey);
-            }
+        connect(new RestRequest<>(requestMethod, uri, requestBody, STRING_PARSER,
+                toParsedListener(listener), errorListener));
+    }
 
-            @Override
-            public byte[] getBody() throws AuthFailureError {
-                return Optional.fromNullable(requestBody).transform(String::getBytes).orNull();
+    /**
+     * Like {@link #connect(int, Uri, byte[], OnSuccessListener, OnErrorListener)}, but the
+     * body is written by bodyWriter while it is sent.
+     */
+    void connectStreamed(int requestMethod, Uri uri, BodyWriter bodyWriter,
+                         @Nullable OnSuccessListener listener,
+                         @Nullable OnErrorListener errorListener) {
+        RestRequest<String> request = new RestRequest<>(requestMethod, uri, null, STRING_PARSER,
+                toParsedListener(listener), errorListener);
+        request.mBodyWriter = bodyWriter;
+        connect(request);
+    }
+
+    /**
+     * Performs a GET request, passing the response body to parser while it is received, and
+     * the result to listener.
+     */
+    <T> void connectParsed(Uri uri, ResponseParser<T> parser,
+                           @Nullable OnParsedListener<T> listener,
+                           @Nullable OnErrorListener errorListener) {
+        connect(new RestRequest<>(Request.Method.GET, uri, null, parser, listener,
+                errorListener));
+    }
+
+    /**
+     * Performs a GET request, using {@link ResponseCache} if the path is cacheable.
+     *
+     * A fresh cached response is passed to the listener without a request (still
+     * asynchronously on the main thread, like a Volley response). A stale entry is
+     * revalidated if possible.
+     */
+    void connectCached(Uri uri, @Nullable OnSuccessListener listener,
+                       @Nullable OnErrorListener errorListener) {
+        if (!ResponseCache.isCacheable(mPath)) {
+            connect(Request.Method.GET, uri, null, listener, errorListener);
+            return;
+        }
+        ResponseCache.Entry cached = ResponseCache.get(uri);
+        if (cached != null && cached.isFresh()) {
+            Log.v(TAG, "Using cached response for " + uri.toString());
+            RequestMetrics.getEndpoint(Request.Method.GET, mPath).recordCacheHit();
+            if (listener != null) {
+                new Handler(Looper.getMainLooper()).post(() -> listener.onSuccess(cached.body));
             }
-        };
+            return;
+        }
+        connect(new CachedRequest(uri, cached, toParsedListener(listener), errorListener));
+    }
 
+    private void connect(RestRequest<?> request) {
+        Log.v(TAG, "Performing " + mPriority + " request to " + request.getUrl());
         // Some requests seem to be slow or fail, make sure this doesn't break the app
         // (eg if an event request fails, new event requests won't be triggered).
         request.setRetryPolicy(new DefaultRetryPolicy(5000, 5,
                 DefaultRetryPolicy.DEFAULT_BACKOFF_MULT));
-        getVolleyQueue().add(request);
+        enqueue(getVolleyQueue(), request);
+    }
+
+    /**
+     * Adds the request to queue once {@link #sRequestBudget} allows it. Until then, it is
+     * held back on the main thread, not on a network thread, so it doesn't block the queue for
+     * interactive requests. A request cancelled in the meantime is never added.
+     */
+    private void enqueue(RequestQueue queue, Request<?> request) {
+        mRequest = request;
+        long delayMs = getRequestBudget().reserve(request.getPriority());
+        if (delayMs == 0) {
+            queue.add(request);
+            return;
+        }
+        Log.v(TAG, "Delaying request to " + request.getUrl() + " by " + delayMs + " ms");
+        synchronized (sDelayedRequests) {
+            sDelayedRequests.add(request);
+        }
+        sDelayHandler.postDelayed(() -> {
+            synchronized (sDelayedRequests) {
+                sDelayedRequests.remove(request);
+            }
+            if (!request.isCanceled()) {
+                queue.add(request);
+            }
+        }, delayMs);
+    }
+
+    /**
+     * Performs a GET request that the server may hold back for up to timeoutMs, on a separate
+     * queue. It is not retried, as a retry would wait for the whole timeout again. The caller
+     * is expected to handle errors and start the next poll.
+     */
+    <T> void connectLongPoll(Uri uri, int timeoutMs, ResponseParser<T> parser,
+                             @Nullable OnParsedListener<T> listener,
+                             @Nullable OnErrorListener errorListener) {
+        Log.v(TAG, "Performing long poll request to " + uri.toString());
+        RestRequest<T> request =
+                new RestRequest<>(Request.Method.GET, uri, null, parser, listener, errorListener);
+        request.setRetryPolicy(new DefaultRetryPolicy(timeoutMs, 0, 1f));
+        enqueue(getLongPollQueue(), request);
+    }
+
+    /**
+     * Cancels the request, so that none of its listeners is called anymore.
+     */
+    public void cancel() {
+        if (mRequest != null) {
+            mRequest.cancel();
+        }
+    }
+
+    /**
+     * Returns true if {@link #cancel} or {@link #cancelAll} was called for this request.
+     */
+    public boolean isCancelled() {
+        return mRequest != null && mRequest.isCanceled();
+    }
+
+    @Nullable
+    private static OnParsedListener<String> toParsedListener(@Nullable OnSuccessListener listener) {
+        return (listener != null) ? listener::onSuccess : null;
+    }
+
+    /**
+     * Request to the Syncthing API, authenticated with the API key. Records its
+     * {@link RequestMetrics}.
+     */
+    private class RestRequest<T> extends StreamingRequest<T> implements StreamedBody {
+
+        private final @Nullable byte[] mRequestBody;
+        private @Nullable BodyWriter mBodyWriter;
+        private final RequestMetrics.Sample mSample;
+
+        RestRequest(int requestMethod, Uri uri, @Nullable byte[] requestBody,
+                    ResponseParser<T> parser, @Nullable OnParsedListener<T> listener,
+                    @Nullable OnErrorListener errorListener) {
+            super(requestMethod, uri.toString(), parser, reply -> {
+                if (listener != null) {
+                    listener.onParsed(reply);
+                }
+            }, error -> {
+                if (errorListener != null) {
+                    errorListener.onError(error);
+                } else {
+                    Log.w(TAG, "Request to " + uri + " failed, " + error.getMessage());
+                }
+            });
+            mRequestBody = requestBody;
+            mSample = RequestMetrics.start(requestMethod, mPath, requestBody);
+            setShouldCache(false);
+            if (mTag != null) {
+                setTag(mTag);
+            }
+        }
+
+        @Override
+        public Request.Priority getPriority() {
+            return mPriority.mVolleyPriority;
+        }
+
+        /**
+         * Asks for gzip on {@link #GZIP_PATHS}, and for uncompressed responses otherwise. Setting
+         * the header also stops OkHttp from negotiating gzip for small responses by itself.
+         * Over the Unix socket nothing is sent over a network, so gzip is never requested.
+         */
+        @Override
+        public Map<String, String> getHeaders() throws AuthFailureError {
+            boolean gzip = GZIP_PATHS.contains(mPath) && !LocalSocketStack.isActive();
+            return ImmutableMap.of(HEADER_API_KEY, mApiKey,
+                    HEADER_ACCEPT_ENCODING, gzip ? "gzip" : "identity");
+        }
+
+        @Override
+        public byte[] getBody() throws AuthFailureError {
+            BodyWriter bodyWriter = getBodyWriter();
+            if (bodyWriter == null) {
+                return mRequestBody;
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try {
+                bodyWriter.writeTo(out);
+            } catch (IOException e) {
+                throw new IllegalStateException("Failed to write request body", e);
+            }
+            return out.toByteArray();
+        }
+
+        /**
+         * Returns mBodyWriter, counting the bytes it writes for {@link RequestMetrics}.
+         */
+        @Override
+        public @Nullable BodyWriter getBodyWriter() {
+            if (mBodyWriter == null) {
+                return null;
+            }
+            return out -> {
+                CountingOutputStream counting = new CountingOutputStream(out);
+                mBodyWriter.writeTo(counting);
+                mSample.requestBytes = counting.getCount();
+            };
+        }
+
+        @Override
+        protected Response<T> parseNetworkResponse(NetworkResponse response) {
+            Response<T> parsed = super.parseNetworkResponse(response);
+            mSample.responseBytes = getBodyBytes();
+            mSample.decodedBytes = getDecodedBytes();
+            mSample.parseNanos = getParseNanos();
+            return parsed;
+        }
+
+        @Override
+        protected void deliverResponse(T response) {
+            mSample.finish(getRetryPolicy().getCurrentRetryCount(), null);
+            super.deliverResponse(response);
+        }
+
+        @Override
+        public void deliverError(VolleyError error) {
+            mSample.finish(getRetryPolicy().getCurrentRetryCount(), error);
+            super.deliverError(error);
+        }
+    }
+
+    /**
+     * GET request whose response is stored in {@link ResponseCache}. If a stale cached
+     * response is given, it is revalidated.
+     */
+    private class CachedRequest extends RestRequest<String> {
+
+        private final Uri mUri;
+        private final @Nullable ResponseCache.Entry mCached;
+
+        CachedRequest(Uri uri, @Nullable ResponseCache.Entry cached,
+                      @Nullable OnParsedListener<String> listener,
+                      @Nullable OnErrorListener errorListener) {
+            super(Request.Method.GET, uri, null, STRING_PARSER, listener, errorListener);
+            mUri = uri;
+            mCached = cached;
+        }
+
+        @Override
+        public Map<String, String> getHeaders() throws AuthFailureError {
+            if (mCached == null || !mCached.canRevalidate()) {
+                return super.getHeaders();
+            }
+            Map<String, String> headers = new HashMap<>(super.getHeaders());
+            headers.putAll(mCached.getConditionalHeaders());
+            return headers;
+        }
+
+        @Override
+        protected Response<String> parseNetworkResponse(NetworkResponse response) {
+            if (response.statusCode == HttpURLConnection.HTTP_NOT_MODIFIED && mCached != null) {
+                ResponseCache.refresh(mPath, mUri, mCached);
+                return Response.success(mCached.body, null);
+            }
+            Response<String> parsed = super.parseNetworkResponse(response);
+            if (parsed.isSuccess()) {
+                ResponseCache.put(mPath, mUri, parsed.result, response.headers);
+            }
+            return parsed;
+        }
     }
 
     /**
@@ -127,6 +557,7 @@ public abstract class ApiRequest {
      */
     void makeImageRequest(Uri uri, @Nullable OnImageSuccessListener imageListener,
                           @Nullable OnErrorListener errorListener) {
+        final RequestMetrics.Sample sample = RequestMetrics.start(Request.Method.GET, mPath, null);
         ImageRequest imageRequest =  new ImageRequest(uri.toString(), bitmap -> {
             if (imageListener != null) {
                 imageListener.onImageSuccess(bitmap);
@@ -141,41 +572,65 @@ public abstract class ApiRequest {
             public Map<String, String> getHeaders() throws AuthFailureError {
                 return ImmutableMap.of(HEADER_API_KEY, mApiKey);
             }
-        };
 
-        getVolleyQueue().add(imageRequest);
-    }
+            @Override
+            public Request.Priority getPriority() {
+                return mPriority.mVolleyPriority;
+            }
 
-    /**
-     * Extends {@link HurlStack}, uses {@link #getSslSocketFactory()} and disables hostname
-     * verification.
-     */
-    private class NetworkStack extends HurlStack {
+            @Override
+            protected Response<Bitmap> parseNetworkResponse(NetworkResponse response) {
+                sample.responseBytes = (response.data != null) ? response.data.length : 0;
+                return super.parseNetworkResponse(response);
+            }
 
-        public NetworkStack() {
-            super(null, getSslSocketFactory());
-        }
-        @Override
-        protected HttpURLConnection createConnection(URL url) throws IOException {
-            if (mUrl.toString().startsWith("https://")) {
-                HttpsURLConnection connection = (HttpsURLConnection) super.createConnection(url);
-                connection.setHostnameVerifier((hostname, session) -> true);
-                return connection;
+            @Override
+            protected void deliverResponse(Bitmap response) {
+                sample.finish(getRetryPolicy().getCurrentRetryCount(), null);
+                super.deliverResponse(response);
+            }
+
+            @Override
+            public void deliverError(VolleyError error) {
+                sample.finish(getRetryPolicy().getCurrentRetryCount(), error);
+                super.deliverError(error);
             }
-            return super.createConnection(url);
+        };
+        imageRequest.setShouldCache(false);
+        if (mTag != null) {
+            imageRequest.setTag(mTag);
         }
+        enqueue(getVolleyQueue(), imageRequest);
     }
 
-    private SSLSocketFactory getSslSocketFactory() {
+    /**
+     * Creates the transport used for all requests. It uses the Unix socket set with
+     * {@link #setApiSocket}, and otherwise TCP with certificates checked by
+     * {@link SyncthingTrustManager}.
+     *
+     * The transport and its SSLContext are created once per process. New connections resume
+     * a cached TLS session where possible, which skips the full handshake including the
+     * certificate check.
+     */
+    private BaseHttpStack createHttpStack() {
+        return new LocalSocketStack(createTcpStack());
+    }
+
+    private BaseHttpStack createTcpStack() {
+        SyncthingTrustManager trustManager =
+                new SyncthingTrustManager(Constants.getHttpsCertFile(mContext));
         try {
             SSLContext sslContext = SSLContext.getInstance("TLS");
-            File httpsCertPath = Constants.getHttpsCertFile(mContext);
-            sslContext.init(null, new TrustManager[]{new SyncthingTrustManager(httpsCertPath)},
-                    new SecureRandom());
-            return sslContext.getSocketFactory();
+            sslContext.init(null, new TrustManager[]{trustManager}, new SecureRandom());
+            SSLSessionContext sessionContext = sslContext.getClientSessionContext();
+            if (sessionContext != null) {
+                sessionContext.setSessionCacheSize(TLS_SESSION_CACHE_SIZE);
+                sessionContext.setSessionTimeout(TLS_SESSION_TIMEOUT_SECONDS);
+            }
+            return new OkHttpStack(sslContext.getSocketFactory(), trustManager);
         } catch (NoSuchAlgorithmException | KeyManagementException e) {
             Log.w(TAG, e);
-            return null;
+            return new OkHttpStack(null, null);
         }
     }
 }
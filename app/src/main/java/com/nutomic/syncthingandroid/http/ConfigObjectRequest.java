@@ -0,0 +1,34 @@
+package com.nutomic.syncthingandroid.http;
+
+import android.content.Context;
+import android.net.Uri;
+import android.support.annotation.Nullable;
+
+import com.android.volley.Request;
+
+import java.net.URL;
+import java.util.Collections;
+
+/**
+ * Replaces or deletes a single object of the Syncthing config instead of sending the whole
+ * config with {@link PostConfigRequest}. The endpoints are available since Syncthing v1.12.0.
+ */
+public class ConfigObjectRequest extends ApiRequest {
+
+    public static final String URI_CONFIG_FOLDERS = "/rest/config/folders/";
+    public static final String URI_CONFIG_DEVICES = "/rest/config/devices/";
+
+    /**
+     * @param path   Path of the object, e.g. {@link #URI_CONFIG_FOLDERS} followed by the folder ID.
+     * @param object The new object as UTF-8 encoded JSON, or null to delete the object.
+     */
+    public ConfigObjectRequest(Context context, URL url, String path, String apiKey,
+                               @Nullable byte[] object, @Nullable OnSuccessListener listener,
+                               @Nullable OnErrorListener errorListener) {
+        super(context, url, path, apiKey);
+        Uri uri = buildUri(Collections.emptyMap());
+        int method = (object != null) ? Request.Method.PUT : Request.Method.DELETE;
+        connect(method, uri, object, listener, errorListener);
+    }
+
+}
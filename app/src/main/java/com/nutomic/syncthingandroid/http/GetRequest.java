@@ -4,7 +4,6 @@ import android.content.Context;
 import android.net.Uri;
 import android.support.annotation.Nullable;
 
-import com.android.volley.Request;
 import com.google.common.base.Optional;
 
 import java.net.URL;
@@ -22,16 +21,47 @@ public class GetRequest extends ApiRequest {
     public static final String URI_SYSTEM      = "/rest/system/status";
     public static final String URI_CONNECTIONS = "/rest/system/connections";
     public static final String URI_STATUS      = "/rest/db/status";
+    public static final String URI_COMPLETION  = "/rest/db/completion";
     public static final String URI_DEVICEID    = "/rest/svc/deviceid";
     public static final String URI_REPORT      = "/rest/svc/report";
     public static final String URI_EVENTS      = "/rest/events";
 
     public GetRequest(Context context, URL url, String path, String apiKey,
                       @Nullable Map<String, String> params, OnSuccessListener listener) {
+        this(context, url, path, apiKey, params, listener, null);
+    }
+
+    public GetRequest(Context context, URL url, String path, String apiKey,
+                      @Nullable Map<String, String> params, OnSuccessListener listener,
+                      @Nullable OnErrorListener errorListener) {
+        this(context, url, path, apiKey, params, Priority.BACKGROUND, null, listener,
+                errorListener);
+    }
+
+    /**
+     * @param tag If not null, the request can be cancelled with {@link #cancelAll}.
+     */
+    public GetRequest(Context context, URL url, String path, String apiKey,
+                      @Nullable Map<String, String> params, Priority priority,
+                      @Nullable Object tag, OnSuccessListener listener,
+                      @Nullable OnErrorListener errorListener) {
+        super(context, url, path, apiKey, priority, tag);
+        Map<String, String> safeParams = Optional.fromNullable(params).or(Collections.emptyMap());
+        Uri uri = buildUri(safeParams);
+        connectCached(uri, listener, errorListener);
+    }
+
+    /**
+     * Parses the response with parser while it is received, instead of passing it to the
+     * listener as a String. Responses are never cached.
+     */
+    public <T> GetRequest(Context context, URL url, String path, String apiKey,
+                          @Nullable Map<String, String> params, ResponseParser<T> parser,
+                          OnParsedListener<T> listener, @Nullable OnErrorListener errorListener) {
         super(context, url, path, apiKey);
         Map<String, String> safeParams = Optional.fromNullable(params).or(Collections.emptyMap());
         Uri uri = buildUri(safeParams);
-        connect(Request.Method.GET, uri, null, listener, null);
+        connectParsed(uri, parser, listener, errorListener);
     }
 
 }
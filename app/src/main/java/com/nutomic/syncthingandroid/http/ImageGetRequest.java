@@ -17,7 +17,8 @@ public class ImageGetRequest extends ApiRequest {
     public ImageGetRequest(Context context, URL url, String path, String apiKey,
                            @Nullable Map<String, String> params,
                            OnImageSuccessListener onSuccessListener, OnErrorListener onErrorListener) {
-        super(context, url, path, apiKey);
+        // Only requested for the screen of context.
+        super(context, url, path, apiKey, Priority.INTERACTIVE, context);
         Map<String, String> safeParams = Optional.fromNullable(params).or(Collections.emptyMap());
         Uri uri = buildUri(safeParams);
         makeImageRequest(uri, onSuccessListener, onErrorListener);
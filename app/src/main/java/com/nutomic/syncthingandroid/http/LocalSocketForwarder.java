@@ -0,0 +1,179 @@
+package com.nutomic.syncthingandroid.http;
+
+import android.net.LocalSocket;
+import android.net.LocalSocketAddress;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Accepts TCP connections on the loopback address of the web GUI URL and forwards them to
+ * Syncthing's Unix domain socket. Connections are plain HTTP, so only loopback addresses are
+ * accepted, see {@link com.nutomic.syncthingandroid.util.ConfigXml#getWebGuiUrl}.
+ *
+ * Syncthing only listens on one GUI address. When the REST API is moved to a Unix socket, this
+ * keeps the web GUI reachable over TCP for {@link com.nutomic.syncthingandroid.activities.WebGuiActivity}.
+ */
+public class LocalSocketForwarder {
+
+    private static final String TAG = "LocalSocketForwarder";
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final InetSocketAddress mAddress;
+    private final String mSocketPath;
+    private final ExecutorService mExecutor = Executors.newCachedThreadPool();
+
+    /**
+     * Open connections, closed when the forwarder is stopped. Locked on itself.
+     */
+    private final Set<Connection> mConnections = new HashSet<>();
+
+    private @Nullable ServerSocket mServerSocket;
+
+    public LocalSocketForwarder(URL url, File socket) {
+        mAddress = new InetSocketAddress(url.getHost(),
+                (url.getPort() != -1) ? url.getPort() : url.getDefaultPort());
+        mSocketPath = socket.getAbsolutePath();
+    }
+
+    /**
+     * Starts accepting connections in the background.
+     */
+    public void start() throws IOException {
+        if (mAddress.getAddress() == null || !mAddress.getAddress().isLoopbackAddress()) {
+            throw new IOException("Refusing to forward non-loopback address " + mAddress);
+        }
+        ServerSocket serverSocket = new ServerSocket();
+        serverSocket.setReuseAddress(true);
+        serverSocket.bind(mAddress);
+        mServerSocket = serverSocket;
+        mExecutor.execute(() -> acceptConnections(serverSocket));
+        Log.i(TAG, "Forwarding " + mAddress + " to " + mSocketPath);
+    }
+
+    /**
+     * Stops accepting connections and closes all open connections.
+     */
+    public void stop() {
+        if (mServerSocket != null) {
+            closeQuietly(mServerSocket);
+            mServerSocket = null;
+        }
+        synchronized (mConnections) {
+            for (Connection connection : mConnections) {
+                connection.close();
+            }
+            mConnections.clear();
+        }
+        mExecutor.shutdown();
+    }
+
+    private void acceptConnections(ServerSocket serverSocket) {
+        while (!serverSocket.isClosed()) {
+            Socket client;
+            try {
+                client = serverSocket.accept();
+            } catch (IOException e) {
+                if (!serverSocket.isClosed()) {
+                    Log.w(TAG, "Failed to accept connection", e);
+                }
+                continue;
+            }
+            LocalSocket server = new LocalSocket();
+            Connection connection = new Connection(client, server);
+            try {
+                server.connect(new LocalSocketAddress(mSocketPath,
+                        LocalSocketAddress.Namespace.FILESYSTEM));
+                InputStream clientIn = client.getInputStream();
+                OutputStream clientOut = client.getOutputStream();
+                InputStream serverIn = server.getInputStream();
+                OutputStream serverOut = server.getOutputStream();
+                synchronized (mConnections) {
+                    mConnections.add(connection);
+                }
+                mExecutor.execute(() -> pump(clientIn, serverOut, connection));
+                mExecutor.execute(() -> pump(serverIn, clientOut, connection));
+            } catch (IOException | RuntimeException e) {
+                // RejectedExecutionException if stopped meanwhile.
+                Log.w(TAG, "Failed to forward connection to " + mSocketPath, e);
+                connection.close();
+            }
+        }
+    }
+
+    /**
+     * Copies in to out until either side of the connection is closed, then closes both.
+     */
+    private void pump(InputStream in, OutputStream out, Connection connection) {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+                out.flush();
+            }
+        } catch (IOException e) {
+            // The other direction closed the connection.
+        } finally {
+            synchronized (mConnections) {
+                mConnections.remove(connection);
+            }
+            connection.close();
+        }
+    }
+
+    private static void closeQuietly(ServerSocket serverSocket) {
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            // Already closed.
+        }
+    }
+
+    /**
+     * A forwarded connection. LocalSocket only implements Closeable since API level 17.
+     */
+    private static class Connection {
+
+        private final Socket mClient;
+        private final LocalSocket mServer;
+
+        Connection(Socket client, LocalSocket server) {
+            mClient = client;
+            mServer = server;
+        }
+
+        void close() {
+            try {
+                mClient.close();
+            } catch (IOException e) {
+                // Already closed.
+            }
+            try {
+                // Closing alone doesn't interrupt a blocked read on a LocalSocket.
+                mServer.shutdownInput();
+                mServer.shutdownOutput();
+            } catch (IOException e) {
+                // Not connected or already shut down.
+            }
+            try {
+                mServer.close();
+            } catch (IOException e) {
+                // Already closed.
+            }
+        }
+    }
+}
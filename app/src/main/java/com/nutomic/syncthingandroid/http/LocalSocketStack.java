@@ -0,0 +1,233 @@
+package com.nutomic.syncthingandroid.http;
+
+import android.net.LocalSocket;
+import android.net.LocalSocketAddress;
+import android.support.annotation.Nullable;
+import android.text.TextUtils;
+
+import com.android.volley.AuthFailureError;
+import com.android.volley.Header;
+import com.android.volley.Request;
+import com.android.volley.toolbox.BaseHttpStack;
+import com.android.volley.toolbox.HttpResponse;
+import com.google.common.io.ByteStreams;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link BaseHttpStack} that sends requests to Syncthing over its Unix domain socket if one is
+ * set with {@link #setSocketPath}, and through the given stack otherwise.
+ *
+ * The socket is only accessible to this app, so requests are sent in plain text and skip TCP
+ * and TLS completely. Requests use HTTP/1.0, so Syncthing closes the connection after each
+ * response and never uses chunked encoding. The URL's host and port are ignored.
+ *
+ * This is a trade-off, which is why TCP stays the default and the socket is an experimental
+ * opt-in ({@link com.nutomic.syncthingandroid.service.Constants#PREF_USE_UNIX_SOCKET}): the
+ * socket saves TLS encryption and the TCP stack, but opens a new connection for every request,
+ * while the TCP stack reuses pooled keep-alive connections and resumes TLS sessions. The web
+ * GUI additionally goes through {@link LocalSocketForwarder}. Which is faster has not been
+ * measured on a device; compare the "(unix)" endpoints in {@link RequestMetrics} before
+ * changing the default.
+ */
+class LocalSocketStack extends BaseHttpStack {
+
+    private static final String CHARSET = "ISO-8859-1";
+
+    private static volatile @Nullable String sSocketPath;
+
+    private final BaseHttpStack mFallback;
+
+    LocalSocketStack(BaseHttpStack fallback) {
+        mFallback = fallback;
+    }
+
+    /**
+     * Sends all following requests over the socket at the given path, or through the fallback
+     * stack if path is null.
+     */
+    static void setSocketPath(@Nullable String path) {
+        sSocketPath = path;
+    }
+
+    static boolean isActive() {
+        return sSocketPath != null;
+    }
+
+    @Override
+    public HttpResponse executeRequest(Request<?> request, Map<String, String> additionalHeaders)
+            throws IOException, AuthFailureError {
+        String path = sSocketPath;
+        if (path == null) {
+            return mFallback.executeRequest(request, additionalHeaders);
+        }
+
+        URL url = new URL(request.getUrl());
+        byte[] body = request.getBody();
+        StringBuilder head = new StringBuilder()
+                .append(getMethodName(request)).append(' ')
+                .append(TextUtils.isEmpty(url.getFile()) ? "/" : url.getFile())
+                .append(" HTTP/1.0\r\n")
+                .append("Host: localhost\r\n");
+        for (Map.Entry<String, String> header : request.getHeaders().entrySet()) {
+            appendHeader(head, header.getKey(), header.getValue());
+        }
+        for (Map.Entry<String, String> header : additionalHeaders.entrySet()) {
+            appendHeader(head, header.getKey(), header.getValue());
+        }
+        if (body != null) {
+            appendHeader(head, "Content-Type", request.getBodyContentType());
+            appendHeader(head, "Content-Length", String.valueOf(body.length));
+        }
+        head.append("\r\n");
+
+        LocalSocket socket = new LocalSocket();
+        try {
+            try {
+                socket.connect(new LocalSocketAddress(path,
+                        LocalSocketAddress.Namespace.FILESYSTEM));
+            } catch (IOException e) {
+                // Reported like a refused TCP connection, e.g. while Syncthing is starting.
+                ConnectException ce = new ConnectException("Failed to connect to " + path);
+                ce.initCause(e);
+                throw ce;
+            }
+            socket.setSoTimeout(request.getTimeoutMs());
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+            out.write(head.toString().getBytes(CHARSET));
+            if (body != null) {
+                out.write(body);
+            }
+            out.flush();
+
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            String statusLine = readLine(in);
+            String[] status = statusLine.split(" ", 3);
+            if (status.length < 2 || !status[0].startsWith("HTTP/")) {
+                throw new IOException("Invalid status line: " + statusLine);
+            }
+            int statusCode;
+            try {
+                statusCode = Integer.parseInt(status[1]);
+            } catch (NumberFormatException e) {
+                throw new IOException("Invalid status line: " + statusLine, e);
+            }
+
+            List<Header> headers = new ArrayList<>();
+            long contentLength = -1;
+            for (String line = readLine(in); !line.isEmpty(); line = readLine(in)) {
+                int colon = line.indexOf(':');
+                if (colon <= 0) {
+                    throw new IOException("Invalid header: " + line);
+                }
+                Header header = new Header(line.substring(0, colon).trim(),
+                        line.substring(colon + 1).trim());
+                headers.add(header);
+                if ("Content-Length".equalsIgnoreCase(header.getName())) {
+                    try {
+                        contentLength = Long.parseLong(header.getValue());
+                    } catch (NumberFormatException e) {
+                        throw new IOException("Invalid header: " + line, e);
+                    }
+                }
+            }
+
+            // Without Content-Length, the body ends when Syncthing closes the connection.
+            InputStream content = (contentLength >= 0) ? ByteStreams.limit(in, contentLength) : in;
+            return new HttpResponse(statusCode, headers, (int) contentLength,
+                    new SocketInputStream(content, socket));
+        } catch (IOException | RuntimeException e) {
+            closeQuietly(socket);
+            throw e;
+        }
+    }
+
+    private static void appendHeader(StringBuilder head, String name, String value) {
+        head.append(name).append(": ").append(value).append("\r\n");
+    }
+
+    private static String getMethodName(Request<?> request) throws AuthFailureError {
+        switch (request.getMethod()) {
+            case Request.Method.DEPRECATED_GET_OR_POST:
+                return (request.getBody() != null) ? "POST" : "GET";
+            case Request.Method.GET:
+                return "GET";
+            case Request.Method.DELETE:
+                return "DELETE";
+            case Request.Method.POST:
+                return "POST";
+            case Request.Method.PUT:
+                return "PUT";
+            case Request.Method.HEAD:
+                return "HEAD";
+            case Request.Method.OPTIONS:
+                return "OPTIONS";
+            case Request.Method.TRACE:
+                return "TRACE";
+            case Request.Method.PATCH:
+                return "PATCH";
+            default:
+                throw new IllegalStateException("Unknown method type " + request.getMethod());
+        }
+    }
+
+    /**
+     * Reads a line terminated by CRLF or LF, without the terminator.
+     */
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream(64);
+        while (true) {
+            int b = in.read();
+            if (b == -1) {
+                throw new IOException("Unexpected end of response header");
+            }
+            if (b == '\n') {
+                break;
+            }
+            line.write(b);
+        }
+        String s = line.toString(CHARSET);
+        return s.endsWith("\r") ? s.substring(0, s.length() - 1) : s;
+    }
+
+    private static void closeQuietly(LocalSocket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Nothing left to clean up.
+        }
+    }
+
+    /**
+     * Response body that closes the socket when it is closed.
+     */
+    private static class SocketInputStream extends FilterInputStream {
+
+        private final LocalSocket mSocket;
+
+        SocketInputStream(InputStream in, LocalSocket socket) {
+            super(in);
+            mSocket = socket;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                mSocket.close();
+            }
+        }
+    }
+}
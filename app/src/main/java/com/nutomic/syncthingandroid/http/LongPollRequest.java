@@ -0,0 +1,34 @@
+package com.nutomic.syncthingandroid.http;
+
+import android.content.Context;
+import android.net.Uri;
+import android.support.annotation.Nullable;
+
+import com.google.common.base.Optional;
+
+import java.net.URL;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Performs a GET request to the Syncthing API that the server holds back until there is
+ * something to return or the timeout expires, e.g. {@link GetRequest#URI_EVENTS}.
+ *
+ * Long polls don't block regular requests, and they are not retried.
+ */
+public class LongPollRequest extends ApiRequest {
+
+    /**
+     * @param parser Parses the response while it is received.
+     */
+    public <T> LongPollRequest(Context context, URL url, String path, String apiKey,
+                               @Nullable Map<String, String> params, int timeoutMs,
+                               ResponseParser<T> parser, OnParsedListener<T> listener,
+                               OnErrorListener errorListener) {
+        super(context, url, path, apiKey);
+        Map<String, String> safeParams = Optional.fromNullable(params).or(Collections.emptyMap());
+        Uri uri = buildUri(safeParams);
+        connectLongPoll(uri, timeoutMs, parser, listener, errorListener);
+    }
+
+}
@@ -0,0 +1,176 @@
+package com.nutomic.syncthingandroid.http;
+
+import android.support.annotation.Nullable;
+
+import com.android.volley.AuthFailureError;
+import com.android.volley.Header;
+import com.android.volley.Request;
+import com.android.volley.toolbox.BaseHttpStack;
+import com.android.volley.toolbox.HttpResponse;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.X509TrustManager;
+
+import okhttp3.ConnectionPool;
+import okhttp3.ConnectionSpec;
+import okhttp3.Headers;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.RequestBody;
+import okhttp3.ResponseBody;
+import okio.BufferedSink;
+
+/**
+ * {@link BaseHttpStack} that sends all requests through one {@link OkHttpClient}, so they share
+ * a pool of keep-alive connections to Syncthing instead of opening (and handshaking) a new
+ * connection for most requests. Over TLS, HTTP/2 is used if the server offers it, which
+ * multiplexes concurrent requests over a single connection.
+ *
+ * Server certificates are checked with the given trust manager, host names are not verified.
+ */
+class OkHttpStack extends BaseHttpStack {
+
+    /**
+     * Idle connections kept in the pool. Volley runs four network threads, plus long polling.
+     */
+    private static final int MAX_IDLE_CONNECTIONS = 5;
+
+    private static final long KEEP_ALIVE_DURATION_MINUTES = 5;
+
+    private static final RequestBody EMPTY_BODY = RequestBody.create(null, new byte[0]);
+
+    private final OkHttpClient mClient;
+
+    /**
+     * Uses the platform's default certificate checks if sslSocketFactory is null.
+     */
+    OkHttpStack(@Nullable SSLSocketFactory sslSocketFactory,
+                @Nullable X509TrustManager trustManager) {
+        OkHttpClient.Builder builder = new OkHttpClient.Builder()
+                .connectionPool(new ConnectionPool(MAX_IDLE_CONNECTIONS,
+                        KEEP_ALIVE_DURATION_MINUTES, TimeUnit.MINUTES))
+                .protocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1))
+                // Old Android versions don't support the ciphers of MODERN_TLS.
+                .connectionSpecs(Arrays.asList(ConnectionSpec.MODERN_TLS,
+                        ConnectionSpec.COMPATIBLE_TLS, ConnectionSpec.CLEARTEXT))
+                .hostnameVerifier((hostname, session) -> true);
+        if (sslSocketFactory != null && trustManager != null) {
+            builder.sslSocketFactory(sslSocketFactory, trustManager);
+        }
+        mClient = builder.build();
+    }
+
+    @Override
+    public HttpResponse executeRequest(Request<?> request, Map<String, String> additionalHeaders)
+            throws IOException, AuthFailureError {
+        // Derived clients share the connection pool.
+        int timeoutMs = request.getTimeoutMs();
+        OkHttpClient client = mClient.newBuilder()
+                .connectTimeout(timeoutMs, TimeUnit.MILLISECONDS)
+                .readTimeout(timeoutMs, TimeUnit.MILLISECONDS)
+                .writeTimeout(timeoutMs, TimeUnit.MILLISECONDS)
+                .build();
+
+        okhttp3.Request.Builder builder = new okhttp3.Request.Builder().url(request.getUrl());
+        for (Map.Entry<String, String> header : request.getHeaders().entrySet()) {
+            builder.header(header.getKey(), header.getValue());
+        }
+        for (Map.Entry<String, String> header : additionalHeaders.entrySet()) {
+            builder.header(header.getKey(), header.getValue());
+        }
+        setMethodAndBody(builder, request);
+
+        okhttp3.Response response = client.newCall(builder.build()).execute();
+        List<Header> headers = new ArrayList<>();
+        Headers responseHeaders = response.headers();
+        for (int i = 0; i < responseHeaders.size(); i++) {
+            headers.add(new Header(responseHeaders.name(i), responseHeaders.value(i)));
+        }
+        ResponseBody body = response.body();
+        if (body == null) {
+            return new HttpResponse(response.code(), headers);
+        }
+        return new HttpResponse(response.code(), headers, (int) body.contentLength(),
+                body.byteStream());
+    }
+
+    /**
+     * Returns a body that is written while it is sent, with chunked transfer encoding, or null
+     * if the request does not stream its body.
+     */
+    private static @Nullable RequestBody createStreamedBody(Request<?> request) {
+        if (!(request instanceof ApiRequest.StreamedBody)) {
+            return null;
+        }
+        ApiRequest.BodyWriter bodyWriter = ((ApiRequest.StreamedBody) request).getBodyWriter();
+        if (bodyWriter == null) {
+            return null;
+        }
+        MediaType contentType = MediaType.parse(request.getBodyContentType());
+        return new RequestBody() {
+            @Override
+            public MediaType contentType() {
+                return contentType;
+            }
+
+            @Override
+            public void writeTo(BufferedSink sink) throws IOException {
+                bodyWriter.writeTo(sink.outputStream());
+            }
+        };
+    }
+
+    private static void setMethodAndBody(okhttp3.Request.Builder builder, Request<?> request)
+            throws AuthFailureError {
+        RequestBody requestBody = createStreamedBody(request);
+        if (requestBody == null) {
+            byte[] body = request.getBody();
+            requestBody = (body != null)
+                    ? RequestBody.create(MediaType.parse(request.getBodyContentType()), body)
+                    : null;
+        }
+        switch (request.getMethod()) {
+            case Request.Method.DEPRECATED_GET_OR_POST:
+                if (requestBody != null) {
+                    builder.post(requestBody);
+                } else {
+                    builder.get();
+                }
+                break;
+            case Request.Method.GET:
+                builder.get();
+                break;
+            case Request.Method.DELETE:
+                builder.delete(requestBody);
+                break;
+            case Request.Method.POST:
+                builder.post((requestBody != null) ? requestBody : EMPTY_BODY);
+                break;
+            case Request.Method.PUT:
+                builder.put((requestBody != null) ? requestBody : EMPTY_BODY);
+                break;
+            case Request.Method.HEAD:
+                builder.head();
+                break;
+            case Request.Method.OPTIONS:
+                builder.method("OPTIONS", null);
+                break;
+            case Request.Method.TRACE:
+                builder.method("TRACE", null);
+                break;
+            case Request.Method.PATCH:
+                builder.patch((requestBody != null) ? requestBody : EMPTY_BODY);
+                break;
+            default:
+                throw new IllegalStateException("Unknown method type " + request.getMethod());
+        }
+    }
+}
@@ -12,11 +12,14 @@ public class PostConfigRequest extends ApiRequest {
 
     private static final String URI_CONFIG = "/rest/system/config";
 
-    public PostConfigRequest(Context context, URL url, String apiKey, String config,
+    /**
+     * @param config Writes the complete config as UTF-8 encoded JSON while it is sent.
+     */
+    public PostConfigRequest(Context context, URL url, String apiKey, BodyWriter config,
                              OnSuccessListener listener) {
         super(context, url, URI_CONFIG, apiKey);
         Uri uri = buildUri(Collections.emptyMap());
-        connect(Request.Method.POST, uri, config, listener, null);
+        connectStreamed(Request.Method.POST, uri, config, listener, null);
     }
 
 }
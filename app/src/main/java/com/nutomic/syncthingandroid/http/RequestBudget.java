@@ -0,0 +1,56 @@
+package com.nutomic.syncthingandroid.http;
+
+import com.android.volley.Request;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket limiting the rate of requests sent to Syncthing, shared by all queues, so bursts
+ * of background requests (e.g. fetching the completion of every folder) don't keep the binary
+ * busy on slow devices.
+ *
+ * Every request takes a token before it is added to a queue. If none is left, the request is
+ * added once one is refilled, so no network thread waits for the budget while an interactive
+ * request is queued. Requests of {@link Request.Priority#HIGH} or above take a token without
+ * delay, so the user never waits for the budget; the tokens they borrow delay the following
+ * requests instead.
+ */
+class RequestBudget {
+
+    private final double mTokensPerNano;
+    private final double mCapacity;
+
+    /**
+     * Tokens available, negative if requests are waiting for tokens. Locked on this.
+     */
+    private double mTokens;
+    private long mLastRefillNanos;
+
+    /**
+     * @param requestsPerSecond Sustained rate.
+     * @param burst             Number of requests that may be sent at once after a pause.
+     */
+    RequestBudget(double requestsPerSecond, int burst) {
+        mTokensPerNano = requestsPerSecond / TimeUnit.SECONDS.toNanos(1);
+        mCapacity = burst;
+        mTokens = burst;
+        mLastRefillNanos = System.nanoTime();
+    }
+
+    /**
+     * Takes a token for a request without waiting for it.
+     *
+     * @return Time in ms until the token is available, after which the request may be sent,
+     *         or 0 if it may be sent now. Always 0 for interactive requests.
+     */
+    synchronized long reserve(Request.Priority priority) {
+        long now = System.nanoTime();
+        mTokens = Math.min(mCapacity, mTokens + (now - mLastRefillNanos) * mTokensPerNano);
+        mLastRefillNanos = now;
+        mTokens -= 1;
+        if (mTokens >= 0 || priority.compareTo(Request.Priority.HIGH) >= 0) {
+            return 0;
+        }
+        return TimeUnit.NANOSECONDS.toMillis((long) Math.ceil(-mTokens / mTokensPerNano));
+    }
+}
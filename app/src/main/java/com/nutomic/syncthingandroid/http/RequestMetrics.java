@@ -0,0 +1,366 @@
+package com.nutomic.syncthingandroid.http;
+
+import android.os.Process;
+
+import com.android.volley.AuthFailureError;
+import com.android.volley.ClientError;
+import com.android.volley.NetworkError;
+import com.android.volley.NoConnectionError;
+import com.android.volley.ParseError;
+import com.android.volley.Request;
+import com.android.volley.ServerError;
+import com.android.volley.TimeoutError;
+import com.android.volley.VolleyError;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Collects statistics about requests to the Syncthing API per endpoint (method and path):
+ * latency, transferred bytes, retries and errors by class.
+ *
+ * Latency is measured from queuing a request until its result is delivered, so it includes
+ * time spent waiting for a free network thread. It is recorded in a histogram where each
+ * power of two range is split into {@link #SUB_BUCKETS} / 2 linear buckets, so percentiles
+ * have a relative error below 2 / {@link #SUB_BUCKETS} (about 6%) for any latency.
+ *
+ * Response bytes are counted as transferred and after decompression, together with the time
+ * spent parsing, so the effect of compression can be measured on a device.
+ *
+ * Paths that end with an object id, like {@link ConfigObjectRequest#URI_CONFIG_FOLDERS}, are
+ * counted under a template ending in {@link #ID_PLACEHOLDER}, so there is one endpoint per
+ * kind of object instead of one per object.
+ *
+ * Requests sent over Syncthing's Unix socket are counted separately from those over TCP, with
+ * {@link #UNIX_SOCKET_SUFFIX} appended to the endpoint, so both transports can be compared.
+ * The CPU time used by the app process is included for the same purpose.
+ *
+ * Recording only uses atomic counters, so it does not block request threads.
+ */
+public class RequestMetrics {
+
+    public enum ErrorClass {
+        TIMEOUT, NO_CONNECTION, AUTH, CLIENT, SERVER, PARSE, NETWORK, OTHER;
+
+        static ErrorClass of(VolleyError error) {
+            if (error instanceof TimeoutError) {
+                return TIMEOUT;
+            } else if (error instanceof NoConnectionError) {
+                return NO_CONNECTION;
+            } else if (error instanceof AuthFailureError) {
+                return AUTH;
+            } else if (error instanceof ClientError) {
+                return CLIENT;
+            } else if (error instanceof ServerError) {
+                return SERVER;
+            } else if (error instanceof ParseError) {
+                return PARSE;
+            } else if (error instanceof NetworkError) {
+                return NETWORK;
+            }
+            return OTHER;
+        }
+    }
+
+    /**
+     * Paths that are followed by the id of an object.
+     */
+    private static final String[] OBJECT_PATH_PREFIXES = {
+            ConfigObjectRequest.URI_CONFIG_FOLDERS,
+            ConfigObjectRequest.URI_CONFIG_DEVICES,
+    };
+
+    private static final String ID_PLACEHOLDER = "{id}";
+
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /**
+     * Latencies are recorded in microseconds, up to 2^31 us (about 36 minutes).
+     */
+    private static final int MAX_VALUE_BITS = 31;
+
+    private static final int BUCKET_COUNT = bucketIndex((1L << MAX_VALUE_BITS) - 1) + 1;
+
+    private static final double[] PERCENTILES = {0.5, 0.9, 0.99};
+
+    private static final ConcurrentMap<String, Endpoint> sEndpoints = new ConcurrentHashMap<>();
+
+    private static final long sStartTime = System.currentTimeMillis();
+
+    private static final String UNIX_SOCKET_SUFFIX = " (unix)";
+
+    /**
+     * Statistics of a single endpoint.
+     */
+    public static class Endpoint {
+        private final AtomicLongArray mLatencyBuckets = new AtomicLongArray(BUCKET_COUNT);
+        private final AtomicLong mMaxLatency = new AtomicLong();
+        private final AtomicLong mCount = new AtomicLong();
+        private final AtomicLong mCacheHits = new AtomicLong();
+        private final AtomicLong mRequestBytes = new AtomicLong();
+        private final AtomicLong mResponseBytes = new AtomicLong();
+        private final AtomicLong mDecodedBytes = new AtomicLong();
+        private final AtomicLong mParseMicros = new AtomicLong();
+        private final AtomicLong mRetries = new AtomicLong();
+        private final AtomicLongArray mErrors = new AtomicLongArray(ErrorClass.values().length);
+
+        void recordCacheHit() {
+            mCacheHits.incrementAndGet();
+        }
+
+        private void record(long latencyMicros, long requestBytes, long responseBytes,
+                            long decodedBytes, long parseMicros, int retries,
+                            ErrorClass error) {
+            long latency = Math.min(Math.max(0, latencyMicros), (1L << MAX_VALUE_BITS) - 1);
+            mLatencyBuckets.incrementAndGet(bucketIndex(latency));
+            long max;
+            while (latency > (max = mMaxLatency.get())) {
+                if (mMaxLatency.compareAndSet(max, latency)) {
+                    break;
+                }
+            }
+            mCount.incrementAndGet();
+            mRequestBytes.addAndGet(requestBytes);
+            mResponseBytes.addAndGet(responseBytes);
+            mDecodedBytes.addAndGet(decodedBytes);
+            mParseMicros.addAndGet(parseMicros);
+            mRetries.addAndGet(retries);
+            if (error != null) {
+                mErrors.incrementAndGet(error.ordinal());
+            }
+        }
+
+        /**
+         * Returns the latency in microseconds below which the given fraction of requests
+         * finished, or 0 if there were no requests.
+         */
+        public long getLatencyPercentile(double fraction) {
+            long[] buckets = new long[BUCKET_COUNT];
+            long total = 0;
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                buckets[i] = mLatencyBuckets.get(i);
+                total += buckets[i];
+            }
+            long rank = (long) Math.ceil(fraction * total);
+            long seen = 0;
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                seen += buckets[i];
+                if (seen >= rank && buckets[i] > 0) {
+                    return Math.min(bucketUpperBound(i), mMaxLatency.get());
+                }
+            }
+            return 0;
+        }
+
+        public long getCount() {
+            return mCount.get();
+        }
+
+        public long getErrorCount() {
+            long errors = 0;
+            for (int i = 0; i < mErrors.length(); i++) {
+                errors += mErrors.get(i);
+            }
+            return errors;
+        }
+    }
+
+    /**
+     * Measurement of a single request, started when it is queued.
+     */
+    static class Sample {
+        private final Endpoint mEndpoint;
+        private final long mStartNanos = System.nanoTime();
+        volatile long requestBytes;
+        volatile long responseBytes = 0;
+        volatile long decodedBytes = 0;
+        volatile long parseNanos = 0;
+
+        private Sample(Endpoint endpoint, long requestBytes) {
+            mEndpoint = endpoint;
+            this.requestBytes = requestBytes;
+        }
+
+        void finish(int retries, VolleyError error) {
+            if (error != null && error.networkResponse != null &&
+                    error.networkResponse.data != null) {
+                responseBytes = error.networkResponse.data.length;
+            }
+            long latency = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - mStartNanos);
+            // Responses that were not decompressed, e.g. errors or images.
+            long decoded = (decodedBytes > 0) ? decodedBytes : responseBytes;
+            mEndpoint.record(latency, requestBytes, responseBytes, decoded,
+                    TimeUnit.NANOSECONDS.toMicros(parseNanos), retries,
+                    (error != null) ? ErrorClass.of(error) : null);
+        }
+    }
+
+    static Endpoint getEndpoint(int method, String path) {
+        String key = getMethodName(method) + " " + getPathTemplate(path)
+                + (LocalSocketStack.isActive() ? UNIX_SOCKET_SUFFIX : "");
+        Endpoint endpoint = sEndpoints.get(key);
+        if (endpoint == null) {
+            Endpoint created = new Endpoint();
+            endpoint = sEndpoints.putIfAbsent(key, created);
+            if (endpoint == null) {
+                endpoint = created;
+            }
+        }
+        return endpoint;
+    }
+
+    /**
+     * Replaces the object id at the end of path with {@link #ID_PLACEHOLDER}.
+     */
+    private static String getPathTemplate(String path) {
+        for (String prefix : OBJECT_PATH_PREFIXES) {
+            if (path.length() > prefix.length() && path.startsWith(prefix)) {
+                return prefix + ID_PLACEHOLDER;
+            }
+        }
+        return path;
+    }
+
+    static Sample start(int method, String path, byte[] requestBody) {
+        return new Sample(getEndpoint(method, path),
+                (requestBody != null) ? requestBody.length : 0);
+    }
+
+    /**
+     * Returns the statistics of all endpoints, sorted by endpoint.
+     */
+    public static Map<String, Endpoint> getEndpoints() {
+        return new TreeMap<>(sEndpoints);
+    }
+
+    /**
+     * Returns a human readable summary of all endpoints.
+     */
+    public static String getSummary() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format(Locale.US, "Process CPU time: %d ms\n\n",
+                Process.getElapsedCpuTime()));
+        for (Map.Entry<String, Endpoint> e : getEndpoints().entrySet()) {
+            Endpoint endpoint = e.getValue();
+            sb.append(e.getKey()).append('\n');
+            sb.append(String.format(Locale.US,
+                    "  %d requests, %d cached, %d errors, %d retries\n",
+                    endpoint.mCount.get(), endpoint.mCacheHits.get(), endpoint.getErrorCount(),
+                    endpoint.mRetries.get()));
+            sb.append(String.format(Locale.US,
+                    "  latency ms: p50 %.1f, p90 %.1f, p99 %.1f, max %.1f\n",
+                    endpoint.getLatencyPercentile(0.5) / 1000.0,
+                    endpoint.getLatencyPercentile(0.9) / 1000.0,
+                    endpoint.getLatencyPercentile(0.99) / 1000.0,
+                    endpoint.mMaxLatency.get() / 1000.0));
+            sb.append(String.format(Locale.US, "  bytes: %d sent, %d received, %d decoded\n",
+                    endpoint.mRequestBytes.get(), endpoint.mResponseBytes.get(),
+                    endpoint.mDecodedBytes.get()));
+            if (endpoint.mCount.get() > 0) {
+                sb.append(String.format(Locale.US, "  parse ms: avg %.1f\n",
+                        endpoint.mParseMicros.get() / 1000.0 / endpoint.mCount.get()));
+            }
+            for (ErrorClass error : ErrorClass.values()) {
+                long count = endpoint.mErrors.get(error.ordinal());
+                if (count > 0) {
+                    sb.append("  ").append(error.name().toLowerCase(Locale.US)).append(": ")
+                            .append(count).append('\n');
+                }
+            }
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Writes all statistics as a JSON object, including the non-empty histogram buckets as
+     * [upper bound in us, count] pairs.
+     */
+    public static void writeJson(JsonWriter json) throws IOException {
+        json.beginObject();
+        json.name("since").value(sStartTime);
+        json.name("time").value(System.currentTimeMillis());
+        json.name("cpuTimeMs").value(Process.getElapsedCpuTime());
+        json.name("endpoints").beginObject();
+        for (Map.Entry<String, Endpoint> e : getEndpoints().entrySet()) {
+            Endpoint endpoint = e.getValue();
+            json.name(e.getKey()).beginObject();
+            json.name("count").value(endpoint.mCount.get());
+            json.name("cacheHits").value(endpoint.mCacheHits.get());
+            json.name("retries").value(endpoint.mRetries.get());
+            json.name("requestBytes").value(endpoint.mRequestBytes.get());
+            json.name("responseBytes").value(endpoint.mResponseBytes.get());
+            json.name("decodedBytes").value(endpoint.mDecodedBytes.get());
+            json.name("parseUs").value(endpoint.mParseMicros.get());
+            json.name("errors").beginObject();
+            for (ErrorClass error : ErrorClass.values()) {
+                json.name(error.name().toLowerCase(Locale.US))
+                        .value(endpoint.mErrors.get(error.ordinal()));
+            }
+            json.endObject();
+            json.name("latencyUs").beginObject();
+            for (double percentile : PERCENTILES) {
+                json.name("p" + Math.round(percentile * 100))
+                        .value(endpoint.getLatencyPercentile(percentile));
+            }
+            json.name("max").value(endpoint.mMaxLatency.get());
+            json.name("histogram").beginArray();
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                long count = endpoint.mLatencyBuckets.get(i);
+                if (count > 0) {
+                    json.beginArray().value(bucketUpperBound(i)).value(count).endArray();
+                }
+            }
+            json.endArray();
+            json.endObject();
+            json.endObject();
+        }
+        json.endObject();
+        json.endObject();
+    }
+
+    public static void reset() {
+        sEndpoints.clear();
+    }
+
+    /**
+     * Values below {@link #SUB_BUCKETS} have their own bucket. Above, each power of two range
+     * is split into SUB_BUCKETS / 2 buckets.
+     */
+    private static int bucketIndex(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = (63 - Long.numberOfLeadingZeros(value)) - (SUB_BUCKET_BITS - 1);
+        return (shift << (SUB_BUCKET_BITS - 1)) + (int) (value >>> shift);
+    }
+
+    private static long bucketUpperBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = (index >> (SUB_BUCKET_BITS - 1)) - 1;
+        long mantissa = (index & (SUB_BUCKETS / 2 - 1)) + SUB_BUCKETS / 2;
+        return ((mantissa + 1) << shift) - 1;
+    }
+
+    private static String getMethodName(int method) {
+        switch (method) {
+            case Request.Method.GET:    return "GET";
+            case Request.Method.POST:   return "POST";
+            case Request.Method.PUT:    return "PUT";
+            case Request.Method.DELETE: return "DELETE";
+            case Request.Method.PATCH:  return "PATCH";
+            default:                    return "METHOD" + method;
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package com.nutomic.syncthingandroid.http;
+
+import android.net.Uri;
+import android.os.SystemClock;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import com.google.common.collect.ImmutableMap;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Caches responses of GET requests to endpoints whose data rarely changes.
+ *
+ * Entries are keyed by the full request URI (including params) and stay fresh for the TTL
+ * configured for their endpoint in {@link #TTLS}. Stale entries are revalidated with
+ * If-None-Match or If-Modified-Since if the server sent an ETag or Last-Modified header.
+ * All entries are dropped by {@link #invalidate} whenever the Syncthing binary is started
+ * or stopped.
+ */
+public final class ResponseCache {
+
+    private static final String TAG = "ResponseCache";
+
+    /**
+     * TTL for endpoints whose response can only change when Syncthing restarts.
+     */
+    private static final long TTL_UNTIL_INVALIDATED = Long.MAX_VALUE;
+
+    /**
+     * TTL in ms for each cached endpoint. Endpoints not listed here are never cached.
+     *
+     * System status is only cached briefly so that several screens asking for it at the
+     * same time share a response, while the periodic GUI updates still get current values.
+     */
+    private static final Map<String, Long> TTLS = ImmutableMap.of(
+            GetRequest.URI_VERSION, TTL_UNTIL_INVALIDATED,
+            GetRequest.URI_DEBUG,   TTL_UNTIL_INVALIDATED,
+            GetRequest.URI_SYSTEM,  2500L);
+
+    static final String HEADER_ETAG = "ETag";
+    static final String HEADER_LAST_MODIFIED = "Last-Modified";
+    static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+    static final String HEADER_IF_MODIFIED_SINCE = "If-Modified-Since";
+
+    static final class Entry {
+        final String body;
+        final @Nullable String eTag;
+        final @Nullable String lastModified;
+        private final long mExpiresAt;
+
+        private Entry(String body, @Nullable String eTag, @Nullable String lastModified,
+                      long ttl) {
+            this.body = body;
+            this.eTag = eTag;
+            this.lastModified = lastModified;
+            long now = SystemClock.elapsedRealtime();
+            mExpiresAt = ttl == TTL_UNTIL_INVALIDATED ? Long.MAX_VALUE : now + ttl;
+        }
+
+        boolean isFresh() {
+            return SystemClock.elapsedRealtime() < mExpiresAt;
+        }
+
+        boolean canRevalidate() {
+            return eTag != null || lastModified != null;
+        }
+
+        /**
+         * Returns the headers to send with a request revalidating this entry.
+         */
+        Map<String, String> getConditionalHeaders() {
+            Map<String, String> headers = new HashMap<>();
+            if (eTag != null) {
+                headers.put(HEADER_IF_NONE_MATCH, eTag);
+            }
+            if (lastModified != null) {
+                headers.put(HEADER_IF_MODIFIED_SINCE, lastModified);
+            }
+            return headers;
+        }
+    }
+
+    private static final Map<String, Entry> sEntries = new HashMap<>();
+
+    private ResponseCache() {
+    }
+
+    static boolean isCacheable(String path) {
+        return TTLS.containsKey(path);
+    }
+
+    /**
+     * Returns the cached entry for the given request, which may be stale, or null.
+     */
+    @Nullable
+    static Entry get(Uri uri) {
+        synchronized (sEntries) {
+            return sEntries.get(uri.toString());
+        }
+    }
+
+    /**
+     * Stores a response. headers are the response headers, used for later revalidation.
+     */
+    static void put(String path, Uri uri, String body, @Nullable Map<String, String> headers) {
+        Long ttl = TTLS.get(path);
+        if (ttl == null) {
+            return;
+        }
+        String eTag = headers != null ? headers.get(HEADER_ETAG) : null;
+        String lastModified = headers != null ? headers.get(HEADER_LAST_MODIFIED) : null;
+        synchronized (sEntries) {
+            sEntries.put(uri.toString(), new Entry(body, eTag, lastModified, ttl));
+        }
+    }
+
+    /**
+     * Marks a stale entry as fresh again after the server confirmed it is unchanged.
+     */
+    static void refresh(String path, Uri uri, Entry entry) {
+        Long ttl = TTLS.get(path);
+        if (ttl == null) {
+            return;
+        }
+        synchronized (sEntries) {
+            sEntries.put(uri.toString(),
+                    new Entry(entry.body, entry.eTag, entry.lastModified, ttl));
+        }
+    }
+
+    /**
+     * Drops all cached responses. Called when the Syncthing binary is started or stopped,
+     * as responses of the previous instance may be outdated.
+     */
+    public static void invalidate() {
+        synchronized (sEntries) {
+            if (!sEntries.isEmpty()) {
+                Log.v(TAG, "Invalidating " + sEntries.size() + " cached response(s)");
+            }
+            sEntries.clear();
+        }
+    }
+}
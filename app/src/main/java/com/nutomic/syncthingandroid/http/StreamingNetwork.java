@@ -0,0 +1,139 @@
+package com.nutomic.syncthingandroid.http;
+
+import android.os.SystemClock;
+
+import com.android.volley.AuthFailureError;
+import com.android.volley.ClientError;
+import com.android.volley.Header;
+import com.android.volley.Network;
+import com.android.volley.NetworkError;
+import com.android.volley.NetworkResponse;
+import com.android.volley.NoConnectionError;
+import com.android.volley.Request;
+import com.android.volley.ServerError;
+import com.android.volley.TimeoutError;
+import com.android.volley.VolleyError;
+import com.android.volley.toolbox.BaseHttpStack;
+import com.android.volley.toolbox.HttpResponse;
+import com.google.common.io.ByteStreams;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.SocketTimeoutException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * {@link Network} that passes successful response bodies of {@link StreamingRequest}s to the
+ * request's parser while they are read, instead of buffering them in a byte array like
+ * {@link com.android.volley.toolbox.BasicNetwork}. Other requests (e.g. images) and error
+ * responses are buffered.
+ *
+ * Requests are retried according to their retry policy, like with BasicNetwork. The
+ * {@link RequestBudget} is applied before requests are queued, see {@link ApiRequest}.
+ * Volley's HTTP cache is not supported, the queues using this network don't have one.
+ */
+class StreamingNetwork implements Network {
+
+    private final BaseHttpStack mHttpStack;
+
+    StreamingNetwork(BaseHttpStack httpStack) {
+        mHttpStack = httpStack;
+    }
+
+    @Override
+    public NetworkResponse performRequest(Request<?> request) throws VolleyError {
+        long startTime = SystemClock.elapsedRealtime();
+        while (true) {
+            HttpResponse httpResponse = null;
+            byte[] data = null;
+            try {
+                httpResponse = mHttpStack.executeRequest(request,
+                        Collections.<String, String>emptyMap());
+                int statusCode = httpResponse.getStatusCode();
+                List<Header> headers = httpResponse.getHeaders();
+                InputStream content = (httpResponse.getContent() != null)
+                        ? httpResponse.getContent()
+                        : new ByteArrayInputStream(new byte[0]);
+                boolean success = statusCode >= 200 && statusCode <= 299;
+                if (success && request instanceof StreamingRequest) {
+                    try {
+                        ((StreamingRequest<?>) request).parseStream(content, toHeaderMap(headers));
+                    } finally {
+                        closeQuietly(content);
+                    }
+                    return new NetworkResponse(statusCode, new byte[0], false,
+                            SystemClock.elapsedRealtime() - startTime, headers);
+                }
+                try {
+                    data = ByteStreams.toByteArray(content);
+                } finally {
+                    closeQuietly(content);
+                }
+                if (statusCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                    return new NetworkResponse(statusCode, data, true,
+                            SystemClock.elapsedRealtime() - startTime, headers);
+                }
+                if (!success) {
+                    throw new IOException("Unexpected response code " + statusCode);
+                }
+                return new NetworkResponse(statusCode, data, false,
+                        SystemClock.elapsedRealtime() - startTime, headers);
+            } catch (SocketTimeoutException e) {
+                attemptRetry(request, new TimeoutError());
+            } catch (MalformedURLException e) {
+                throw new RuntimeException("Bad URL " + request.getUrl(), e);
+            } catch (IOException e) {
+                if (httpResponse == null) {
+                    throw new NoConnectionError(e);
+                }
+                if (data == null) {
+                    // The connection failed while reading the body.
+                    attemptRetry(request, new NetworkError(e));
+                    continue;
+                }
+                int statusCode = httpResponse.getStatusCode();
+                NetworkResponse response = new NetworkResponse(statusCode, data, false,
+                        SystemClock.elapsedRealtime() - startTime, httpResponse.getHeaders());
+                if (statusCode == HttpURLConnection.HTTP_UNAUTHORIZED ||
+                        statusCode == HttpURLConnection.HTTP_FORBIDDEN) {
+                    attemptRetry(request, new AuthFailureError(response));
+                } else if (statusCode >= 400 && statusCode <= 499) {
+                    throw new ClientError(response);
+                } else if (statusCode >= 500 && request.shouldRetryServerErrors()) {
+                    attemptRetry(request, new ServerError(response));
+                } else {
+                    throw new ServerError(response);
+                }
+            }
+        }
+    }
+
+    /**
+     * Lets the request's retry policy decide whether to try again, throws the error if not.
+     */
+    private static void attemptRetry(Request<?> request, VolleyError error) throws VolleyError {
+        request.getRetryPolicy().retry(error);
+    }
+
+    private static Map<String, String> toHeaderMap(List<Header> headers) {
+        Map<String, String> map = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        for (Header header : headers) {
+            map.put(header.getName(), header.getValue());
+        }
+        return map;
+    }
+
+    private static void closeQuietly(InputStream in) {
+        try {
+            in.close();
+        } catch (IOException e) {
+            // The response was read completely or is discarded anyway.
+        }
+    }
+}
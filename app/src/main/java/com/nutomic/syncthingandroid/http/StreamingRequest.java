@@ -0,0 +1,132 @@
+package com.nutomic.syncthingandroid.http;
+
+import android.support.annotation.Nullable;
+
+import com.android.volley.NetworkResponse;
+import com.android.volley.ParseError;
+import com.android.volley.Request;
+import com.android.volley.Response;
+import com.android.volley.toolbox.HttpHeaderParser;
+import com.google.common.io.CountingInputStream;
+import com.google.gson.JsonIOException;
+import com.google.gson.JsonParseException;
+import com.nutomic.syncthingandroid.util.Tracer;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Request whose response body is passed to a {@link ApiRequest.ResponseParser} while it is
+ * read from the connection by {@link StreamingNetwork}, so it is never held as a whole in a
+ * byte array or String (unless the parser does that).
+ *
+ * With a {@link com.android.volley.Network} that buffers responses, the buffered body is
+ * parsed instead.
+ *
+ * Gzip encoded bodies are decompressed while they are parsed. Requests that want them must send
+ * the Accept-Encoding header themselves, so the transport passes the body on unchanged.
+ */
+abstract class StreamingRequest<T> extends Request<T> {
+
+    private static final String DEFAULT_CHARSET = "UTF-8";
+
+    private static final String HEADER_CONTENT_ENCODING = "Content-Encoding";
+
+    private final ApiRequest.ResponseParser<T> mParser;
+    private final @Nullable Response.Listener<T> mListener;
+
+    private volatile boolean mParsed = false;
+    private volatile @Nullable T mResult;
+    private volatile long mBodyBytes = 0;
+    private volatile long mDecodedBytes = 0;
+    private volatile long mParseNanos = 0;
+
+    StreamingRequest(int method, String url, ApiRequest.ResponseParser<T> parser,
+                     @Nullable Response.Listener<T> listener,
+                     @Nullable Response.ErrorListener errorListener) {
+        super(method, url, errorListener);
+        mParser = parser;
+        mListener = listener;
+    }
+
+    /**
+     * Parses a successful response body. Called on a network thread.
+     *
+     * @throws IOException if reading the body failed, so the request may be retried.
+     * @throws ParseError  if the body could not be parsed.
+     */
+    final void parseStream(InputStream body, Map<String, String> headers)
+            throws IOException, ParseError {
+        long startNanos = System.nanoTime();
+        CountingInputStream counting = new CountingInputStream(body);
+        CountingInputStream decoded = counting;
+        boolean traced = Tracer.begin("StreamingRequest.parseStream");
+        try {
+            if ("gzip".equalsIgnoreCase(headers.get(HEADER_CONTENT_ENCODING))) {
+                decoded = new CountingInputStream(new GZIPInputStream(counting));
+            }
+            Reader reader = new InputStreamReader(decoded,
+                    HttpHeaderParser.parseCharset(headers, DEFAULT_CHARSET));
+            mResult = mParser.parse(reader);
+            mParsed = true;
+        } catch (JsonIOException e) {
+            // Gson wraps errors of the underlying stream.
+            throw new IOException(e);
+        } catch (JsonParseException e) {
+            throw new ParseError(e);
+        } finally {
+            mBodyBytes = counting.getCount();
+            mDecodedBytes = decoded.getCount();
+            mParseNanos = System.nanoTime() - startNanos;
+            Tracer.end(traced);
+        }
+    }
+
+    /**
+     * Returns the number of bytes of the response body that were read, as transferred.
+     */
+    long getBodyBytes() {
+        return mBodyBytes;
+    }
+
+    /**
+     * Returns the number of bytes of the response body after decompression.
+     */
+    long getDecodedBytes() {
+        return mDecodedBytes;
+    }
+
+    /**
+     * Returns the time spent reading, decompressing and parsing the response body.
+     */
+    long getParseNanos() {
+        return mParseNanos;
+    }
+
+    @Override
+    protected Response<T> parseNetworkResponse(NetworkResponse response) {
+        if (!mParsed) {
+            byte[] data = (response.data != null) ? response.data : new byte[0];
+            try {
+                parseStream(new ByteArrayInputStream(data), response.headers);
+            } catch (IOException e) {
+                return Response.error(new ParseError(e));
+            } catch (ParseError e) {
+                return Response.error(e);
+            }
+        }
+        return Response.success(mResult, null);
+    }
+
+    @Override
+    protected void deliverResponse(T response) {
+        if (mListener != null) {
+            mListener.onResponse(response);
+        }
+    }
+}
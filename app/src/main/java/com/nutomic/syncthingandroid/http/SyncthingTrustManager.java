@@ -1,6 +1,7 @@
 package com.nutomic.syncthingandroid.http;
 
 import android.annotation.SuppressLint;
+import android.support.annotation.Nullable;
 import android.util.Log;
 
 import java.io.File;
@@ -11,24 +12,47 @@ import java.io.InputStream;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
+import java.security.PublicKey;
 import java.security.SignatureException;
 import java.security.cert.CertificateException;
 import java.security.cert.CertificateFactory;
 import java.security.cert.X509Certificate;
+import java.util.Arrays;
 
 import javax.net.ssl.X509TrustManager;
 
 /*
  * TrustManager checking against the local Syncthing instance's https public key.
  *
+ * The public key is only read from the certificate file again when the file was modified,
+ * e.g. because Syncthing generated a new certificate. The last chain that was verified with
+ * the current key is remembered, so handshakes with the same server certificate don't need
+ * to verify signatures again.
+ *
  * Based on http://stackoverflow.com/questions/16719959#16759793
  */
 class SyncthingTrustManager implements X509TrustManager {
 
     private static final String TAG = "SyncthingTrustManager";
 
+    /**
+     * Public key read from the certificate file, and the last chain verified with it.
+     */
+    private static final class TrustAnchor {
+        final long lastModified;
+        final PublicKey publicKey;
+        volatile @Nullable X509Certificate[] verifiedChain;
+
+        TrustAnchor(long lastModified, PublicKey publicKey) {
+            this.lastModified = lastModified;
+            this.publicKey = publicKey;
+        }
+    }
+
     private final File mHttpsCertPath;
 
+    private volatile @Nullable TrustAnchor mTrustAnchor;
+
     SyncthingTrustManager(File httpsCertPath) {
         mHttpsCertPath = httpsCertPath;
     }
@@ -45,16 +69,37 @@ class SyncthingTrustManager implements X509TrustManager {
     @Override
     public void checkServerTrusted(X509Certificate[] certs,
                                    String authType) throws CertificateException {
+        TrustAnchor anchor = getTrustAnchor();
+        if (Arrays.equals(certs, anchor.verifiedChain)) {
+            return;
+        }
+        try {
+            for (X509Certificate cert : certs) {
+                cert.verify(anchor.publicKey);
+            }
+        } catch (NoSuchAlgorithmException | InvalidKeyException |
+                NoSuchProviderException | SignatureException e) {
+            throw new CertificateException("Untrusted Certificate!", e);
+        }
+        anchor.verifiedChain = certs.clone();
+    }
+
+    /**
+     * Returns the cached public key, or reads it if the certificate file changed since.
+     */
+    private TrustAnchor getTrustAnchor() throws CertificateException {
+        long lastModified = mHttpsCertPath.lastModified();
+        TrustAnchor anchor = mTrustAnchor;
+        if (anchor != null && anchor.lastModified == lastModified) {
+            return anchor;
+        }
         InputStream is = null;
         try {
             is = new FileInputStream(mHttpsCertPath);
             CertificateFactory cf = CertificateFactory.getInstance("X.509");
             X509Certificate ca = (X509Certificate) cf.generateCertificate(is);
-            for (X509Certificate cert : certs) {
-                cert.verify(ca.getPublicKey());
-            }
-        } catch (FileNotFoundException | NoSuchAlgorithmException | InvalidKeyException |
-                NoSuchProviderException | SignatureException e) {
+            anchor = new TrustAnchor(lastModified, ca.getPublicKey());
+        } catch (FileNotFoundException e) {
             throw new CertificateException("Untrusted Certificate!", e);
         } finally {
             try {
@@ -64,7 +109,11 @@ class SyncthingTrustManager implements X509TrustManager {
                 Log.w(TAG, e);
             }
         }
+        Log.v(TAG, "Loaded public key from " + mHttpsCertPath);
+        mTrustAnchor = anchor;
+        return anchor;
     }
+
     public X509Certificate[] getAcceptedIssuers() {
         return null;
     }
@@ -1,141 +1,205 @@
-package com.nutomic.syncthingandroid.model;
-
-import android.util.Log;
-
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-
-/**
- * This class caches remote folder and device synchronization
- * completion indicators defined in {@link CompletionInfo#CompletionInfo}
- * according to syncthing's REST "/completion" JSON result schema.
- * Completion model of syncthing's web UI is completion[deviceId][folderId]
- */
-public class Completion {
-
-    private static final String TAG = "Completion";
-
-    HashMap<String, HashMap<String, CompletionInfo>> deviceFolderMap =
-        new HashMap<String, HashMap<String, CompletionInfo>>();
-
-    /**
-     * Removes a folder from the cache model.
-     */
-    private void removeFolder(String folderId) {
-        for (HashMap<String, CompletionInfo> folderMap : deviceFolderMap.values()) {
-            if (folderMap.containsKey(folderId)) {
-                folderMap.remove(folderId);
-                break;
-            }
-        }
-    }
-
-    /**
-     * Updates device and folder information in the cache model
-     * after a config update.
-     */
-    public void updateFromConfig(List<Device> newDevices, List<Folder> newFolders) {
-        HashMap<String, CompletionInfo> folderMap;
-
-        // Handle devices that were removed from the config.
-        List<String> removedDevices = new ArrayList<>();;
-        Boolean deviceFound;
-        for (String deviceId : deviceFolderMap.keySet()) {
-            deviceFound = false;
-            for (Device device : newDevices) {
-                if (device.deviceID.equals(deviceId)) {
-                    deviceFound = true;
-                    break;
-                }
-            }
-            if (!deviceFound) {
-                removedDevices.add(deviceId);
-            }
-        }
-        for (String deviceId : removedDevices) {
-            Log.v(TAG, "updateFromConfig: Remove device '" + deviceId + "' from cache model");
-            deviceFolderMap.remove(deviceId);
-        }
-
-        // Handle devices that were added to the config.
-        for (Device device : newDevices) {
-            if (!deviceFolderMap.containsKey(device.deviceID)) {
-                Log.v(TAG, "updateFromConfig: Add device '" + device.deviceID + "' to cache model");
-                deviceFolderMap.put(device.deviceID, new HashMap<String, CompletionInfo>());
-            }
-        }
-
-        // Handle folders that were removed from the config.
-        List<String> removedFolders = new ArrayList<>();;
-        Boolean folderFound;
-        for (Map.Entry<String, HashMap<String, CompletionInfo>> device : deviceFolderMap.entrySet()) {
-            for (String folderId : device.getValue().keySet()) {
-                folderFound = false;
-                for (Folder folder : newFolders) {
-                    if (folder.id.equals(folderId)) {
-                        folderFound = true;
-                        break;
-                    }
-                }
-                if (!folderFound) {
-                    removedFolders.add(folderId);
-                }
-            }
-        }
-        for (String folderId : removedFolders) {
-            Log.v(TAG, "updateFromConfig: Remove folder '" + folderId + "' from cache model");
-            removeFolder(folderId);
-        }
-
-        // Handle folders that were added to the config.
-        for (Folder folder : newFolders) {
-            for (Device device : newDevices) {
-                if (folder.getDevice(device.deviceID) != null) {
-                    // folder is shared with device.
-                    folderMap = deviceFolderMap.get(device.deviceID);
-                    if (!folderMap.containsKey(folder.id)) {
-                        Log.v(TAG, "updateFromConfig: Add folder '" + folder.id +
-                                    "' shared with device '" + device.deviceID + "' to cache model.");
-                        folderMap.put(folder.id, new CompletionInfo());
-                    }
-                }
-            }
-        }
-    }
-
-    /**
-     * Calculates remote device sync completion percentage across all folders
-     * shared with the device.
-     */
-    public int getDeviceCompletion(String deviceId) {
-        int folderCount = 0;
-        double sumCompletion = 0;
-        HashMap<String, CompletionInfo> folderMap = deviceFolderMap.get(deviceId);
-        if (folderMap != null) {
-            for (Map.Entry<String, CompletionInfo> folder : folderMap.entrySet()) {
-                sumCompletion += folder.getValue().completion;
-                folderCount++;
-            }
-        }
-        if (folderCount == 0) {
-            return 100;
-        } else {
-            return (int) Math.floor(sumCompletion / folderCount);
-        }
-    }
-
-    /**
-     * Set completionInfo within the completion[deviceId][folderId] model.
-     */
-    public void setCompletionInfo(String deviceId, String folderId,
-                                    CompletionInfo completionInfo) {
-        // Add device parent node if it does not exist.
-        if (!deviceFolderMap.containsKey(deviceId)) {
-            deviceFolderMap.put(deviceId, new HashMap<String, CompletionInfo>());
-        }
-        // Add folder or update existing folder entry.
-        deviceFolderMap.get(deviceId).put(folderId, completionInfo);
-    }
-}
+package com.nutomic.syncthingandroid.model;
+
+import android.util.Log;
+
+import com.google.common.collect.SetMultimap;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * This class caches remote folder and device synchronization
+ * completion indicators defined in {@link CompletionInfo#CompletionInfo}
+ * according to syncthing's REST "/completion" JSON result schema.
+ * Completion model of syncthing's web UI is completion[deviceId][folderId]
+ *
+ * Besides the completion of each folder on each device, a running sum and count is kept per
+ * device and per folder, so {@link #getDeviceCompletion} and {@link #getFolderCompletion}
+ * don't need to iterate, and {@link #setCompletionInfo} only updates two aggregates.
+ * Sums are kept in fixed point to avoid rounding errors accumulating over many updates.
+ *
+ * All methods are thread-safe.
+ */
+public class Completion {
+
+    private static final String TAG = "Completion";
+
+    /**
+     * Fixed point scale of completion percentages in sums.
+     */
+    private static final long SCALE = 1000000;
+
+    private static class Aggregate {
+        long sum = 0;
+        int count = 0;
+
+        void add(long completion) {
+            sum += completion;
+            count++;
+        }
+
+        void remove(long completion) {
+            sum -= completion;
+            count--;
+        }
+
+        int get() {
+            return (count == 0) ? 100 : (int) Math.floor((double) sum / SCALE / count);
+        }
+    }
+
+    /**
+     * Completion of each folder in fixed point, keyed by device ID and folder ID.
+     */
+    private final Map<String, Map<String, Long>> mDeviceFolderMap = new HashMap<>();
+
+    private final Map<String, Aggregate> mDeviceAggregates = new HashMap<>();
+
+    private final Map<String, Aggregate> mFolderAggregates = new HashMap<>();
+
+    /**
+     * Updates device and folder information in the cache model
+     * after a config update.
+     *
+     * Only the differences to the previous config are applied: devices and folder shares that
+     * were removed are dropped, new ones are added with 100% completion, and existing ones
+     * keep their completion.
+     *
+     * @param deviceFolderIds IDs of the folders shared with each device, keyed by device ID.
+     */
+    public synchronized void updateFromConfig(List<Device> newDevices,
+                                              SetMultimap<String, String> deviceFolderIds) {
+        Set<String> newDeviceIds = new HashSet<>();
+        for (Device device : newDevices) {
+            newDeviceIds.add(device.deviceID);
+        }
+
+        // Handle devices that were removed from the config.
+        Iterator<Map.Entry<String, Map<String, Long>>> itDevices =
+                mDeviceFolderMap.entrySet().iterator();
+        while (itDevices.hasNext()) {
+            Map.Entry<String, Map<String, Long>> device = itDevices.next();
+            if (!newDeviceIds.contains(device.getKey())) {
+                Log.v(TAG, "updateFromConfig: Remove device '" + device.getKey() + "' from cache model");
+                for (Map.Entry<String, Long> folder : device.getValue().entrySet()) {
+                    removeFromFolderAggregate(folder.getKey(), folder.getValue());
+                }
+                mDeviceAggregates.remove(device.getKey());
+                itDevices.remove();
+            }
+        }
+
+        for (String deviceId : newDeviceIds) {
+            // Handle devices that were added to the config.
+            Map<String, Long> folderMap = mDeviceFolderMap.get(deviceId);
+            if (folderMap == null) {
+                Log.v(TAG, "updateFromConfig: Add device '" + deviceId + "' to cache model");
+                folderMap = new HashMap<>();
+                mDeviceFolderMap.put(deviceId, folderMap);
+            }
+
+            // Handle folders that were removed from the config or are no longer shared.
+            Set<String> sharedFolderIds = deviceFolderIds.get(deviceId);
+            Iterator<Map.Entry<String, Long>> itFolders = folderMap.entrySet().iterator();
+            while (itFolders.hasNext()) {
+                Map.Entry<String, Long> folder = itFolders.next();
+                if (!sharedFolderIds.contains(folder.getKey())) {
+                    Log.v(TAG, "updateFromConfig: Remove folder '" + folder.getKey() +
+                                "' shared with device '" + deviceId + "' from cache model");
+                    getAggregate(mDeviceAggregates, deviceId).remove(folder.getValue());
+                    removeFromFolderAggregate(folder.getKey(), folder.getValue());
+                    itFolders.remove();
+                }
+            }
+
+            // Handle folders that were added to the config.
+            if (folderMap.size() == sharedFolderIds.size()) {
+                continue;
+            }
+            for (String folderId : sharedFolderIds) {
+                if (!folderMap.containsKey(folderId)) {
+                    Log.v(TAG, "updateFromConfig: Add folder '" + folderId +
+                                "' shared with device '" + deviceId + "' to cache model.");
+                    put(folderMap, deviceId, folderId, toFixedPoint(new CompletionInfo().completion));
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns remote device sync completion percentage across all folders
+     * shared with the device.
+     */
+    public synchronized int getDeviceCompletion(String deviceId) {
+        Aggregate aggregate = mDeviceAggregates.get(deviceId);
+        return (aggregate != null) ? aggregate.get() : 100;
+    }
+
+    /**
+     * Returns folder sync completion percentage across all remote devices
+     * the folder is shared with.
+     */
+    public synchronized int getFolderCompletion(String folderId) {
+        Aggregate aggregate = mFolderAggregates.get(folderId);
+        return (aggregate != null) ? aggregate.get() : 100;
+    }
+
+    /**
+     * Set completionInfo within the completion[deviceId][folderId] model.
+     */
+    public synchronized void setCompletionInfo(String deviceId, String folderId,
+                                               CompletionInfo completionInfo) {
+        // Add device parent node if it does not exist.
+        Map<String, Long> folderMap = mDeviceFolderMap.get(deviceId);
+        if (folderMap == null) {
+            folderMap = new HashMap<>();
+            mDeviceFolderMap.put(deviceId, folderMap);
+        }
+        // Add folder or update existing folder entry.
+        long completion = toFixedPoint(completionInfo.completion);
+        Long previous = folderMap.get(folderId);
+        if (previous == null) {
+            put(folderMap, deviceId, folderId, completion);
+        } else if (previous != completion) {
+            folderMap.put(folderId, completion);
+            long delta = completion - previous;
+            getAggregate(mDeviceAggregates, deviceId).sum += delta;
+            getAggregate(mFolderAggregates, folderId).sum += delta;
+        }
+    }
+
+    private void put(Map<String, Long> folderMap, String deviceId, String folderId,
+                     long completion) {
+        folderMap.put(folderId, completion);
+        getAggregate(mDeviceAggregates, deviceId).add(completion);
+        getAggregate(mFolderAggregates, folderId).add(completion);
+    }
+
+    private void removeFromFolderAggregate(String folderId, long completion) {
+        Aggregate aggregate = mFolderAggregates.get(folderId);
+        if (aggregate == null) {
+            return;
+        }
+        aggregate.remove(completion);
+        if (aggregate.count == 0) {
+            mFolderAggregates.remove(folderId);
+        }
+    }
+
+    private static Aggregate getAggregate(Map<String, Aggregate> aggregates, String id) {
+        Aggregate aggregate = aggregates.get(id);
+        if (aggregate == null) {
+            aggregate = new Aggregate();
+            aggregates.put(id, aggregate);
+        }
+        return aggregate;
+    }
+
+    private static long toFixedPoint(double completion) {
+        return Math.round(completion * SCALE);
+    }
+}
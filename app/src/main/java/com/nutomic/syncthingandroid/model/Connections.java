@@ -21,14 +21,5 @@ public class Connections {
         public int completion;
         public long inBits;
         public long outBits;
-
-        public void setTransferRate(Connection previous, long msElapsed) {
-            long secondsElapsed = msElapsed / 1000;
-            long inBytes = 8 * (inBytesTotal - previous.inBytesTotal) / secondsElapsed;
-            long outBytes = 8 * (outBytesTotal - previous.outBytesTotal) / secondsElapsed;
-            inBits = Math.max(0, inBytes);
-            outBits = Math.max(0, outBytes);
-
-        }
     }
 }
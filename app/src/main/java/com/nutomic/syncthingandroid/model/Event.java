@@ -4,10 +4,31 @@ import java.util.Map;
 
 public class Event {
 
+    /**
+     * Event types, see https://docs.syncthing.net/dev/events.html
+     */
+    public static final String TYPE_CONFIG_SAVED        = "ConfigSaved";
+    public static final String TYPE_DEVICE_CONNECTED    = "DeviceConnected";
+    public static final String TYPE_DEVICE_DISCONNECTED = "DeviceDisconnected";
+    public static final String TYPE_DEVICE_PAUSED       = "DevicePaused";
+    public static final String TYPE_DEVICE_REJECTED     = "DeviceRejected";
+    public static final String TYPE_DEVICE_RESUMED      = "DeviceResumed";
+    public static final String TYPE_FOLDER_COMPLETION   = "FolderCompletion";
+    public static final String TYPE_FOLDER_REJECTED     = "FolderRejected";
+    public static final String TYPE_FOLDER_SUMMARY      = "FolderSummary";
+    public static final String TYPE_ITEM_FINISHED       = "ItemFinished";
+    public static final String TYPE_STATE_CHANGED       = "StateChanged";
+
     public int id;
     public int globalID;
     public String type;
     public String time;
     public Map<String, Object> data;
 
+    /**
+     * The "summary" of a {@link #TYPE_FOLDER_SUMMARY} event, which {@link ModelTypeAdapters}
+     * decodes directly instead of adding it to {@link #data}.
+     */
+    public transient FolderStatus folderSummary;
+
 }
@@ -6,6 +6,7 @@ import com.nutomic.syncthingandroid.service.Constants;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
@@ -20,7 +21,7 @@ public class Folder {
     public String type = Constants.FOLDER_TYPE_SEND_RECEIVE;
     public boolean fsWatcherEnabled = true;
     public int fsWatcherDelayS = 10;
-    private List<Device> devices = new ArrayList<>();
+    List<Device> devices = new ArrayList<>();
     public int rescanIntervalS;
     public final boolean ignorePerms = true;
     public boolean autoNormalize = true;
@@ -58,6 +59,13 @@ public class Folder {
         devices.add(d);
     }
 
+    /**
+     * Returns the devices this folder is shared with.
+     */
+    public List<Device> getDevices() {
+        return devices != null ? Collections.unmodifiableList(devices) : Collections.emptyList();
+    }
+
     public Device getDevice(String deviceId) {
         for (Device d : devices) {
             if (d.deviceID.equals(deviceId)) {
@@ -0,0 +1,983 @@
+package com.nutomic.syncthingandroid.model;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Streaming Gson type adapters for the model classes that are parsed on every poll or
+ * exist many times in a config or event batch, so they can be converted without reflection.
+ *
+ * Classes that only occur once per config (e.g. {@link Config}, {@link Options}) still use
+ * Gson's reflective adapter, which picks up the adapters below for their members.
+ *
+ * Like the reflective adapter, unknown names are skipped on read and null values are
+ * omitted on write. A JSON null leaves the field at its default value.
+ */
+public final class ModelTypeAdapters {
+
+    private ModelTypeAdapters() {
+    }
+
+    private static final TypeAdapter<CompletionInfo> COMPLETION_INFO = new CompletionInfoAdapter();
+    private static final TypeAdapter<Connections.Connection> CONNECTION = new ConnectionAdapter();
+    private static final TypeAdapter<Connections> CONNECTIONS = new ConnectionsAdapter();
+    private static final TypeAdapter<Device> DEVICE = new DeviceAdapter();
+    private static final TypeAdapter<Event> EVENT = new EventAdapter();
+    private static final TypeAdapter<Folder> FOLDER = new FolderAdapter();
+    private static final TypeAdapter<FolderStatus> FOLDER_STATUS = new FolderStatusAdapter();
+    private static final TypeAdapter<IgnoredFolder> IGNORED_FOLDER = new IgnoredFolderAdapter();
+    private static final TypeAdapter<PendingDevice> PENDING_DEVICE = new PendingDeviceAdapter();
+    private static final TypeAdapter<PendingFolder> PENDING_FOLDER = new PendingFolderAdapter();
+    private static final TypeAdapter<RemoteIgnoredDevice> REMOTE_IGNORED_DEVICE = new RemoteIgnoredDeviceAdapter();
+    private static final TypeAdapter<SystemInfo> SYSTEM_INFO = new SystemInfoAdapter();
+    private static final TypeAdapter<SystemVersion> SYSTEM_VERSION = new SystemVersionAdapter();
+
+    /**
+     * Returns the adapters above for their exact model class.
+     */
+    public static final TypeAdapterFactory FACTORY = new TypeAdapterFactory() {
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {
+            Class<? super T> rawType = type.getRawType();
+            if (rawType == CompletionInfo.class)        return (TypeAdapter<T>) COMPLETION_INFO;
+            if (rawType == Connections.Connection.class) return (TypeAdapter<T>) CONNECTION;
+            if (rawType == Connections.class)           return (TypeAdapter<T>) CONNECTIONS;
+            if (rawType == Device.class)                return (TypeAdapter<T>) DEVICE;
+            if (rawType == Event.class)                 return (TypeAdapter<T>) EVENT;
+            if (rawType == Folder.class)                return (TypeAdapter<T>) FOLDER;
+            if (rawType == FolderStatus.class)          return (TypeAdapter<T>) FOLDER_STATUS;
+            if (rawType == IgnoredFolder.class)         return (TypeAdapter<T>) IGNORED_FOLDER;
+            if (rawType == PendingDevice.class)         return (TypeAdapter<T>) PENDING_DEVICE;
+            if (rawType == PendingFolder.class)         return (TypeAdapter<T>) PENDING_FOLDER;
+            if (rawType == RemoteIgnoredDevice.class)   return (TypeAdapter<T>) REMOTE_IGNORED_DEVICE;
+            if (rawType == SystemInfo.class)            return (TypeAdapter<T>) SYSTEM_INFO;
+            if (rawType == SystemVersion.class)         return (TypeAdapter<T>) SYSTEM_VERSION;
+            return null;
+        }
+    };
+
+    /**
+     * Gson instance to be used for all conversions of model classes.
+     * Gson is thread safe, and sharing one instance also shares its cache of reflective adapters.
+     */
+    public static final Gson GSON = new GsonBuilder()
+            .registerTypeAdapterFactory(FACTORY)
+            .create();
+
+    private static final class CompletionInfoAdapter extends TypeAdapter<CompletionInfo> {
+        @Override
+        public void write(JsonWriter out, CompletionInfo value) throws IOException {
+            if (value == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            out.name("completion").value(value.completion);
+            out.endObject();
+        }
+
+        @Override
+        public CompletionInfo read(JsonReader in) throws IOException {
+            if (skipNull(in)) {
+                return null;
+            }
+            CompletionInfo value = new CompletionInfo();
+            in.beginObject();
+            while (in.hasNext()) {
+                String name = in.nextName();
+                if (skipNull(in)) {
+                    continue;
+                }
+                switch (name) {
+                    case "completion": value.completion = in.nextDouble(); break;
+                    default: in.skipValue();
+                }
+            }
+            in.endObject();
+            return value;
+        }
+    }
+
+    private static final class ConnectionAdapter extends TypeAdapter<Connections.Connection> {
+        @Override
+        public void write(JsonWriter out, Connections.Connection value) throws IOException {
+            if (value == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            out.name("paused").value(value.paused);
+            out.name("clientVersion").value(value.clientVersion);
+            out.name("at").value(value.at);
+            out.name("connected").value(value.connected);
+            out.name("inBytesTotal").value(value.inBytesTotal);
+            out.name("outBytesTotal").value(value.outBytesTotal);
+            out.name("type").value(value.type);
+            out.name("address").value(value.address);
+            out.name("completion").value(value.completion);
+            out.name("inBits").value(value.inBits);
+            out.name("outBits").value(value.outBits);
+            out.endObject();
+        }
+
+        @Override
+        public Connections.Connection read(JsonReader in) throws IOException {
+            if (skipNull(in)) {
+                return null;
+            }
+            Connections.Connection value = new Connections.Connection();
+            in.beginObject();
+            while (in.hasNext()) {
+                String name = in.nextName();
+                if (skipNull(in)) {
+                    continue;
+                }
+                switch (name) {
+                    case "paused":          value.paused = in.nextBoolean(); break;
+                    case "clientVersion":   value.clientVersion = in.nextString(); break;
+                    case "at":              value.at = in.nextString(); break;
+                    case "connected":       value.connected = in.nextBoolean(); break;
+                    case "inBytesTotal":    value.inBytesTotal = in.nextLong(); break;
+                    case "outBytesTotal":   value.outBytesTotal = in.nextLong(); break;
+                    case "type":            value.type = in.nextString(); break;
+                    case "address":         value.address = in.nextString(); break;
+                    case "completion":      value.completion = in.nextInt(); break;
+                    case "inBits":          value.inBits = in.nextLong(); break;
+                    case "outBits":         value.outBits = in.nextLong(); break;
+                    default: in.skipValue();
+                }
+            }
+            in.endObject();
+            return value;
+        }
+    }
+
+    private static final class ConnectionsAdapter extends TypeAdapter<Connections> {
+        @Override
+        public void write(JsonWriter out, Connections value) throws IOException {
+            if (value == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            out.name("total");
+            CONNECTION.write(out, value.total);
+            out.name("connections");
+            if (value.connections == null) {
+                out.nullValue();
+            } else {
+                out.beginObject();
+                for (Map.Entry<String, Connections.Connection> e : value.connections.entrySet()) {
+                    out.name(e.getKey());
+                    CONNECTION.write(out, e.getValue());
+                }
+                out.endObject();
+            }
+            out.endObject();
+        }
+
+        @Override
+        public Connections read(JsonReader in) throws IOException {
+            if (skipNull(in)) {
+                return null;
+            }
+            Connections value = new Connections();
+            in.beginObject();
+            while (in.hasNext()) {
+                String name = in.nextName();
+                if (skipNull(in)) {
+                    continue;
+                }
+                switch (name) {
+                    case "total":
+                        value.total = CONNECTION.read(in);
+                        break;
+                    case "connections":
+                        value.connections = new HashMap<>();
+                        in.beginObject();
+                        while (in.hasNext()) {
+                            String deviceId = in.nextName();
+                            value.connections.put(deviceId, CONNECTION.read(in));
+                        }
+                        in.endObject();
+                        break;
+                    default: in.skipValue();
+                }
+            }
+            in.endObject();
+            return value;
+        }
+    }
+
+    private static final class DeviceAdapter extends TypeAdapter<Device> {
+        @Override
+        public void write(JsonWriter out, Device value) throws IOException {
+            if (value == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            out.name("deviceID").value(value.deviceID);
+            out.name("name").value(value.name);
+            out.name("addresses");
+            writeStringList(out, value.addresses);
+            out.name("compression").value(value.compression);
+            out.name("certName").value(value.certName);
+            out.name("introducer").value(value.introducer);
+            out.name("paused").value(value.paused);
+            out.name("pendingFolders");
+            writeList(out, value.pendingFolders, PENDING_FOLDER);
+            out.name("ignoredFolders");
+            writeList(out, value.ignoredFolders, IGNORED_FOLDER);
+            out.endObject();
+        }
+
+        @Override
+        public Device read(JsonReader in) throws IOException {
+            if (skipNull(in)) {
+                return null;
+            }
+            Device value = new Device();
+            in.beginObject();
+            while (in.hasNext()) {
+                String name = in.nextName();
+                if (skipNull(in)) {
+                    continue;
+                }
+                switch (name) {
+                    case "deviceID":        value.deviceID = in.nextString(); break;
+                    case "name":            value.name = in.nextString(); break;
+                    case "addresses":       value.addresses = readStringList(in); break;
+                    case "compression":     value.compression = in.nextString(); break;
+                    case "certName":        value.certName = in.nextString(); break;
+                    case "introducer":      value.introducer = in.nextBoolean(); break;
+                    case "paused":          value.paused = in.nextBoolean(); break;
+                    case "pendingFolders":  value.pendingFolders = readList(in, PENDING_FOLDER); break;
+                    case "ignoredFolders":  value.ignoredFolders = readList(in, IGNORED_FOLDER); break;
+                    default: in.skipValue();
+                }
+            }
+            in.endObject();
+            return value;
+        }
+    }
+
+    private static final class EventAdapter extends TypeAdapter<Event> {
+        @Override
+        public void write(JsonWriter out, Event value) throws IOException {
+            if (value == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            out.name("id").value(value.id);
+            out.name("globalID").value(value.globalID);
+            out.name("type").value(value.type);
+            out.name("time").value(value.time);
+            out.name("data");
+            if (value.folderSummary == null) {
+                writeValue(out, value.data);
+            } else {
+                out.beginObject();
+                if (value.data != null) {
+                    for (Map.Entry<String, Object> e : value.data.entrySet()) {
+                        out.name(e.getKey());
+                        writeValue(out, e.getValue());
+                    }
+                }
+                out.name("summary");
+                FOLDER_STATUS.write(out, value.folderSummary);
+                out.endObject();
+            }
+            out.endObject();
+        }
+
+        @Override
+        public Event read(JsonReader in) throws IOException {
+            if (skipNull(in)) {
+                return null;
+            }
+            Event value = new Event();
+            in.beginObject();
+            while (in.hasNext()) {
+                String name = in.nextName();
+                if (skipNull(in)) {
+                    continue;
+                }
+                switch (name) {
+                    case "id":          value.id = in.nextInt(); break;
+                    case "globalID":    value.globalID = in.nextInt(); break;
+                    case "type":        value.type = in.nextString(); break;
+                    case "time":        value.time = in.nextString(); break;
+                    case "data":
+                        // Syncthing sends "type" before "data". The data of "ConfigSaved" is the
+                        // complete config, which is never used, so don't build a map for it.
+                        if ("ConfigSaved".equals(value.type) || in.peek() != JsonToken.BEGIN_OBJECT) {
+                            in.skipValue();
+                        } else if (Event.TYPE_FOLDER_SUMMARY.equals(value.type)) {
+                            readFolderSummaryData(in, value);
+                        } else {
+                            value.data = readObjectMap(in);
+                        }
+                        break;
+                    default: in.skipValue();
+                }
+            }
+            in.endObject();
+            return value;
+        }
+    }
+
+    /**
+     * Reads the summary straight into a FolderStatus, without a map in between.
+     */
+    private static void readFolderSummaryData(JsonReader in, Event value) throws IOException {
+        value.data = new LinkedHashMap<>();
+        in.beginObject();
+        while (in.hasNext()) {
+            String name = in.nextName();
+            if ("summary".equals(name)) {
+                value.folderSummary = FOLDER_STATUS.read(in);
+            } else {
+                value.data.put(name, readValue(in));
+            }
+        }
+        in.endObject();
+    }
+
+    private static final class FolderAdapter extends TypeAdapter<Folder> {
+        @Override
+        public void write(JsonWriter out, Folder value) throws IOException {
+            if (value == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            out.name("id").value(value.id);
+            out.name("label").value(value.label);
+            out.name("filesystemType").value(value.filesystemType);
+            out.name("path").value(value.path);
+            out.name("type").value(value.type);
+            out.name("fsWatcherEnabled").value(value.fsWatcherEnabled);
+            out.name("fsWatcherDelayS").value(value.fsWatcherDelayS);
+            out.name("devices");
+            writeList(out, value.devices, DEVICE);
+            out.name("rescanIntervalS").value(value.rescanIntervalS);
+            out.name("ignorePerms").value(value.ignorePerms);
+            out.name("autoNormalize").value(value.autoNormalize);
+            out.name("minDiskFree");
+            if (value.minDiskFree == null) {
+                out.nullValue();
+            } else {
+                out.beginObject();
+                // Boxed so the value is written like Gson writes floats.
+                out.name("value").value((Number) value.minDiskFree.value);
+                out.name("unit").value(value.minDiskFree.unit);
+                out.endObject();
+            }
+            out.name("versioning");
+            if (value.versioning == null) {
+                out.nullValue();
+            } else {
+                out.beginObject();
+                out.name("type").value(value.versioning.type);
+                out.name("params");
+                writeStringMap(out, value.versioning.params);
+                out.endObject();
+            }
+            out.name("copiers").value(value.copiers);
+            out.name("pullerMaxPendingKiB").value(value.pullerMaxPendingKiB);
+            out.name("hashers").value(value.hashers);
+            out.name("order").value(value.order);
+            out.name("ignoreDelete").value(value.ignoreDelete);
+            out.name("scanProgressIntervalS").value(value.scanProgressIntervalS);
+            out.name("pullerPauseS").value(value.pullerPauseS);
+            out.name("maxConflicts").value(value.maxConflicts);
+            out.name("disableSparseFiles").value(value.disableSparseFiles);
+            out.name("disableTempIndexes").value(value.disableTempIndexes);
+            out.name("paused").value(value.paused);
+            out.name("useLargeBlocks").value(value.useLargeBlocks);
+            out.name("weakHashThresholdPct").value(value.weakHashThresholdPct);
+            out.name("markerName").value(value.markerName);
+            out.name("invalid").value(value.invalid);
+            out.endObject();
+        }
+
+        @Override
+        public Folder read(JsonReader in) throws IOException {
+            if (skipNull(in)) {
+                return null;
+            }
+            Folder value = new Folder();
+            in.beginObject();
+            while (in.hasNext()) {
+                String name = in.nextName();
+                if (skipNull(in)) {
+                    continue;
+                }
+                switch (name) {
+                    case "id":                      value.id = in.nextString(); break;
+                    case "label":                   value.label = in.nextString(); break;
+                    case "filesystemType":          value.filesystemType = in.nextString(); break;
+                    case "path":                    value.path = in.nextString(); break;
+                    case "type":                    value.type = in.nextString(); break;
+                    case "fsWatcherEnabled":        value.fsWatcherEnabled = in.nextBoolean(); break;
+                    case "fsWatcherDelayS":         value.fsWatcherDelayS = in.nextInt(); break;
+                    case "devices":                 value.devices = readList(in, DEVICE); break;
+                    case "rescanIntervalS":         value.rescanIntervalS = in.nextInt(); break;
+                    case "autoNormalize":           value.autoNormalize = in.nextBoolean(); break;
+                    case "minDiskFree":             value.minDiskFree = readMinDiskFree(in); break;
+                    case "versioning":              value.versioning = readVersioning(in); break;
+                    case "copiers":                 value.copiers = in.nextInt(); break;
+                    case "pullerMaxPendingKiB":     value.pullerMaxPendingKiB = in.nextInt(); break;
+                    case "hashers":                 value.hashers = in.nextInt(); break;
+                    case "order":                   value.order = in.nextString(); break;
+                    case "ignoreDelete":            value.ignoreDelete = in.nextBoolean(); break;
+                    case "scanProgressIntervalS":   value.scanProgressIntervalS = in.nextInt(); break;
+                    case "pullerPauseS":            value.pullerPauseS = in.nextInt(); break;
+                    case "maxConflicts":            value.maxConflicts = in.nextInt(); break;
+                    case "disableSparseFiles":      value.disableSparseFiles = in.nextBoolean(); break;
+                    case "disableTempIndexes":      value.disableTempIndexes = in.nextBoolean(); break;
+                    case "paused":                  value.paused = in.nextBoolean(); break;
+                    case "useLargeBlocks":          value.useLargeBlocks = in.nextBoolean(); break;
+                    case "weakHashThresholdPct":    value.weakHashThresholdPct = in.nextInt(); break;
+                    case "markerName":              value.markerName = in.nextString(); break;
+                    case "invalid":                 value.invalid = in.nextString(); break;
+                    // "ignorePerms" is a constant.
+                    default: in.skipValue();
+                }
+            }
+            in.endObject();
+            return value;
+        }
+
+        private Folder.MinDiskFree readMinDiskFree(JsonReader in) throws IOException {
+            Folder.MinDiskFree value = new Folder.MinDiskFree();
+            in.beginObject();
+            while (in.hasNext()) {
+                String name = in.nextName();
+                if (skipNull(in)) {
+                    continue;
+                }
+                switch (name) {
+                    case "value":   value.value = (float) in.nextDouble(); break;
+                    case "unit":    value.unit = in.nextString(); break;
+                    default: in.skipValue();
+                }
+            }
+            in.endObject();
+            return value;
+        }
+
+        private Folder.Versioning readVersioning(JsonReader in) throws IOException {
+            Folder.Versioning value = new Folder.Versioning();
+            in.beginObject();
+            while (in.hasNext()) {
+                String name = in.nextName();
+                if (skipNull(in)) {
+                    continue;
+                }
+                switch (name) {
+                    case "type":    value.type = in.nextString(); break;
+                    case "params":  value.params = readStringMap(in); break;
+                    default: in.skipValue();
+                }
+            }
+            in.endObject();
+            return value;
+        }
+    }
+
+    private static final class FolderStatusAdapter extends TypeAdapter<FolderStatus> {
+        @Override
+        public void write(JsonWriter out, FolderStatus value) throws IOException {
+            if (value == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            out.name("globalBytes").value(value.globalBytes);
+            out.name("globalDeleted").value(value.globalDeleted);
+            out.name("globalDirectories").value(value.globalDirectories);
+            out.name("globalFiles").value(value.globalFiles);
+            out.name("globalSymlinks").value(value.globalSymlinks);
+            out.name("ignorePatterns").value(value.ignorePatterns);
+            out.name("invalid").value(value.invalid);
+            out.name("localBytes").value(value.localBytes);
+            out.name("localDeleted").value(value.localDeleted);
+            out.name("localDirectories").value(value.localDirectories);
+            out.name("localSymlinks").value(value.localSymlinks);
+            out.name("localFiles").value(value.localFiles);
+            out.name("inSyncBytes").value(value.inSyncBytes);
+            out.name("inSyncFiles").value(value.inSyncFiles);
+            out.name("needBytes").value(value.needBytes);
+            out.name("needDeletes").value(value.needDeletes);
+            out.name("needDirectories").value(value.needDirectories);
+            out.name("needFiles").value(value.needFiles);
+            out.name("needSymlinks").value(value.needSymlinks);
+            out.name("pullErrors").value(value.pullErrors);
+            out.name("sequence").value(value.sequence);
+            out.name("state").value(value.state);
+            out.name("stateChanged").value(value.stateChanged);
+            out.name("version").value(value.version);
+            out.name("error").value(value.error);
+            out.name("watchError").value(value.watchError);
+            out.endObject();
+        }
+
+        @Override
+        public FolderStatus read(JsonReader in) throws IOException {
+            if (skipNull(in)) {
+                return null;
+            }
+            FolderStatus value = new FolderStatus();
+            in.beginObject();
+            while (in.hasNext()) {
+                String name = in.nextName();
+                if (skipNull(in)) {
+                    continue;
+                }
+                switch (name) {
+                    case "globalBytes":         value.globalBytes = in.nextLong(); break;
+                    case "globalDeleted":       value.globalDeleted = in.nextLong(); break;
+                    case "globalDirectories":   value.globalDirectories = in.nextLong(); break;
+                    case "globalFiles":         value.globalFiles = in.nextLong(); break;
+                    case "globalSymlinks":      value.globalSymlinks = in.nextLong(); break;
+                    case "ignorePatterns":      value.ignorePatterns = in.nextBoolean(); break;
+                    case "invalid":             value.invalid = in.nextString(); break;
+                    case "localBytes":          value.localBytes = in.nextLong(); break;
+                    case "localDeleted":        value.localDeleted = in.nextLong(); break;
+                    case "localDirectories":    value.localDirectories = in.nextLong(); break;
+                    case "localSymlinks":       value.localSymlinks = in.nextLong(); break;
+                    case "localFiles":          value.localFiles = in.nextLong(); break;
+                    case "inSyncBytes":         value.inSyncBytes = in.nextLong(); break;
+                    case "inSyncFiles":         value.inSyncFiles = in.nextLong(); break;
+                    case "needBytes":           value.needBytes = in.nextLong(); break;
+                    case "needDeletes":         value.needDeletes = in.nextLong(); break;
+                    case "needDirectories":     value.needDirectories = in.nextLong(); break;
+                    case "needFiles":           value.needFiles = in.nextLong(); break;
+                    case "needSymlinks":        value.needSymlinks = in.nextLong(); break;
+                    case "pullErrors":          value.pullErrors = in.nextLong(); break;
+                    case "sequence":            value.sequence = in.nextLong(); break;
+                    case "state":               value.state = in.nextString(); break;
+                    case "stateChanged":        value.stateChanged = in.nextString(); break;
+                    case "version":             value.version = in.nextLong(); break;
+                    case "error":               value.error = in.nextString(); break;
+                    case "watchError":          value.watchError = in.nextString(); break;
+                    default: in.skipValue();
+                }
+            }
+            in.endObject();
+            return value;
+        }
+    }
+
+    private static final class IgnoredFolderAdapter extends TypeAdapter<IgnoredFolder> {
+        @Override
+        public void write(JsonWriter out, IgnoredFolder value) throws IOException {
+            if (value == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            out.name("time").value(value.time);
+            out.name("id").value(value.id);
+            out.name("label").value(value.label);
+            out.endObject();
+        }
+
+        @Override
+        public IgnoredFolder read(JsonReader in) throws IOException {
+            if (skipNull(in)) {
+                return null;
+            }
+            IgnoredFolder value = new IgnoredFolder();
+            in.beginObject();
+            while (in.hasNext()) {
+                String name = in.nextName();
+                if (skipNull(in)) {
+                    continue;
+                }
+                switch (name) {
+                    case "time":    value.time = in.nextString(); break;
+                    case "id":      value.id = in.nextString(); break;
+                    case "label":   value.label = in.nextString(); break;
+                    default: in.skipValue();
+                }
+            }
+            in.endObject();
+            return value;
+        }
+    }
+
+    private static final class PendingDeviceAdapter extends TypeAdapter<PendingDevice> {
+        @Override
+        public void write(JsonWriter out, PendingDevice value) throws IOException {
+            if (value == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            out.name("time").value(value.time);
+            out.name("deviceID").value(value.deviceID);
+            out.name("name").value(value.name);
+            out.name("address").value(value.address);
+            out.endObject();
+        }
+
+        @Override
+        public PendingDevice read(JsonReader in) throws IOException {
+            if (skipNull(in)) {
+                return null;
+            }
+            PendingDevice value = new PendingDevice();
+            in.beginObject();
+            while (in.hasNext()) {
+                String name = in.nextName();
+                if (skipNull(in)) {
+                    continue;
+                }
+                switch (name) {
+                    case "time":        value.time = in.nextString(); break;
+                    case "deviceID":    value.deviceID = in.nextString(); break;
+                    case "name":        value.name = in.nextString(); break;
+                    case "address":     value.address = in.nextString(); break;
+                    default: in.skipValue();
+                }
+            }
+            in.endObject();
+            return value;
+        }
+    }
+
+    private static final class PendingFolderAdapter extends TypeAdapter<PendingFolder> {
+        @Override
+        public void write(JsonWriter out, PendingFolder value) throws IOException {
+            if (value == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            out.name("time").value(value.time);
+            out.name("id").value(value.id);
+            out.name("label").value(value.label);
+            out.endObject();
+        }
+
+        @Override
+        public PendingFolder read(JsonReader in) throws IOException {
+            if (skipNull(in)) {
+                return null;
+            }
+            PendingFolder value = new PendingFolder();
+            in.beginObject();
+            while (in.hasNext()) {
+                String name = in.nextName();
+                if (skipNull(in)) {
+                    continue;
+                }
+                switch (name) {
+                    case "time":    value.time = in.nextString(); break;
+                    case "id":      value.id = in.nextString(); break;
+                    case "label":   value.label = in.nextString(); break;
+                    default: in.skipValue();
+                }
+            }
+            in.endObject();
+            return value;
+        }
+    }
+
+    private static final class RemoteIgnoredDeviceAdapter extends TypeAdapter<RemoteIgnoredDevice> {
+        @Override
+        public void write(JsonWriter out, RemoteIgnoredDevice value) throws IOException {
+            if (value == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            out.name("time").value(value.time);
+            out.name("deviceID").value(value.deviceID);
+            out.name("name").value(value.name);
+            out.name("address").value(value.address);
+            out.endObject();
+        }
+
+        @Override
+        public RemoteIgnoredDevice read(JsonReader in) throws IOException {
+            if (skipNull(in)) {
+                return null;
+            }
+            RemoteIgnoredDevice value = new RemoteIgnoredDevice();
+            in.beginObject();
+            while (in.hasNext()) {
+                String name = in.nextName();
+                if (skipNull(in)) {
+                    continue;
+                }
+                switch (name) {
+                    case "time":        value.time = in.nextString(); break;
+                    case "deviceID":    value.deviceID = in.nextString(); break;
+                    case "name":        value.name = in.nextString(); break;
+                    case "address":     value.address = in.nextString(); break;
+                    default: in.skipValue();
+                }
+            }
+            in.endObject();
+            return value;
+        }
+    }
+
+    private static final class SystemInfoAdapter extends TypeAdapter<SystemInfo> {
+        @Override
+        public void write(JsonWriter out, SystemInfo value) throws IOException {
+            if (value == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            out.name("alloc").value(value.alloc);
+            out.name("cpuPercent").value(value.cpuPercent);
+            out.name("goroutines").value(value.goroutines);
+            out.name("myID").value(value.myID);
+            out.name("sys").value(value.sys);
+            out.name("discoveryEnabled").value(value.discoveryEnabled);
+            out.name("discoveryMethods").value(value.discoveryMethods);
+            out.name("discoveryErrors");
+            writeStringMap(out, value.discoveryErrors);
+            out.name("urVersionMax").value(value.urVersionMax);
+            out.endObject();
+        }
+
+        @Override
+        public SystemInfo read(JsonReader in) throws IOException {
+            if (skipNull(in)) {
+                return null;
+            }
+            SystemInfo value = new SystemInfo();
+            in.beginObject();
+            while (in.hasNext()) {
+                String name = in.nextName();
+                if (skipNull(in)) {
+                    continue;
+                }
+                switch (name) {
+                    case "alloc":               value.alloc = in.nextLong(); break;
+                    case "cpuPercent":          value.cpuPercent = in.nextDouble(); break;
+                    case "goroutines":          value.goroutines = in.nextInt(); break;
+                    case "myID":                value.myID = in.nextString(); break;
+                    case "sys":                 value.sys = in.nextLong(); break;
+                    case "discoveryEnabled":    value.discoveryEnabled = in.nextBoolean(); break;
+                    case "discoveryMethods":    value.discoveryMethods = in.nextInt(); break;
+                    case "discoveryErrors":     value.discoveryErrors = readStringMap(in); break;
+                    case "urVersionMax":        value.urVersionMax = in.nextInt(); break;
+                    default: in.skipValue();
+                }
+            }
+            in.endObject();
+            return value;
+        }
+    }
+
+    private static final class SystemVersionAdapter extends TypeAdapter<SystemVersion> {
+        @Override
+        public void write(JsonWriter out, SystemVersion value) throws IOException {
+            if (value == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            out.name("arch").value(value.arch);
+            out.name("codename").value(value.codename);
+            out.name("longVersion").value(value.longVersion);
+            out.name("os").value(value.os);
+            out.name("version").value(value.version);
+            out.endObject();
+        }
+
+        @Override
+        public SystemVersion read(JsonReader in) throws IOException {
+            if (skipNull(in)) {
+                return null;
+            }
+            SystemVersion value = new SystemVersion();
+            in.beginObject();
+            while (in.hasNext()) {
+                String name = in.nextName();
+                if (skipNull(in)) {
+                    continue;
+                }
+                switch (name) {
+                    case "arch":        value.arch = in.nextString(); break;
+                    case "codename":    value.codename = in.nextString(); break;
+                    case "longVersion": value.longVersion = in.nextString(); break;
+                    case "os":          value.os = in.nextString(); break;
+                    case "version":     value.version = in.nextString(); break;
+                    default: in.skipValue();
+                }
+            }
+            in.endObject();
+            return value;
+        }
+    }
+
+    /**
+     * Consumes the next value if it is null.
+     *
+     * @return True if a null value was consumed.
+     */
+    private static boolean skipNull(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return true;
+        }
+        return false;
+    }
+
+    private static <T> List<T> readList(JsonReader in, TypeAdapter<T> adapter) throws IOException {
+        List<T> list = new ArrayList<>();
+        in.beginArray();
+        while (in.hasNext()) {
+            list.add(adapter.read(in));
+        }
+        in.endArray();
+        return list;
+    }
+
+    private static <T> void writeList(JsonWriter out, List<T> list, TypeAdapter<T> adapter)
+            throws IOException {
+        if (list == null) {
+            out.nullValue();
+            return;
+        }
+        out.beginArray();
+        for (T item : list) {
+            adapter.write(out, item);
+        }
+        out.endArray();
+    }
+
+    private static List<String> readStringList(JsonReader in) throws IOException {
+        List<String> list = new ArrayList<>();
+        in.beginArray();
+        while (in.hasNext()) {
+            list.add(skipNull(in) ? null : in.nextString());
+        }
+        in.endArray();
+        return list;
+    }
+
+    private static void writeStringList(JsonWriter out, List<String> list) throws IOException {
+        if (list == null) {
+            out.nullValue();
+            return;
+        }
+        out.beginArray();
+        for (String item : list) {
+            out.value(item);
+        }
+        out.endArray();
+    }
+
+    /**
+     * Reads a JSON object into a map with the same value types Gson uses for Object:
+     * String, Double, Boolean, null, List and Map.
+     */
+    private static Map<String, Object> readObjectMap(JsonReader in) throws IOException {
+        Map<String, Object> map = new LinkedHashMap<>();
+        in.beginObject();
+        while (in.hasNext()) {
+            map.put(in.nextName(), readValue(in));
+        }
+        in.endObject();
+        return map;
+    }
+
+    private static Object readValue(JsonReader in) throws IOException {
+        switch (in.peek()) {
+            case BEGIN_OBJECT:
+                return readObjectMap(in);
+            case BEGIN_ARRAY:
+                List<Object> list = new ArrayList<>();
+                in.beginArray();
+                while (in.hasNext()) {
+                    list.add(readValue(in));
+                }
+                in.endArray();
+                return list;
+            case STRING:
+                return in.nextString();
+            case NUMBER:
+                return in.nextDouble();
+            case BOOLEAN:
+                return in.nextBoolean();
+            case NULL:
+                in.nextNull();
+                return null;
+            default:
+                throw new IllegalStateException("Unexpected token " + in.peek());
+        }
+    }
+
+    private static void writeValue(JsonWriter out, Object value) throws IOException {
+        if (value == null) {
+            out.nullValue();
+        } else if (value instanceof Map) {
+            out.beginObject();
+            for (Map.Entry<?, ?> e : ((Map<?, ?>) value).entrySet()) {
+                out.name(String.valueOf(e.getKey()));
+                writeValue(out, e.getValue());
+            }
+            out.endObject();
+        } else if (value instanceof List) {
+            out.beginArray();
+            for (Object item : (List<?>) value) {
+                writeValue(out, item);
+            }
+            out.endArray();
+        } else if (value instanceof Number) {
+            out.value((Number) value);
+        } else if (value instanceof Boolean) {
+            out.value((Boolean) value);
+        } else {
+            out.value(value.toString());
+        }
+    }
+
+    private static Map<String, String> readStringMap(JsonReader in) throws IOException {
+        Map<String, String> map = new HashMap<>();
+        in.beginObject();
+        while (in.hasNext()) {
+            String key = in.nextName();
+            map.put(key, skipNull(in) ? null : in.nextString());
+        }
+        in.endObject();
+        return map;
+    }
+
+    private static void writeStringMap(JsonWriter out, Map<String, String> map) throws IOException {
+        if (map == null) {
+            out.nullValue();
+            return;
+        }
+        out.beginObject();
+        for (Map.Entry<String, String> e : map.entrySet()) {
+            out.name(e.getKey()).value(e.getValue());
+        }
+        out.endObject();
+    }
+}
@@ -0,0 +1,141 @@
+package com.nutomic.syncthingandroid.service;
+
+import android.support.annotation.Nullable;
+
+import com.google.common.base.Objects;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSetMultimap;
+import com.nutomic.syncthingandroid.model.Config;
+import com.nutomic.syncthingandroid.model.Device;
+import com.nutomic.syncthingandroid.model.Folder;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable view of the syncthing config as last read from or sent to the REST API.
+ *
+ * A snapshot is built once per config reload or local change and then shared by all readers
+ * of {@link RestApi}. Sorting and the lookup indexes are computed at that point, so reads
+ * never have to scan the config. Neither the snapshot nor any object reachable from it may be modified.
+ * Changes are made on a copy obtained by {@link #copyConfig} which is then turned into a new
+ * snapshot.
+ */
+final class ConfigSnapshot {
+
+    /**
+     * Compares folders by labels, uses the folder ID as fallback if the label is empty
+     */
+    private final static Comparator<Folder> FOLDERS_COMPARATOR = (lhs, rhs) -> {
+        String lhsLabel = lhs.label != null && !lhs.label.isEmpty() ? lhs.label : lhs.id;
+        String rhsLabel = rhs.label != null && !rhs.label.isEmpty() ? rhs.label : rhs.id;
+
+        return lhsLabel.compareTo(rhsLabel);
+    };
+
+    final Config config;
+
+    /**
+     * All folders, sorted by {@link #FOLDERS_COMPARATOR}.
+     */
+    final List<Folder> folders;
+
+    /**
+     * All devices including the local device, in config order.
+     */
+    final List<Device> devices;
+
+    /**
+     * All devices except the local device, in config order.
+     */
+    final List<Device> remoteDevices;
+
+    final @Nullable Device localDevice;
+
+    final Map<String, Folder> foldersById;
+
+    final Map<String, Device> devicesById;
+
+    /**
+     * IDs of the devices each folder is shared with, keyed by folder ID.
+     */
+    final ImmutableSetMultimap<String, String> folderDeviceIds;
+
+    /**
+     * IDs of the folders shared with each device, keyed by device ID.
+     */
+    final ImmutableSetMultimap<String, String> deviceFolderIds;
+
+    ConfigSnapshot(Config config, @Nullable String localDeviceId) {
+        this.config = config;
+
+        folders = ImmutableList.sortedCopyOf(FOLDERS_COMPARATOR, nullToEmpty(config.folders));
+
+        devices = ImmutableList.copyOf(nullToEmpty(config.devices));
+        ImmutableList.Builder<Device> remoteDevicesBuilder = ImmutableList.builder();
+        Device local = null;
+        for (Device device : devices) {
+            if (local == null && Objects.equal(localDeviceId, device.deviceID)) {
+                local = device;
+            } else {
+                remoteDevicesBuilder.add(device);
+            }
+        }
+        remoteDevices = remoteDevicesBuilder.build();
+        localDevice = local;
+
+        // Lookups by ID should not fail on duplicate IDs, so the last entry wins like it did
+        // for the linear scans these maps replace.
+        Map<String, Device> devicesMap = new HashMap<>();
+        for (Device device : devices) {
+            devicesMap.put(device.deviceID, device);
+        }
+        devicesById = Collections.unmodifiableMap(devicesMap);
+
+        Map<String, Folder> foldersMap = new HashMap<>();
+        ImmutableSetMultimap.Builder<String, String> folderDeviceIdsBuilder = ImmutableSetMultimap.builder();
+        ImmutableSetMultimap.Builder<String, String> deviceFolderIdsBuilder = ImmutableSetMultimap.builder();
+        for (Folder folder : folders) {
+            foldersMap.put(folder.id, folder);
+            for (Device device : folder.getDevices()) {
+                folderDeviceIdsBuilder.put(folder.id, device.deviceID);
+                deviceFolderIdsBuilder.put(device.deviceID, folder.id);
+            }
+        }
+        foldersById = Collections.unmodifiableMap(foldersMap);
+        folderDeviceIds = folderDeviceIdsBuilder.build();
+        deviceFolderIds = deviceFolderIdsBuilder.build();
+    }
+
+    /**
+     * Returns a shallow copy of the config. Lists are copied so entries can be added,
+     * removed or replaced, but the entries themselves are still shared with this snapshot
+     * and must be replaced by a copy instead of being modified.
+     */
+    Config copyConfig() {
+        return copyConfig(config);
+    }
+
+    /**
+     * Like {@link #copyConfig()}, for a config without a snapshot.
+     */
+    static Config copyConfig(Config config) {
+        Config copy = new Config();
+        copy.version = config.version;
+        copy.devices = new ArrayList<>(nullToEmpty(config.devices));
+        copy.folders = new ArrayList<>(nullToEmpty(config.folders));
+        copy.gui = config.gui;
+        copy.options = config.options;
+        copy.pendingDevices = new ArrayList<>(nullToEmpty(config.pendingDevices));
+        copy.remoteIgnoredDevices = new ArrayList<>(nullToEmpty(config.remoteIgnoredDevices));
+        return copy;
+    }
+
+    private static <T> List<T> nullToEmpty(@Nullable List<T> list) {
+        return list != null ? list : Collections.emptyList();
+    }
+}
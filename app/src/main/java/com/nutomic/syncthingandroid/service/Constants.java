@@ -33,6 +33,8 @@ public class Constants {
     public static final String PREF_USE_TOR                     = "use_tor";
     public static final String PREF_SOCKS_PROXY_ADDRESS         = "socks_proxy_address";
     public static final String PREF_HTTP_PROXY_ADDRESS          = "http_proxy_address";
+    public static final String PREF_TRACING_ENABLED             = "tracing_enabled";
+    public static final String PREF_USE_UNIX_SOCKET             = "use_unix_socket";
 
     /**
      * Available options cache for preference {@link app_settings#debug_facilities_enabled}
@@ -40,6 +42,18 @@ public class Constants {
      */
     public static final String PREF_DEBUG_FACILITIES_AVAILABLE  = "debug_facilities_available";
 
+    /**
+     * Web GUI TCP address from the config, remembered while Syncthing listens on
+     * {@link #getGuiSocketFile} instead. Written in {@link com.nutomic.syncthingandroid.util.ConfigXml#updateIfNeeded}.
+     */
+    public static final String PREF_WEB_GUI_TCP_ADDRESS         = "web_gui_tcp_address";
+
+    /**
+     * File in the app's external files directory that {@link com.nutomic.syncthingandroid.util.Tracer}
+     * events are exported to.
+     */
+    public static final String TRACE_EXPORT_FILE = "trace.json";
+
     /**
      * Available folder types.
      */
@@ -107,6 +121,14 @@ public class Constants {
         return new File(context.getFilesDir(), "https-cert.pem");
     }
 
+    /**
+     * Unix domain socket in the data directory that Syncthing serves the web GUI and REST API
+     * on if {@link #PREF_USE_UNIX_SOCKET} is enabled.
+     */
+    public static File getGuiSocketFile(Context context) {
+        return new File(context.getFilesDir(), "gui.sock");
+    }
+
     static File getSyncthingBinary(Context context) {
         return new File(context.getApplicationInfo().nativeLibraryDir, FILENAME_SYNCTHING_BINARY);
     }
@@ -0,0 +1,209 @@
+package com.nutomic.syncthingandroid.service;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import com.google.common.collect.ImmutableSet;
+import com.nutomic.syncthingandroid.model.Event;
+import com.nutomic.syncthingandroid.util.Tracer;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Distributes Syncthing events received by {@link EventProcessor} to subscribers in the app.
+ *
+ * Subscribers register for event types (see the TYPE constants in {@link Event}) and the
+ * thread they want to be called on. {@link EventProcessor} only requests event types that
+ * have subscribers from Syncthing, so unsubscribed types are neither transferred nor parsed,
+ * and posting an event without subscribers is a single map lookup.
+ *
+ * Subscribers must not modify received events, as they are shared.
+ */
+public class EventBus {
+
+    public enum ThreadMode {
+        /**
+         * Called on the main thread, e.g. to update views.
+         */
+        MAIN,
+        /**
+         * Called on a single background thread shared by all subscribers, so events are
+         * still delivered in order. Use for work that might block, e.g. disk access.
+         */
+        BACKGROUND
+    }
+
+    public interface Subscriber {
+        void onEvent(Event event);
+    }
+
+    /**
+     * Called on the main thread when the set of subscribed event types changed.
+     */
+    public interface OnSubscribedTypesChangedListener {
+        void onSubscribedTypesChanged(Set<String> types);
+    }
+
+    /**
+     * Called on the main thread when events may have been lost, e.g. because Syncthing was
+     * restarted or dropped events before they were polled. Subscribers that keep state
+     * derived from events should fetch it again.
+     */
+    public interface OnEventsMissedListener {
+        void onEventsMissed();
+    }
+
+    private static class Subscription {
+        final Subscriber subscriber;
+        final ThreadMode threadMode;
+
+        Subscription(Subscriber subscriber, ThreadMode threadMode) {
+            this.subscriber = subscriber;
+            this.threadMode = threadMode;
+        }
+    }
+
+    private final Map<String, List<Subscription>> mSubscriptions = new ConcurrentHashMap<>();
+
+    private final Handler mMainThreadHandler = new Handler(Looper.getMainLooper());
+
+    private final ExecutorService mBackgroundExecutor = Executors.newSingleThreadExecutor();
+
+    private final List<OnSubscribedTypesChangedListener> mOnSubscribedTypesChangedListeners =
+            new CopyOnWriteArrayList<>();
+
+    private final List<OnEventsMissedListener> mOnEventsMissedListeners =
+            new CopyOnWriteArrayList<>();
+
+    /**
+     * Calls subscriber for all future events of the given types.
+     */
+    public void subscribe(Subscriber subscriber, ThreadMode threadMode, String... types) {
+        boolean typesChanged = false;
+        synchronized (mSubscriptions) {
+            for (String type : types) {
+                List<Subscription> subscriptions = mSubscriptions.get(type);
+                if (subscriptions == null) {
+                    subscriptions = new CopyOnWriteArrayList<>();
+                    mSubscriptions.put(type, subscriptions);
+                    typesChanged = true;
+                }
+                subscriptions.add(new Subscription(subscriber, threadMode));
+            }
+        }
+        if (typesChanged) {
+            notifySubscribedTypesChanged();
+        }
+    }
+
+    /**
+     * Removes all subscriptions of subscriber.
+     */
+    public void unsubscribe(Subscriber subscriber) {
+        boolean typesChanged = false;
+        synchronized (mSubscriptions) {
+            for (Iterator<List<Subscription>> i = mSubscriptions.values().iterator(); i.hasNext(); ) {
+                List<Subscription> subscriptions = i.next();
+                for (Subscription subscription : subscriptions) {
+                    if (subscription.subscriber == subscriber) {
+                        subscriptions.remove(subscription);
+                    }
+                }
+                if (subscriptions.isEmpty()) {
+                    i.remove();
+                    typesChanged = true;
+                }
+            }
+        }
+        if (typesChanged) {
+            notifySubscribedTypesChanged();
+        }
+    }
+
+    public Set<String> getSubscribedTypes() {
+        synchronized (mSubscriptions) {
+            return ImmutableSet.copyOf(mSubscriptions.keySet());
+        }
+    }
+
+    public void registerOnSubscribedTypesChangedListener(OnSubscribedTypesChangedListener listener) {
+        mOnSubscribedTypesChangedListeners.add(listener);
+    }
+
+    public void unregisterOnSubscribedTypesChangedListener(OnSubscribedTypesChangedListener listener) {
+        mOnSubscribedTypesChangedListeners.remove(listener);
+    }
+
+    public void registerOnEventsMissedListener(OnEventsMissedListener listener) {
+        mOnEventsMissedListeners.add(listener);
+    }
+
+    public void unregisterOnEventsMissedListener(OnEventsMissedListener listener) {
+        mOnEventsMissedListeners.remove(listener);
+    }
+
+    /**
+     * Notifies all {@link OnEventsMissedListener}s.
+     */
+    public void postEventsMissed() {
+        mMainThreadHandler.post(() -> {
+            for (OnEventsMissedListener listener : mOnEventsMissedListeners) {
+                listener.onEventsMissed();
+            }
+        });
+    }
+
+    /**
+     * Passes event to all subscribers of its type, on the thread each of them requested.
+     */
+    public void post(Event event) {
+        List<Subscription> subscriptions = mSubscriptions.get(event.type);
+        if (subscriptions == null) {
+            return;
+        }
+        boolean isMainThread = Looper.myLooper() == Looper.getMainLooper();
+        for (Subscription subscription : subscriptions) {
+            switch (subscription.threadMode) {
+                case MAIN:
+                    if (isMainThread) {
+                        deliver(subscription.subscriber, event);
+                    } else {
+                        mMainThreadHandler.post(() -> deliver(subscription.subscriber, event));
+                    }
+                    break;
+                case BACKGROUND:
+                    mBackgroundExecutor.execute(() -> deliver(subscription.subscriber, event));
+                    break;
+            }
+        }
+    }
+
+    private static void deliver(Subscriber subscriber, Event event) {
+        if (!Tracer.isEnabled()) {
+            subscriber.onEvent(event);
+            return;
+        }
+        boolean traced = Tracer.begin("EventBus " + event.type);
+        try {
+            subscriber.onEvent(event);
+        } finally {
+            Tracer.end(traced);
+        }
+    }
+
+    private void notifySubscribedTypesChanged() {
+        mMainThreadHandler.post(() -> {
+            Set<String> types = getSubscribedTypes();
+            for (OnSubscribedTypesChangedListener listener : mOnSubscribedTypesChangedListeners) {
+                listener.onSubscribedTypesChanged(types);
+            }
+        });
+    }
+}
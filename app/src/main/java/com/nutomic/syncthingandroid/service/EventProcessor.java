@@ -1,29 +1,26 @@
 package com.nutomic.syncthingandroid.service;
 
 import android.app.PendingIntent;
-import android.content.ContentResolver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
-import android.media.MediaScannerConnection;
-import android.net.Uri;
 import android.os.Handler;
 import android.os.Looper;
-import android.provider.MediaStore;
+import android.support.annotation.Nullable;
 import android.util.Log;
 
-import com.annimon.stream.Stream;
-import com.nutomic.syncthingandroid.BuildConfig;
 import com.nutomic.syncthingandroid.R;
 import com.nutomic.syncthingandroid.SyncthingApp;
 import com.nutomic.syncthingandroid.activities.DeviceActivity;
 import com.nutomic.syncthingandroid.activities.FolderActivity;
+import com.nutomic.syncthingandroid.http.ApiRequest;
 import com.nutomic.syncthingandroid.model.CompletionInfo;
 import com.nutomic.syncthingandroid.model.Device;
 import com.nutomic.syncthingandroid.model.Event;
 import com.nutomic.syncthingandroid.model.Folder;
 
 import java.io.File;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
 import javax.inject.Inject;
@@ -31,18 +28,22 @@ import javax.inject.Inject;
 /**
  * Run by the syncthing service to convert syncthing events into local broadcasts.
  *
- * It uses {@link RestApi#getEvents} to read the pending events and wait for new events.
+ * It uses {@link RestApi#pollEvents} to wait for new events of the types subscribed on
+ * {@link EventBus}, posts them to the bus and polls again as soon as they are processed.
+ * The events handled by the service itself are subscribed in {@link #start}.
  */
-public class EventProcessor implements  Runnable, RestApi.OnReceiveEventListener {
+public class EventProcessor implements  Runnable, RestApi.OnReceiveEventListener,
+        EventBus.OnSubscribedTypesChangedListener {
 
     private static final String TAG = "EventProcessor";
     private static final String PREF_LAST_SYNC_ID = "last_sync_id";
 
     /**
-     * Minimum interval in seconds at which the events are polled from syncthing and processed.
-     * This intervall will not wake up the device to save battery power.
+     * Delay before polling again after a failed poll. It is doubled after each consecutive
+     * failure, up to {@link #EVENT_POLL_RETRY_DELAY_MAX}.
      */
-    private static final long EVENT_UPDATE_INTERVAL = TimeUnit.SECONDS.toMillis(15);
+    private static final long EVENT_POLL_RETRY_DELAY_MIN = TimeUnit.SECONDS.toMillis(1);
+    private static final long EVENT_POLL_RETRY_DELAY_MAX = TimeUnit.SECONDS.toMillis(15);
 
     /**
      * Use the MainThread for all callbacks and message handling
@@ -50,13 +51,30 @@ public class EventProcessor implements  Runnable, RestApi.OnReceiveEventListener
      */
     private final Handler mMainThreadHandler = new Handler(Looper.getMainLooper());
 
+    /**
+     * Syncthing numbers events separately for each set of requested event types, so
+     * mLastEventId is only meaningful together with mPolledTypes. The types are null if
+     * mLastEventId was restored from preferences.
+     */
     private volatile long mLastEventId = 0;
+    private @Nullable Set<String> mPolledTypes = null;
+
     private volatile boolean mShutdown = true;
 
+    private long mRetryDelay = EVENT_POLL_RETRY_DELAY_MIN;
+
+    /**
+     * The running long poll, if any.
+     */
+    private @Nullable ApiRequest mPollRequest = null;
+
     private final Context mContext;
     private final RestApi mApi;
     @Inject SharedPreferences mPreferences;
     @Inject NotificationHandler mNotificationHandler;
+    @Inject EventBus mEventBus;
+    @Inject MediaIndexer mMediaIndexer;
+    @Inject MediaIndexFilter mMediaIndexFilter;
 
     public EventProcessor(Context context, RestApi api) {
         ((SyncthingApp) context.getApplicationContext()).component().inject(this);
@@ -71,133 +89,171 @@ public class EventProcessor implements  Runnable, RestApi.OnReceiveEventListener
             mLastEventId = mPreferences.getLong(PREF_LAST_SYNC_ID, 0);
         }
 
-        // First check if the event number ran backwards.
-        // If that's the case we've to start at zero because syncthing was restarted.
-        mApi.getEvents(0, 1, new RestApi.OnReceiveEventListener() {
+        final Set<String> types = mEventBus.getSubscribedTypes();
+        mApi.getEvents(0, 1, types, new RestApi.OnReceiveEventListener() {
             @Override
             public void onEvent(Event event) {
             }
 
             @Override
             public void onDone(long lastId) {
-                if (lastId < mLastEventId) mLastEventId = 0;
+                if (lastId < mLastEventId) {
+                    // The event number ran backwards. If that's the case we've to start at
+                    // zero because syncthing was restarted.
+                    mLastEventId = 0;
+                    mEventBus.postEventsMissed();
+                } else if (mPolledTypes != null && !mPolledTypes.equals(types)) {
+                    // Syncthing numbers the events of the new types separately and may not
+                    // have kept all of them, so start with the newest one.
+                    mLastEventId = lastId;
+                    mEventBus.postEventsMissed();
+                }
+                mPolledTypes = types;
 
                 Log.d(TAG, "Reading events starting with id " + mLastEventId);
 
-                mApi.getEvents(mLastEventId, 0, EventProcessor.this);
+                poll();
+            }
+        }, this::onPollFailed);
+    }
+
+    private void poll() {
+        synchronized (mMainThreadHandler) {
+            if (mShutdown) {
+                return;
+            }
+            mPollRequest = mApi.pollEvents(mLastEventId, mPolledTypes, this,
+                    this::onPollFailed);
+        }
+    }
+
+    /**
+     * Starts over with {@link #run} after a delay, which also detects a restarted Syncthing.
+     * Called if either the poll or the request for the newest event in {@link #run} failed.
+     */
+    private void onPollFailed(String error) {
+        Log.w(TAG, "Failed to poll events, retrying in " + mRetryDelay + " ms: " + error);
+        synchronized (mMainThreadHandler) {
+            mPollRequest = null;
+            if (!mShutdown) {
+                mMainThreadHandler.removeCallbacks(this);
+                mMainThreadHandler.postDelayed(this, mRetryDelay);
             }
-        });
+        }
+        mRetryDelay = Math.min(mRetryDelay * 2, EVENT_POLL_RETRY_DELAY_MAX);
     }
 
     /**
-     * Performs the actual event handling.
+     * Passes events received from Syncthing on to their subscribers.
      */
     @Override
     public void onEvent(Event event) {
-        switch (event.type) {
-            case "ConfigSaved":
-                if (mApi != null) {
-                    Log.v(TAG, "Forwarding ConfigSaved event to RestApi to get the updated config.");
-                    mApi.reloadConfig();
-                }
-                break;
-            case "DeviceRejected":
-                onDeviceRejected(
-                    (String) event.data.get("device"),          // deviceId
-                    (String) event.data.get("name")             // deviceName
-                );
-                break;
-            case "FolderCompletion":
-                CompletionInfo completionInfo = new CompletionInfo();
-                completionInfo.completion = (Double) event.data.get("completion");
-                mApi.setCompletionInfo(
-                    (String) event.data.get("device"),          // deviceId
-                    (String) event.data.get("folder"),          // folderId
-                    completionInfo
-                );
-                break;
-            case "FolderRejected":
-                onFolderRejected(
-                    (String) event.data.get("device"),          // deviceId
-                    (String) event.data.get("folder"),          // folderId
-                    (String) event.data.get("folderLabel")      // folderLabel
-                );
-                break;
-            case "ItemFinished":
-                String folder = (String) event.data.get("folder");
-                String folderPath = null;
-                for (Folder f : mApi.getFolders()) {
-                    if (f.id.equals(folder)) {
-                        folderPath = f.path;
-                    }
-                }
-                File updatedFile = new File(folderPath, (String) event.data.get("item"));
-                if (!"delete".equals(event.data.get("action"))) {
-                    Log.i(TAG, "Rescanned file via MediaScanner: " + updatedFile.toString());
-                    MediaScannerConnection.scanFile(mContext, new String[]{updatedFile.getPath()},
-                            null, null);
-                } else {
-                    // https://stackoverflow.com/a/29881556/1837158
-                    Log.i(TAG, "Deleted file from MediaStore: " + updatedFile.toString());
-                    Uri contentUri = MediaStore.Files.getContentUri("external");
-                    ContentResolver resolver = mContext.getContentResolver();
-                    resolver.delete(contentUri, MediaStore.Images.ImageColumns.DATA + " LIKE ?",
-                            new String[]{updatedFile.getPath()});
-                }
-                break;
-            case "Ping":
-                // Ignored.
-                break;
-            case "DeviceConnected":
-            case "DeviceDisconnected":
-            case "DeviceDiscovered":
-            case "DownloadProgress":
-            case "FolderPaused":
-            case "FolderScanProgress":
-            case "FolderSummary":
-            case "ItemStarted":
-            case "LocalIndexUpdated":
-            case "LoginAttempt":
-            case "RemoteDownloadProgress":
-            case "RemoteIndexUpdated":
-            case "Starting":
-            case "StartupComplete":
-            case "StateChanged":
-                if (BuildConfig.DEBUG) {
-                    Log.v(TAG, "Ignored event " + event.type + ", data " + event.data);
-                }
-                break;
-            default:
-                Log.v(TAG, "Unhandled event " + event.type);
+        if (mLastEventId > 0 && event.id > mLastEventId + 1) {
+            // Syncthing only buffers a limited number of events.
+            Log.w(TAG, "Missed events " + (mLastEventId + 1) + " to " + (event.id - 1));
+            mEventBus.postEventsMissed();
         }
+        if (mLastEventId < event.id) {
+            mLastEventId = event.id;
+        }
+        mEventBus.post(event);
     }
 
+    /**
+     * Starts over right away if a type was subscribed that the running poll doesn't include,
+     * so the new subscriber doesn't have to wait for the long poll to time out.
+     */
     @Override
-    public void onDone(long id) {
-        if (mLastEventId < id) {
-            mLastEventId = id;
+    public void onSubscribedTypesChanged(Set<String> types) {
+        synchronized (mMainThreadHandler) {
+            if (mShutdown || mPollRequest == null || mPolledTypes.containsAll(types)) {
+                return;
+            }
+            cancelPoll();
+        }
+        run();
+    }
 
-            // Store the last EventId in case we get killed
-            mPreferences.edit().putLong(PREF_LAST_SYNC_ID, mLastEventId).apply();
+    private final EventBus.Subscriber mConfigSavedSubscriber = event -> {
+        if (mApi != null) {
+            Log.v(TAG, "Forwarding ConfigSaved event to RestApi to get the updated config.");
+            mApi.reloadConfig();
+        }
+    };
+
+    private final EventBus.Subscriber mDeviceRejectedSubscriber = event ->
+            onDeviceRejected(
+                (String) event.data.get("device"),          // deviceId
+                (String) event.data.get("name")             // deviceName
+            );
+
+    private final EventBus.Subscriber mFolderCompletionSubscriber = event -> {
+        CompletionInfo completionInfo = new CompletionInfo();
+        completionInfo.completion = (Double) event.data.get("completion");
+        mApi.setCompletionInfo(
+            (String) event.data.get("device"),          // deviceId
+            (String) event.data.get("folder"),          // folderId
+            completionInfo
+        );
+    };
+
+    private final EventBus.Subscriber mFolderRejectedSubscriber = event ->
+            onFolderRejected(
+                (String) event.data.get("device"),          // deviceId
+                (String) event.data.get("folder"),          // folderId
+                (String) event.data.get("folderLabel")      // folderLabel
+            );
+
+    private final EventBus.Subscriber mItemFinishedSubscriber = event -> {
+        String folderId = (String) event.data.get("folder");
+        String item = (String) event.data.get("item");
+        if (folderId == null || item == null || !mMediaIndexFilter.shouldIndex(folderId, item)) {
+            return;
+        }
+        Folder folder = mApi.getFolder(folderId);
+        String folderPath = (folder != null) ? folder.path : null;
+        File updatedFile = new File(folderPath, item);
+        // Not logged per file, MediaIndexer logs each batch.
+        if (!"delete".equals(event.data.get("action"))) {
+            mMediaIndexer.scanFile(updatedFile.getPath());
+        } else {
+            mMediaIndexer.deleteFile(updatedFile.getPath());
         }
+    };
 
-        synchronized (mMainThreadHandler) {
-            if (!mShutdown) {
-                mMainThreadHandler.removeCallbacks(this);
-                mMainThreadHandler.postDelayed(this, EVENT_UPDATE_INTERVAL);
-            }
+    @Override
+    public void onDone(long id) {
+        if (id > 0) {
+            // Store the last EventId in case we get killed. It was already updated in onEvent.
+            mPreferences.edit().putLong(PREF_LAST_SYNC_ID, mLastEventId).apply();
         }
+
+        mRetryDelay = EVENT_POLL_RETRY_DELAY_MIN;
+        poll();
     }
 
     public void start() {
         Log.d(TAG, "Starting event processor.");
 
-        // Remove all pending callbacks and add a new one. This makes sure that only one
-        // event poller is running at any given time.
+        mEventBus.subscribe(mConfigSavedSubscriber, EventBus.ThreadMode.MAIN,
+                Event.TYPE_CONFIG_SAVED);
+        mEventBus.subscribe(mDeviceRejectedSubscriber, EventBus.ThreadMode.MAIN,
+                Event.TYPE_DEVICE_REJECTED);
+        mEventBus.subscribe(mFolderCompletionSubscriber, EventBus.ThreadMode.MAIN,
+                Event.TYPE_FOLDER_COMPLETION);
+        mEventBus.subscribe(mFolderRejectedSubscriber, EventBus.ThreadMode.MAIN,
+                Event.TYPE_FOLDER_REJECTED);
+        mEventBus.subscribe(mItemFinishedSubscriber, EventBus.ThreadMode.BACKGROUND,
+                Event.TYPE_ITEM_FINISHED);
+        mEventBus.registerOnSubscribedTypesChangedListener(this);
+
+        // Remove all pending callbacks and polls and start a new one. This makes sure that only
+        // one event poller is running at any given time.
         synchronized (mMainThreadHandler) {
             mShutdown = false;
+            cancelPoll();
             mMainThreadHandler.removeCallbacks(this);
-            mMainThreadHandler.postDelayed(this, EVENT_UPDATE_INTERVAL);
+            mMainThreadHandler.post(this);
         }
     }
 
@@ -205,8 +261,23 @@ public class EventProcessor implements  Runnable, RestApi.OnReceiveEventListener
         Log.d(TAG, "Stopping event processor.");
         synchronized (mMainThreadHandler) {
             mShutdown = true;
+            cancelPoll();
             mMainThreadHandler.removeCallbacks(this);
         }
+
+        mEventBus.unregisterOnSubscribedTypesChangedListener(this);
+        mEventBus.unsubscribe(mConfigSavedSubscriber);
+        mEventBus.unsubscribe(mDeviceRejectedSubscriber);
+        mEventBus.unsubscribe(mFolderCompletionSubscriber);
+        mEventBus.unsubscribe(mFolderRejectedSubscriber);
+        mEventBus.unsubscribe(mItemFinishedSubscriber);
+    }
+
+    private void cancelPoll() {
+        if (mPollRequest != null) {
+            mPollRequest.cancel();
+            mPollRequest = null;
+        }
     }
 
     private void onDeviceRejected(String deviceId, String deviceName) {
@@ -249,20 +320,14 @@ public class EventProcessor implements  Runnable, RestApi.OnReceiveEventListener
             folderLabel + " (" + folderId + ")");
 
         // Find the deviceName corresponding to the deviceId
-        String deviceName = null;
-        for (Device d : mApi.getDevices(false)) {
-            if (d.deviceID.equals(deviceId)) {
-                deviceName = d.getDisplayName();
-                break;
-            }
-        }
+        Device device = mApi.getDevice(deviceId);
+        String deviceName = (device != null) ? device.getDisplayName() : null;
         String title = mContext.getString(R.string.folder_rejected, deviceName,
                 folderLabel.isEmpty() ? folderId : folderLabel + " (" + folderId + ")");
         int notificationId = mNotificationHandler.getNotificationIdFromText(title);
 
         // Prepare "accept" action.
-        boolean isNewFolder = Stream.of(mApi.getFolders())
-                .noneMatch(f -> f.id.equals(folderId));
+        boolean isNewFolder = mApi.getFolder(folderId) == null;
         Intent intentAccept = new Intent(mContext, FolderActivity.class)
                 .putExtra(FolderActivity.EXTRA_NOTIFICATION_ID, notificationId)
                 .putExtra(FolderActivity.EXTRA_IS_CREATE, isNewFolder)
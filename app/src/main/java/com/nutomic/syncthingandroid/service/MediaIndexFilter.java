@@ -0,0 +1,173 @@
+package com.nutomic.syncthingandroid.service;
+
+import android.content.SharedPreferences;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Decides per folder which synced files are passed to {@link MediaIndexer}.
+ *
+ * {@link #shouldIndex} is called for every finished item, so it does not allocate for the
+ * common case: the mode of each folder is cached, and extensions are looked up in a
+ * precomputed hash table by comparing regions of the path.
+ */
+public class MediaIndexFilter {
+
+    private static final String PREF_MODE_PREFIX = "media_index_mode_";
+
+    public enum Mode {
+        /**
+         * No files of the folder are indexed.
+         */
+        OFF("off"),
+        /**
+         * Only images, videos and audio files are indexed.
+         */
+        MEDIA("media"),
+        /**
+         * All files of the folder are indexed.
+         */
+        ALL("all");
+
+        private final String mPrefValue;
+
+        Mode(String prefValue) {
+            mPrefValue = prefValue;
+        }
+
+        private static Mode fromPrefValue(String value) {
+            for (Mode mode : values()) {
+                if (mode.mPrefValue.equals(value)) {
+                    return mode;
+                }
+            }
+            return DEFAULT_MODE;
+        }
+    }
+
+    public static final Mode DEFAULT_MODE = Mode.MEDIA;
+
+    /**
+     * Part of the name of conflict copies, which are never treated as media.
+     */
+    private static final String CONFLICT_MARKER = ".sync-conflict-";
+
+    private static final String[] MEDIA_EXTENSIONS = {
+            // Images
+            "jpg", "jpeg", "png", "gif", "webp", "bmp", "heic", "heif", "dng", "cr2", "nef",
+            "arw", "orf", "rw2",
+            // Videos
+            "mp4", "m4v", "mkv", "webm", "3gp", "3gpp", "3g2", "avi", "mov", "mpg", "mpeg",
+            "ts", "wmv", "flv",
+            // Audio
+            "mp3", "m4a", "aac", "ogg", "oga", "opus", "flac", "wav", "wma", "amr", "mid",
+            "midi", "mka", "xmf", "imy",
+    };
+
+    /**
+     * Open addressing hash table of {@link #MEDIA_EXTENSIONS}, with a size that is a power of
+     * two and at least four times the number of extensions.
+     */
+    private static final String[] EXTENSION_TABLE;
+
+    static {
+        int size = Integer.highestOneBit(MEDIA_EXTENSIONS.length * 4) * 2;
+        EXTENSION_TABLE = new String[size];
+        for (String extension : MEDIA_EXTENSIONS) {
+            int slot = hash(extension, 0, extension.length()) & (size - 1);
+            while (EXTENSION_TABLE[slot] != null) {
+                slot = (slot + 1) & (size - 1);
+            }
+            EXTENSION_TABLE[slot] = extension;
+        }
+    }
+
+    private final SharedPreferences mPreferences;
+
+    private final Map<String, Mode> mModes = new ConcurrentHashMap<>();
+
+    public MediaIndexFilter(SharedPreferences preferences) {
+        mPreferences = preferences;
+    }
+
+    public Mode getMode(String folderId) {
+        Mode mode = mModes.get(folderId);
+        if (mode == null) {
+            mode = Mode.fromPrefValue(mPreferences.getString(PREF_MODE_PREFIX + folderId, null));
+            mModes.put(folderId, mode);
+        }
+        return mode;
+    }
+
+    public void setMode(String folderId, Mode mode) {
+        mModes.put(folderId, mode);
+        mPreferences.edit().putString(PREF_MODE_PREFIX + folderId, mode.mPrefValue).apply();
+    }
+
+    /**
+     * Removes the setting of a folder that was deleted.
+     */
+    public void removeMode(String folderId) {
+        mModes.remove(folderId);
+        mPreferences.edit().remove(PREF_MODE_PREFIX + folderId).apply();
+    }
+
+    /**
+     * Returns true if the file at path (absolute or relative to the folder) should be indexed.
+     */
+    public boolean shouldIndex(String folderId, String path) {
+        switch (getMode(folderId)) {
+            case ALL:
+                return true;
+            case MEDIA:
+                return isMedia(path);
+            case OFF:
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Returns true if the extension of the file at path is a known image, video or audio
+     * extension, ignoring case. Conflict copies are not considered media.
+     */
+    public static boolean isMedia(String path) {
+        int nameStart = path.lastIndexOf('/') + 1;
+        int dot = path.lastIndexOf('.');
+        if (dot <= nameStart || dot == path.length() - 1) {
+            return false;
+        }
+        if (path.indexOf(CONFLICT_MARKER, nameStart) >= 0) {
+            return false;
+        }
+        int start = dot + 1;
+        int length = path.length() - start;
+        int mask = EXTENSION_TABLE.length - 1;
+        int slot = hash(path, start, path.length()) & mask;
+        String candidate;
+        while ((candidate = EXTENSION_TABLE[slot]) != null) {
+            if (candidate.length() == length &&
+                    path.regionMatches(true, start, candidate, 0, length)) {
+                return true;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return false;
+    }
+
+    /**
+     * Hash of s[start, end) with ASCII letters lower cased.
+     */
+    private static int hash(String s, int start, int end) {
+        int h = 0;
+        for (int i = start; i < end; i++) {
+            char c = s.charAt(i);
+            if (c >= 'A' && c <= 'Z') {
+                c += 'a' - 'A';
+            }
+            h = 31 * h + c;
+        }
+        return h ^ (h >>> 16);
+    }
+}
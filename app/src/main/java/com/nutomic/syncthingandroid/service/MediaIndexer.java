@@ -0,0 +1,282 @@
+package com.nutomic.syncthingandroid.service;
+
+import android.content.ContentProviderOperation;
+import android.content.Context;
+import android.content.OperationApplicationException;
+import android.media.MediaScannerConnection;
+import android.net.Uri;
+import android.os.RemoteException;
+import android.os.SystemClock;
+import android.provider.MediaStore;
+import android.util.Log;
+
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the MediaStore up to date with files changed by Syncthing.
+ *
+ * Changed and deleted files are queued and handled on a background thread in batches:
+ * all files changed within {@link #BATCH_WINDOW} (up to {@link #BATCH_SIZE_MAX}) are passed to
+ * a single MediaScanner call, and all deleted files are removed from the MediaStore with a
+ * single {@link android.content.ContentResolver#applyBatch} call.
+ *
+ * The queue is bounded. If it is full, further files are dropped and counted in
+ * {@link #getDroppedCount}. Callers that can wait, like {@link MediaReconciler}, use the
+ * variants with a timeout instead, which block until there is space.
+ */
+public class MediaIndexer {
+
+    private static final String TAG = "MediaIndexer";
+
+    private static final int QUEUE_CAPACITY = 10000;
+
+    /**
+     * Time in ms to wait for more files after the first one of a batch was queued.
+     */
+    private static final long BATCH_WINDOW = TimeUnit.SECONDS.toMillis(2);
+
+    private static final int BATCH_SIZE_MAX = 200;
+
+    private static class Item {
+        final String path;
+        final boolean deleted;
+        final long queuedAt;
+
+        Item(String path, boolean deleted) {
+            this.path = path;
+            this.deleted = deleted;
+            this.queuedAt = SystemClock.elapsedRealtime();
+        }
+    }
+
+    private final Context mContext;
+
+    private final BlockingQueue<Item> mQueue = new LinkedBlockingQueue<>(QUEUE_CAPACITY);
+
+    private Thread mWorkerThread;
+
+    /**
+     * Time the oldest item of the batch being processed was queued, or 0 if idle.
+     */
+    private volatile long mBatchQueuedAt = 0;
+
+    private final AtomicLong mScannedCount = new AtomicLong();
+    private final AtomicLong mDeletedCount = new AtomicLong();
+    private final AtomicLong mDroppedCount = new AtomicLong();
+    private final AtomicLong mBatchCount = new AtomicLong();
+    private volatile long mLastBatchLag = 0;
+
+    public MediaIndexer(Context context) {
+        mContext = context.getApplicationContext();
+    }
+
+    /**
+     * Queues a file that was added or modified, so it will be (re-)scanned.
+     */
+    public void scanFile(String path) {
+        queue(new Item(path, false));
+    }
+
+    /**
+     * Queues a file that was deleted, so it will be removed from the MediaStore.
+     */
+    public void deleteFile(String path) {
+        queue(new Item(path, true));
+    }
+
+    /**
+     * Like {@link #scanFile(String)}, but waits for space if the queue is full instead of
+     * dropping the file.
+     *
+     * @return False if the queue was still full after timeout, the file was not queued then.
+     */
+    public boolean scanFile(String path, long timeout, TimeUnit unit) throws InterruptedException {
+        return queue(new Item(path, false), timeout, unit);
+    }
+
+    /**
+     * Like {@link #deleteFile(String)}, but waits for space if the queue is full instead of
+     * dropping the file.
+     *
+     * @return False if the queue was still full after timeout, the file was not queued then.
+     */
+    public boolean deleteFile(String path, long timeout, TimeUnit unit) throws InterruptedException {
+        return queue(new Item(path, true), timeout, unit);
+    }
+
+    private void queue(Item item) {
+        if (!mQueue.offer(item)) {
+            mDroppedCount.incrementAndGet();
+            Log.w(TAG, "Queue is full, dropping " + item.path);
+            return;
+        }
+        startWorker();
+    }
+
+    private boolean queue(Item item, long timeout, TimeUnit unit) throws InterruptedException {
+        if (!mQueue.offer(item, timeout, unit)) {
+            return false;
+        }
+        startWorker();
+        return true;
+    }
+
+    private void startWorker() {
+        synchronized (this) {
+            if (mWorkerThread == null) {
+                mWorkerThread = new Thread(this::processQueue, TAG);
+                mWorkerThread.setDaemon(true);
+                mWorkerThread.start();
+            }
+        }
+    }
+
+    /**
+     * Number of files waiting to be processed.
+     */
+    public int getQueueDepth() {
+        return mQueue.size();
+    }
+
+    /**
+     * Time in ms the oldest file that has not been processed yet is waiting, or 0 if none.
+     */
+    public long getLag() {
+        long oldest = mBatchQueuedAt;
+        if (oldest == 0) {
+            Item head = mQueue.peek();
+            oldest = (head != null) ? head.queuedAt : 0;
+        }
+        return (oldest != 0) ? SystemClock.elapsedRealtime() - oldest : 0;
+    }
+
+    /**
+     * Time in ms between queuing the oldest file of the last batch and finishing the batch.
+     */
+    public long getLastBatchLag() {
+        return mLastBatchLag;
+    }
+
+    public long getScannedCount() {
+        return mScannedCount.get();
+    }
+
+    public long getDeletedCount() {
+        return mDeletedCount.get();
+    }
+
+    public long getDroppedCount() {
+        return mDroppedCount.get();
+    }
+
+    public long getBatchCount() {
+        return mBatchCount.get();
+    }
+
+    /**
+     * Returns the statistics above as human readable text.
+     */
+    public String getSummary() {
+        return String.format(Locale.US,
+                "Media indexer\n" +
+                "  %d queued, lag %d ms, last batch lag %d ms\n" +
+                "  %d batches, %d scanned, %d deleted, %d dropped\n",
+                getQueueDepth(), getLag(), getLastBatchLag(),
+                getBatchCount(), getScannedCount(), getDeletedCount(), getDroppedCount());
+    }
+
+    /**
+     * Writes the statistics above as a JSON object.
+     */
+    public void writeJson(JsonWriter json) throws IOException {
+        json.beginObject();
+        json.name("queueDepth").value(getQueueDepth());
+        json.name("lagMs").value(getLag());
+        json.name("lastBatchLagMs").value(getLastBatchLag());
+        json.name("batches").value(getBatchCount());
+        json.name("scanned").value(getScannedCount());
+        json.name("deleted").value(getDeletedCount());
+        json.name("dropped").value(getDroppedCount());
+        json.endObject();
+    }
+
+    private void processQueue() {
+        List<Item> batch = new ArrayList<>(BATCH_SIZE_MAX);
+        try {
+            while (true) {
+                Item first = mQueue.take();
+                mBatchQueuedAt = first.queuedAt;
+                batch.add(first);
+                long deadline = first.queuedAt + BATCH_WINDOW;
+                while (batch.size() < BATCH_SIZE_MAX) {
+                    mQueue.drainTo(batch, BATCH_SIZE_MAX - batch.size());
+                    long wait = deadline - SystemClock.elapsedRealtime();
+                    if (batch.size() >= BATCH_SIZE_MAX || wait <= 0) {
+                        break;
+                    }
+                    Item next = mQueue.poll(wait, TimeUnit.MILLISECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                processBatch(batch);
+                mLastBatchLag = SystemClock.elapsedRealtime() - mBatchQueuedAt;
+                mBatchQueuedAt = 0;
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            Log.w(TAG, "Interrupted, dropping batch of " + batch.size() + " files");
+        } finally {
+            mBatchQueuedAt = 0;
+            synchronized (this) {
+                mWorkerThread = null;
+            }
+            // Files queued while this worker was stopping would otherwise wait for the next one.
+            if (!mQueue.isEmpty()) {
+                startWorker();
+            }
+        }
+    }
+
+    private void processBatch(List<Item> batch) {
+        List<String> scanPaths = new ArrayList<>();
+        ArrayList<ContentProviderOperation> deletes = new ArrayList<>();
+        Uri contentUri = MediaStore.Files.getContentUri("external");
+        for (Item item : batch) {
+            if (item.deleted) {
+                deletes.add(ContentProviderOperation.newDelete(contentUri)
+                        .withSelection(MediaStore.MediaColumns.DATA + " = ?", new String[]{item.path})
+                        .build());
+            } else {
+                scanPaths.add(item.path);
+            }
+        }
+
+        if (!scanPaths.isEmpty()) {
+            MediaScannerConnection.scanFile(mContext,
+                    scanPaths.toArray(new String[scanPaths.size()]), null, null);
+            mScannedCount.addAndGet(scanPaths.size());
+        }
+        if (!deletes.isEmpty()) {
+            try {
+                mContext.getContentResolver().applyBatch(MediaStore.AUTHORITY, deletes);
+                mDeletedCount.addAndGet(deletes.size());
+            } catch (RemoteException | OperationApplicationException | SecurityException e) {
+                Log.w(TAG, "Failed to delete " + deletes.size() + " files from MediaStore", e);
+            }
+        }
+        mBatchCount.incrementAndGet();
+        Log.v(TAG, "Processed batch: " + scanPaths.size() + " scanned, " + deletes.size() +
+                " deleted, " + mQueue.size() + " queued");
+    }
+}
@@ -0,0 +1,322 @@
+package com.nutomic.syncthingandroid.service;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.net.Uri;
+import android.provider.MediaStore;
+import android.text.TextUtils;
+import android.util.Log;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Brings the MediaStore in line with the files in synced folders, for changes whose
+ * "ItemFinished" event was missed.
+ *
+ * Each folder is walked on its own thread (up to {@link #THREADS}) and compared with the
+ * MediaStore entries below it. New and modified files are passed to {@link MediaIndexer} for
+ * scanning, entries of files that don't exist anymore are passed to it for deletion.
+ *
+ * Folders are walked depth first in sorted order, and the last fully compared directory is
+ * stored as checkpoint, so a cancelled run continues where it stopped. If the MediaIndexer
+ * queue is full, the walk waits for it, so no file before the checkpoint is lost.
+ */
+public class MediaReconciler {
+
+    private static final String TAG = "MediaReconciler";
+
+    private static final String PREF_CHECKPOINT_PREFIX = "media_reconciliation_checkpoint_";
+
+    private static final int THREADS = 2;
+
+    /**
+     * Number of directories after which the checkpoint is stored.
+     */
+    private static final int CHECKPOINT_INTERVAL = 50;
+
+    /**
+     * Time in ms to wait for space in the {@link MediaIndexer} queue before checking whether
+     * the run was cancelled.
+     */
+    private static final long QUEUE_WAIT = 1000;
+
+    private final Context mContext;
+    private final SharedPreferences mPreferences;
+    private final MediaIndexer mMediaIndexer;
+    private final MediaIndexFilter mMediaIndexFilter;
+
+    private volatile boolean mCancelled = false;
+
+    public MediaReconciler(Context context, SharedPreferences preferences,
+                           MediaIndexer mediaIndexer, MediaIndexFilter mediaIndexFilter) {
+        mContext = context;
+        mPreferences = preferences;
+        mMediaIndexer = mediaIndexer;
+        mMediaIndexFilter = mediaIndexFilter;
+    }
+
+    /**
+     * Stops a running {@link #run} as soon as possible. Progress is kept.
+     */
+    public void cancel() {
+        mCancelled = true;
+    }
+
+    /**
+     * Compares all given folders with the MediaStore. Blocks until done or cancelled.
+     *
+     * @param folderPaths Local folder paths, keyed by folder id.
+     * @return True if all folders were compared completely.
+     */
+    public boolean run(Map<String, String> folderPaths) {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        List<Future<Boolean>> results = new ArrayList<>();
+        for (Map.Entry<String, String> folder : folderPaths.entrySet()) {
+            results.add(executor.submit(() -> reconcileFolder(folder.getKey(), folder.getValue())));
+        }
+        executor.shutdown();
+
+        boolean complete = true;
+        for (Future<Boolean> result : results) {
+            try {
+                complete &= result.get();
+            } catch (InterruptedException | ExecutionException e) {
+                Log.w(TAG, "Failed to reconcile folder", e);
+                complete = false;
+            }
+        }
+        return complete && !mCancelled;
+    }
+
+    private boolean reconcileFolder(String folderId, String folderPath) {
+        File folder = new File(folderPath);
+        if (!folder.isDirectory() ||
+                mMediaIndexFilter.getMode(folderId) == MediaIndexFilter.Mode.OFF) {
+            return true;
+        }
+        String checkpointKey = PREF_CHECKPOINT_PREFIX + folderPath;
+        String checkpoint = mPreferences.getString(checkpointKey, null);
+        Log.d(TAG, "Reconciling " + folderPath +
+                (checkpoint != null ? " from " + checkpoint : ""));
+
+        Map<String, Long> indexed = queryMediaStore(folder.getPath() + File.separator);
+        Walk walk = new Walk(folderId, checkpointKey,
+                checkpoint != null ? split(checkpoint) : null, indexed);
+        if (!walk.walk(folder, new String[0])) {
+            walk.storeCheckpoint();
+            return false;
+        }
+
+        // Whatever is left in the MediaStore either was in an already compared directory or
+        // does not exist anymore.
+        for (String path : indexed.keySet()) {
+            if (mCancelled) {
+                walk.storeCheckpoint();
+                return false;
+            }
+            if (!new File(path).exists()) {
+                if (!queue(path, true)) {
+                    walk.storeCheckpoint();
+                    return false;
+                }
+                walk.deleted++;
+            }
+        }
+        mPreferences.edit().remove(checkpointKey).apply();
+        Log.d(TAG, "Reconciled " + folderPath + ": " + walk.scanned + " to scan, " +
+                walk.deleted + " to delete");
+        return true;
+    }
+
+    /**
+     * Returns the modification time in seconds of all MediaStore entries below the given
+     * path, keyed by absolute path.
+     */
+    private Map<String, Long> queryMediaStore(String pathPrefix) {
+        Map<String, Long> result = new HashMap<>();
+        Uri uri = MediaStore.Files.getContentUri("external");
+        String[] projection = {MediaStore.MediaColumns.DATA, MediaStore.MediaColumns.DATE_MODIFIED};
+        // substr instead of LIKE, so '%' and '_' in the path don't need to be escaped.
+        String selection = "substr(" + MediaStore.MediaColumns.DATA + ", 1, " +
+                pathPrefix.length() + ") = ?";
+        Cursor cursor;
+        try {
+            cursor = mContext.getContentResolver().query(uri, projection, selection,
+                    new String[]{pathPrefix}, null);
+        } catch (SecurityException e) {
+            Log.w(TAG, "Failed to query MediaStore", e);
+            return result;
+        }
+        if (cursor == null) {
+            return result;
+        }
+        try {
+            while (cursor.moveToNext()) {
+                result.put(cursor.getString(0), cursor.getLong(1));
+            }
+        } finally {
+            cursor.close();
+        }
+        return result;
+    }
+
+    /**
+     * Passes the file to {@link MediaIndexer}, waiting while its queue is full.
+     *
+     * @return False if cancelled or interrupted before the file was queued.
+     */
+    private boolean queue(String path, boolean deleted) {
+        try {
+            while (!(deleted
+                    ? mMediaIndexer.deleteFile(path, QUEUE_WAIT, TimeUnit.MILLISECONDS)
+                    : mMediaIndexer.scanFile(path, QUEUE_WAIT, TimeUnit.MILLISECONDS))) {
+                if (mCancelled) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private static String[] split(String relativePath) {
+        return relativePath.isEmpty() ? new String[0] : relativePath.split("/");
+    }
+
+    /**
+     * Compares paths component by component, which is the order of a depth first walk over
+     * sorted directory entries.
+     */
+    private static int compare(String[] lhs, String[] rhs) {
+        for (int i = 0; i < Math.min(lhs.length, rhs.length); i++) {
+            int c = lhs[i].compareTo(rhs[i]);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return Integer.compare(lhs.length, rhs.length);
+    }
+
+    private static boolean isAncestor(String[] ancestor, String[] path) {
+        if (ancestor.length >= path.length) {
+            return false;
+        }
+        for (int i = 0; i < ancestor.length; i++) {
+            if (!ancestor[i].equals(path[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private class Walk {
+        final String folderId;
+        final String checkpointKey;
+        final Map<String, Long> indexed;
+        String[] checkpoint;
+        int directoriesSinceCheckpoint = 0;
+        int scanned = 0;
+        int deleted = 0;
+
+        Walk(String folderId, String checkpointKey, String[] checkpoint,
+             Map<String, Long> indexed) {
+            this.folderId = folderId;
+            this.checkpointKey = checkpointKey;
+            this.checkpoint = checkpoint;
+            this.indexed = indexed;
+        }
+
+        /**
+         * Compares the files in dir, then walks its subdirectories.
+         *
+         * @return False if cancelled.
+         */
+        boolean walk(File dir, String[] relativePath) {
+            if (mCancelled) {
+                return false;
+            }
+            File[] entries = dir.listFiles();
+            if (entries == null) {
+                return true;
+            }
+            Arrays.sort(entries);
+
+            // Files of directories up to the checkpoint were already compared.
+            boolean compareFiles = checkpoint == null || compare(relativePath, checkpoint) > 0;
+            List<File> subdirs = new ArrayList<>();
+            for (File entry : entries) {
+                if (entry.isDirectory()) {
+                    subdirs.add(entry);
+                } else if (compareFiles) {
+                    if (!compareFile(entry)) {
+                        // The checkpoint is still before this directory, so it is compared
+                        // again next time.
+                        return false;
+                    }
+                } else {
+                    indexed.remove(entry.getPath());
+                }
+            }
+            if (compareFiles) {
+                checkpoint = relativePath;
+                if (++directoriesSinceCheckpoint >= CHECKPOINT_INTERVAL) {
+                    storeCheckpoint();
+                }
+            }
+
+            for (File subdir : subdirs) {
+                String[] subPath = Arrays.copyOf(relativePath, relativePath.length + 1);
+                subPath[relativePath.length] = subdir.getName();
+                if (checkpoint != null && compare(subPath, checkpoint) < 0 &&
+                        !isAncestor(subPath, checkpoint)) {
+                    // Completely compared before the checkpoint. MediaStore entries below it
+                    // are only checked for existence afterwards.
+                    continue;
+                }
+                if (!walk(subdir, subPath)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * @return False if cancelled while waiting to queue the file.
+         */
+        boolean compareFile(File file) {
+            Long indexedModified = indexed.remove(file.getPath());
+            if (!mMediaIndexFilter.shouldIndex(folderId, file.getPath())) {
+                return true;
+            }
+            if (indexedModified == null || indexedModified != file.lastModified() / 1000) {
+                if (!queue(file.getPath(), false)) {
+                    return false;
+                }
+                scanned++;
+            }
+            return true;
+        }
+
+        void storeCheckpoint() {
+            directoriesSinceCheckpoint = 0;
+            if (checkpoint != null) {
+                mPreferences.edit()
+                        .putString(checkpointKey, TextUtils.join("/", checkpoint))
+                        .apply();
+            }
+        }
+    }
+}
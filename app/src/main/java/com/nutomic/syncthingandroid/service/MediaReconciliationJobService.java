@@ -0,0 +1,113 @@
+package com.nutomic.syncthingandroid.service;
+
+import android.Manifest;
+import android.annotation.TargetApi;
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.pm.PackageManager;
+import android.os.Build;
+import android.support.v4.content.ContextCompat;
+import android.util.Log;
+
+import com.nutomic.syncthingandroid.SyncthingApp;
+import com.nutomic.syncthingandroid.util.ConfigXml;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+
+/**
+ * Runs {@link MediaReconciler} for all folders once a day, while the device is charging and
+ * idle. If the job is stopped early, it is rescheduled and continues from the checkpoints
+ * stored by {@link MediaReconciler}.
+ */
+@TargetApi(21)
+public class MediaReconciliationJobService extends JobService {
+
+    private static final String TAG = "MediaReconciliationJob";
+
+    private static final int JOB_ID = 1;
+
+    private static final long INTERVAL = TimeUnit.DAYS.toMillis(1);
+
+    @Inject SharedPreferences mPreferences;
+    @Inject MediaIndexer mMediaIndexer;
+    @Inject MediaIndexFilter mMediaIndexFilter;
+
+    private MediaReconciler mReconciler;
+
+    /**
+     * Schedules the job, unless it is already scheduled. Does nothing on Android versions
+     * without {@link JobScheduler}.
+     */
+    public static void schedule(Context context) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+            return;
+        }
+        JobScheduler scheduler =
+                (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        for (JobInfo job : scheduler.getAllPendingJobs()) {
+            if (job.getId() == JOB_ID) {
+                return;
+            }
+        }
+        JobInfo job = new JobInfo.Builder(JOB_ID,
+                new ComponentName(context, MediaReconciliationJobService.class))
+                .setRequiresCharging(true)
+                .setRequiresDeviceIdle(true)
+                .setPeriodic(INTERVAL)
+                .setPersisted(true)
+                .build();
+        scheduler.schedule(job);
+        Log.d(TAG, "Scheduled media reconciliation");
+    }
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        ((SyncthingApp) getApplication()).component().inject(this);
+    }
+
+    @Override
+    public boolean onStartJob(JobParameters params) {
+        if (ContextCompat.checkSelfPermission(this, Manifest.permission.WRITE_EXTERNAL_STORAGE) !=
+                PackageManager.PERMISSION_GRANTED) {
+            return false;
+        }
+        // Don't let ConfigXml generate a new config, it is only read here.
+        if (!Constants.getConfigFile(this).exists()) {
+            return false;
+        }
+        Map<String, String> folderPaths;
+        try {
+            folderPaths = new ConfigXml(this).getFolderPaths();
+        } catch (ConfigXml.OpenConfigException e) {
+            Log.w(TAG, "Failed to read folders", e);
+            return false;
+        }
+
+        MediaReconciler reconciler = new MediaReconciler(this, mPreferences, mMediaIndexer,
+                mMediaIndexFilter);
+        mReconciler = reconciler;
+        new Thread(() -> {
+            boolean complete = reconciler.run(folderPaths);
+            Log.d(TAG, "Media reconciliation " + (complete ? "finished" : "stopped"));
+            jobFinished(params, false);
+        }, TAG).start();
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        if (mReconciler != null) {
+            mReconciler.cancel();
+        }
+        return true;
+    }
+}
@@ -3,23 +3,35 @@ package com.nutomic.syncthingandroid.service;
 import android.app.Activity;
 import android.content.Context;
 import android.content.Intent;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.preference.PreferenceManager;
+import android.support.annotation.Nullable;
+import android.text.TextUtils;
 import android.util.Log;
 
-import com.google.common.base.Objects;
+import com.google.common.base.Charsets;
+import com.google.common.base.Function;
 import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableMap;
-import com.google.common.reflect.TypeToken;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
-import com.google.gson.JsonArray;
+import com.google.gson.JsonIOException;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.MalformedJsonException;
 import com.nutomic.syncthingandroid.BuildConfig;
 import com.nutomic.syncthingandroid.SyncthingApp;
 import com.nutomic.syncthingandroid.activities.ShareActivity;
+import com.nutomic.syncthingandroid.http.ApiRequest;
+import com.nutomic.syncthingandroid.http.ConfigObjectRequest;
 import com.nutomic.syncthingandroid.http.GetRequest;
+import com.nutomic.syncthingandroid.http.LongPollRequest;
 import com.nutomic.syncthingandroid.http.PostRequest;
 import com.nutomic.syncthingandroid.http.PostConfigRequest;
 import com.nutomic.syncthingandroid.model.Config;
@@ -38,21 +50,40 @@ import com.nutomic.syncthingandroid.model.RemoteIgnoredDevice;
 import com.nutomic.syncthingandroid.model.SystemInfo;
 import com.nutomic.syncthingandroid.model.SystemVersion;
 import com.nutomic.syncthingandroid.service.Constants;
-
+import com.nutomic.syncthingandroid.util.Tracer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
 import java.lang.reflect.Type;
 import java.net.URL;
-import java.util.Collections;
-import java.util.Comparator;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import javax.inject.Inject;
 
+import static com.nutomic.syncthingandroid.model.ModelTypeAdapters.GSON;
+
 /**
  * Provides functions to interact with the syncthing REST API.
  */
@@ -61,14 +92,56 @@ public class RestApi {
     private static final String TAG = "RestApi";
 
     /**
-     * Compares folders by labels, uses the folder ID as fallback if the label is empty
+     * Time in seconds Syncthing waits for new events before answering a long poll
+     * with an empty list.
+     */
+    private static final int EVENTS_LONG_POLL_TIMEOUT = 60;
+
+    /**
+     * Time in seconds the client waits for the answer to a long poll on top of
+     * {@link #EVENTS_LONG_POLL_TIMEOUT}.
+     */
+    private static final int EVENTS_LONG_POLL_GRACE = 10;
+
+    /**
+     * Number of events that are decoded before they are passed to the main thread together.
+     */
+    private static final int EVENTS_CHUNK_SIZE = 50;
+
+    /**
+     * Number of chunks that may wait for the main thread before decoding pauses.
+     */
+    private static final int EVENTS_CHUNKS_PENDING = 2;
+
+    /**
+     * Delay in ms before local config changes are sent to Syncthing.
+     * Changes made in the meantime are combined into one request.
+     */
+    private static final long SEND_CONFIG_DELAY = 250;
+
+    /**
+     * Maximum number of queued config objects that are sent as separate requests. More
+     * changes are sent together in the full config.
+     */
+    private static final int CONFIG_OBJECT_REQUESTS_MAX = 3;
+
+    /**
+     * Maximum number of completion requests running at the same time while
+     * {@link #bootstrapCompletion} fetches the completion of all shares.
      */
-    private final static Comparator<Folder> FOLDERS_COMPARATOR = (lhs, rhs) -> {
-        String lhsLabel = lhs.label != null && !lhs.label.isEmpty() ? lhs.label : lhs.id;
-        String rhsLabel = rhs.label != null && !rhs.label.isEmpty() ? rhs.label : rhs.id;
+    private static final int COMPLETION_BOOTSTRAP_CONCURRENCY = 4;
 
-        return lhsLabel.compareTo(rhsLabel);
-    };
+    /**
+     * Maximum number of folder status requests running at the same time while
+     * {@link #bootstrapFolderStatuses} fetches the status of all folders. Lower than for
+     * completion, as Syncthing has to count the files of the folder for each one.
+     */
+    private static final int FOLDER_STATUS_BOOTSTRAP_CONCURRENCY = 2;
+
+    /**
+     * Extracts major and minor version from the syncthing version string, e.g. "v1.4.2".
+     */
+    private static final Pattern VERSION_PATTERN = Pattern.compile("^v?(\\d+)\\.(\\d+)");
 
     public interface OnConfigChangedListener {
         void onConfigChanged();
@@ -87,7 +160,12 @@ public class RestApi {
     private final String mApiKey;
 
     private String mVersion;
-    private Config mConfig;
+
+    /**
+     * Current config, replaced as a whole on every reload or local change.
+     * Readers access it without locking, writers have to hold {@link #mConfigLock}.
+     */
+    private volatile ConfigSnapshot mConfigSnapshot;
 
     /**
      * Results cached from systemInfo
@@ -106,6 +184,16 @@ public class RestApi {
      */
     private long mPreviousConnectionTime = 0;
 
+    /**
+     * Connection state of all devices. Fetched once by {@link #getConnectionStates} or with
+     * each {@link #getConnections}, and kept current by device connection events in between.
+     * Replaced as a whole on every change, null until fetched.
+     */
+    private volatile @Nullable Connections mConnectionStates = null;
+
+    private final List<OnResultListener1<Connections>> mOnConnectionStatesChangedListeners =
+            new CopyOnWriteArrayList<>();
+
     /**
      * In the last-finishing {@link readConfigFromRestApi} callback, we have to call
      * {@link SyncthingService#onApiAvailable} to indicate that the RestApi class is fully initialized.
@@ -125,21 +213,133 @@ public class RestApi {
     private final Object mAsyncQueryCompleteLock = new Object();
 
     /**
-     * Object that must be locked upon accessing mConfig
+     * Object that must be locked while building and swapping in a new {@link #mConfigSnapshot}
+     * and upon accessing the queued config changes and reload state below.
      */
     private final Object mConfigLock = new Object();
 
     /**
-     * Stores the latest result of {@link #getFolderStatus} for each folder
+     * Config objects changed locally but not yet sent to Syncthing, keyed by their path
+     * (see {@link ConfigObjectRequest}). A null value means the object was removed.
+     */
+    private final Map<String, Object> mQueuedConfigObjects = new LinkedHashMap<>();
+
+    /**
+     * True if a change without a granular endpoint requires sending the full config.
+     */
+    private boolean mQueuedFullConfig = false;
+
+    /**
+     * A local change of the config, see {@link #mUnsentConfigEdits}. Must replace the entries
+     * it changes instead of modifying them, see {@link ConfigSnapshot#copyConfig()}.
+     */
+    private interface ConfigEdit {
+        void apply(Config config);
+    }
+
+    private static final class UnsentConfigEdit {
+        /**
+         * Path of the changed object if it is sent on its own, see {@link #queueConfigObject}.
+         */
+        final @Nullable String path;
+        final ConfigEdit edit;
+
+        UnsentConfigEdit(@Nullable String path, ConfigEdit edit) {
+            this.path = path;
+            this.edit = edit;
+        }
+    }
+
+    /**
+     * Local config changes not yet sent to Syncthing, in the order they were made. They are
+     * applied again to a config that is reloaded in the meantime, so the reloaded config
+     * neither overwrites them nor is ignored.
+     */
+    private final List<UnsentConfigEdit> mUnsentConfigEdits = new ArrayList<>();
+
+    private int mConfigTransactionDepth = 0;
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    private final Runnable mSendQueuedConfigRunnable = this::sendQueuedConfig;
+
+    private boolean mReloadConfigRunning = false;
+    private boolean mReloadConfigAgain = false;
+
+    /**
+     * A listener waiting for the result of a coalesced GET request.
+     */
+    private static class Waiter {
+        final OnResultListener1<?> listener;
+        final @Nullable Object tag;
+
+        Waiter(OnResultListener1<?> listener, @Nullable Object tag) {
+            this.listener = listener;
+            this.tag = tag;
+        }
+    }
+
+    /**
+     * A GET request that is currently running, and the listeners waiting for its result.
+     */
+    private static class InFlightGet {
+        final List<Waiter> waiters = new ArrayList<>();
+        @Nullable ApiRequest request;
+    }
+
+    /**
+     * GET requests that are currently running, keyed by {@link #getRequestKey}. Must be
+     * locked while accessed.
+     */
+    private final Map<String, InFlightGet> mInFlightGets = new HashMap<>();
+
+    /**
+     * Minimum time between two re-syncs of {@link #mCachedFolderStatuses} after missed events.
+     */
+    private static final long FOLDER_STATUS_RESYNC_INTERVAL = TimeUnit.SECONDS.toMillis(60);
+
+    /**
+     * Stores the latest status of each folder, from {@link #bootstrapFolderStatuses} or
+     * {@link #getFolderStatus} and kept current
+     * by "FolderSummary" and "StateChanged" events. Entries are replaced, never modified.
      */
-    private HashMap<String, FolderStatus> mCachedFolderStatuses = new HashMap<>();
+    private final Map<String, FolderStatus> mCachedFolderStatuses = new ConcurrentHashMap<>();
+
+    private long mLastFolderStatusResync = 0;
+
+    private final Runnable mResyncFolderStatusesRunnable = this::resyncFolderStatuses;
 
     /**
      * Stores the latest result of device and folder completion events.
      */
     private Completion mCompletion = new Completion();
 
+    /**
+     * State of {@link #bootstrapCompletion}, only accessed on the main thread: parameters of
+     * completion requests that were not started yet, running requests keyed by
+     * {@link #getCompletionKey}, and keys of shares that received a "FolderCompletion" event
+     * in the meantime, which must not be overwritten by an older response.
+     */
+    private final Queue<Map<String, String>> mPendingCompletionRequests = new ArrayDeque<>();
+    private final Map<String, ApiRequest> mRunningCompletionRequests = new HashMap<>();
+    private final Set<String> mCompletionUpdatedByEvent = new HashSet<>();
+
+    /**
+     * State of {@link #bootstrapFolderStatuses}, only accessed on the main thread, like the
+     * state of {@link #bootstrapCompletion}, keyed by folder id.
+     */
+    private final Queue<String> mPendingFolderStatusRequests = new ArrayDeque<>();
+    private final Map<String, ApiRequest> mRunningFolderStatusRequests = new HashMap<>();
+    private final Set<String> mFolderStatusUpdatedByEvent = new HashSet<>();
+
     @Inject NotificationHandler mNotificationHandler;
+    @Inject EventBus mEventBus;
+    @Inject ThroughputStore mThroughputStore;
+
+    private final EventBus.Subscriber mFolderSummarySubscriber = this::onFolderSummary;
+    private final EventBus.Subscriber mStateChangedSubscriber = this::onFolderStateChanged;
+    private final EventBus.Subscriber mConnectionSubscriber = this::onConnectionEvent;
+    private final EventBus.OnEventsMissedListener mEventsMissedListener = this::onEventsMissed;
 
     public RestApi(Context context, URL url, String apiKey, OnApiAvailableListener apiListener,
                    OnConfigChangedListener configListener) {
@@ -149,6 +349,15 @@ public class RestApi {
         mApiKey = apiKey;
         mOnApiAvailableListener = apiListener;
         mOnConfigChangedListener = configListener;
+
+        mEventBus.subscribe(mFolderSummarySubscriber, EventBus.ThreadMode.MAIN,
+                Event.TYPE_FOLDER_SUMMARY);
+        mEventBus.subscribe(mStateChangedSubscriber, EventBus.ThreadMode.MAIN,
+                Event.TYPE_STATE_CHANGED);
+        mEventBus.subscribe(mConnectionSubscriber, EventBus.ThreadMode.MAIN,
+                Event.TYPE_DEVICE_CONNECTED, Event.TYPE_DEVICE_DISCONNECTED,
+                Event.TYPE_DEVICE_PAUSED, Event.TYPE_DEVICE_RESUMED);
+        mEventBus.registerOnEventsMissedListener(mEventsMissedListener);
     }
 
     public interface OnApiAvailableListener {
@@ -179,16 +388,23 @@ public class RestApi {
                 checkReadConfigFromRestApiCompleted();
             }
         });
-        new GetRequest(mContext, mUrl, GetRequest.URI_CONFIG, mApiKey, null, result -> {
-            onReloadConfigComplete(result);
+        new GetRequest(mContext, mUrl, GetRequest.URI_CONFIG, mApiKey, null,
+                RestApi::parseConfig, config -> {
+            onReloadConfigComplete(config);
             synchronized (mAsyncQueryCompleteLock) {
                 asyncQueryConfigComplete = true;
                 checkReadConfigFromRestApiCompleted();
             }
-        });
+        }, null);
         getSystemInfo(info -> {
             mLocalDeviceId = info.myID;
             mUrVersionMax = info.urVersionMax;
+            synchronized (mConfigLock) {
+                // The local device may only be identified now that its ID is known.
+                if (mConfigSnapshot != null) {
+                    mConfigSnapshot = new ConfigSnapshot(mConfigSnapshot.config, mLocalDeviceId);
+                }
+            }
             synchronized (mAsyncQueryCompleteLock) {
                 asyncQuerySystemInfoComplete = true;
                 checkReadConfigFromRestApiCompleted();
@@ -200,30 +416,199 @@ public class RestApi {
         if (asyncQueryVersionComplete && asyncQueryConfigComplete && asyncQuerySystemInfoComplete) {
             Log.v(TAG, "Reading config from REST completed.");
             mOnApiAvailableListener.onApiAvailable();
+            bootstrapCompletion();
+            bootstrapFolderStatuses();
+        }
+    }
+
+    /**
+     * Fetches the completion of every folder on every remote device it is shared with, as
+     * {@link #mCompletion} is otherwise only filled by "FolderCompletion" events, which are
+     * not sent before something changes. At most {@link #COMPLETION_BOOTSTRAP_CONCURRENCY}
+     * requests run at the same time. Stopped by {@link #shutdown}.
+     */
+    private void bootstrapCompletion() {
+        cancelCompletionBootstrap();
+        for (Map.Entry<String, String> share : mConfigSnapshot.deviceFolderIds.entries()) {
+            if (share.getKey().equals(mLocalDeviceId)) {
+                continue;
+            }
+            mPendingCompletionRequests.add(
+                    ImmutableMap.of("device", share.getKey(), "folder", share.getValue()));
+        }
+        Log.v(TAG, "Fetching completion of " + mPendingCompletionRequests.size() + " shares");
+        for (int i = 0; i < COMPLETION_BOOTSTRAP_CONCURRENCY; i++) {
+            fetchNextCompletion();
         }
     }
 
+    private void fetchNextCompletion() {
+        Map<String, String> params = mPendingCompletionRequests.poll();
+        if (params == null) {
+            if (mRunningCompletionRequests.isEmpty()) {
+                mCompletionUpdatedByEvent.clear();
+            }
+            return;
+        }
+        String deviceId = params.get("device");
+        String folderId = params.get("folder");
+        String key = getCompletionKey(deviceId, folderId);
+        mRunningCompletionRequests.put(key, new GetRequest(mContext, mUrl,
+                GetRequest.URI_COMPLETION, mApiKey, params, ApiRequest.Priority.BULK, null,
+                result -> {
+            mRunningCompletionRequests.remove(key);
+            if (!mCompletionUpdatedByEvent.contains(key)) {
+                mCompletion.setCompletionInfo(deviceId, folderId,
+                        GSON.fromJson(result, CompletionInfo.class));
+            }
+            fetchNextCompletion();
+        }, error -> {
+            mRunningCompletionRequests.remove(key);
+            Log.w(TAG, "Failed to fetch completion of folder '" + folderId +
+                    "' on device '" + deviceId + "': " + error.getMessage());
+            fetchNextCompletion();
+        }));
+    }
+
+    private void cancelCompletionBootstrap() {
+        mPendingCompletionRequests.clear();
+        for (ApiRequest request : mRunningCompletionRequests.values()) {
+            request.cancel();
+        }
+        mRunningCompletionRequests.clear();
+        mCompletionUpdatedByEvent.clear();
+    }
+
+    /**
+     * Fetches the status of every folder once, as {@link #mCachedFolderStatuses} is otherwise
+     * only filled by "FolderSummary" events, which are not sent before something changes. At
+     * most {@link #FOLDER_STATUS_BOOTSTRAP_CONCURRENCY} requests run at the same time.
+     * Stopped by {@link #shutdown}.
+     */
+    private void bootstrapFolderStatuses() {
+        cancelFolderStatusBootstrap();
+        for (Folder folder : getFolders()) {
+            mPendingFolderStatusRequests.add(folder.id);
+        }
+        Log.v(TAG, "Fetching status of " + mPendingFolderStatusRequests.size() + " folders");
+        for (int i = 0; i < FOLDER_STATUS_BOOTSTRAP_CONCURRENCY; i++) {
+            fetchNextFolderStatus();
+        }
+    }
+
+    private void fetchNextFolderStatus() {
+        String folderId = mPendingFolderStatusRequests.poll();
+        if (folderId == null) {
+            if (mRunningFolderStatusRequests.isEmpty()) {
+                mFolderStatusUpdatedByEvent.clear();
+            }
+            return;
+        }
+        if (mFolderStatusUpdatedByEvent.contains(folderId)) {
+            fetchNextFolderStatus();
+            return;
+        }
+        mRunningFolderStatusRequests.put(folderId, new GetRequest(mContext, mUrl,
+                GetRequest.URI_STATUS, mApiKey, ImmutableMap.of("folder", folderId),
+                ApiRequest.Priority.BULK, null, result -> {
+            mRunningFolderStatusRequests.remove(folderId);
+            if (!mFolderStatusUpdatedByEvent.contains(folderId)) {
+                mCachedFolderStatuses.put(folderId, GSON.fromJson(result, FolderStatus.class));
+            }
+            fetchNextFolderStatus();
+        }, error -> {
+            mRunningFolderStatusRequests.remove(folderId);
+            Log.w(TAG, "Failed to fetch status of folder '" + folderId + "': " +
+                    error.getMessage());
+            fetchNextFolderStatus();
+        }));
+    }
+
+    private void cancelFolderStatusBootstrap() {
+        mPendingFolderStatusRequests.clear();
+        for (ApiRequest request : mRunningFolderStatusRequests.values()) {
+            request.cancel();
+        }
+        mRunningFolderStatusRequests.clear();
+        mFolderStatusUpdatedByEvent.clear();
+    }
+
+    private static String getCompletionKey(String deviceId, String folderId) {
+        return deviceId + "/" + folderId;
+    }
+
+    /**
+     * Reloads the config from Syncthing. If a reload is already running, one more reload is
+     * done after it finished, so a burst of "ConfigSaved" events only causes two requests.
+     */
     public void reloadConfig() {
-        new GetRequest(mContext, mUrl, GetRequest.URI_CONFIG, mApiKey, null, this::onReloadConfigComplete);
+        synchronized (mConfigLock) {
+            if (mReloadConfigRunning) {
+                mReloadConfigAgain = true;
+                return;
+            }
+            mReloadConfigRunning = true;
+        }
+        new GetRequest(mContext, mUrl, GetRequest.URI_CONFIG, mApiKey, null,
+                RestApi::parseConfig, config -> {
+            onReloadConfigComplete(config);
+            onReloadConfigFinished();
+        }, error -> {
+            Log.w(TAG, "reloadConfig: Failed to reload config", error);
+            onReloadConfigFinished();
+        });
     }
 
-    private void onReloadConfigComplete(String result) {
-        Boolean configParseSuccess;
-        synchronized(mConfigLock) {
-            mConfig = new Gson().fromJson(result, Config.class);
-            configParseSuccess = mConfig != null;
+    private void onReloadConfigFinished() {
+        boolean reloadAgain;
+        synchronized (mConfigLock) {
+            mReloadConfigRunning = false;
+            reloadAgain = mReloadConfigAgain;
+            mReloadConfigAgain = false;
         }
-        if (!configParseSuccess) {
-            throw new RuntimeException("config is null: " + result);
+        if (reloadAgain) {
+            reloadConfig();
         }
-        Log.v(TAG, "onReloadConfigComplete: Successfully parsed configuration.");
-        if (BuildConfig.DEBUG) {
-            Log.v(TAG, "mConfig.pendingDevices = " + new Gson().toJson(mConfig.pendingDevices));
-            Log.v(TAG, "mConfig.remoteIgnoredDevices = " + new Gson().toJson(mConfig.remoteIgnoredDevices));
+    }
+
+    /**
+     * Parses the config while it is received, on a network thread.
+     */
+    private static Config parseConfig(Reader body) {
+        Config config = GSON.fromJson(body, Config.class);
+        if (config == null) {
+            throw new JsonSyntaxException("config is empty");
         }
+        return config;
+    }
+
+    private void onReloadConfigComplete(Config config) {
+        boolean traced = Tracer.begin("RestApi.onReloadConfigComplete");
+        try {
+            synchronized (mConfigLock) {
+                if (!mUnsentConfigEdits.isEmpty()) {
+                    // Keep local changes. Sending them results in another "ConfigSaved" event.
+                    Log.v(TAG, "onReloadConfigComplete: Applying " + mUnsentConfigEdits.size() +
+                            " unsent local change(s) to the reloaded config.");
+                    config = ConfigSnapshot.copyConfig(config);
+                    for (UnsentConfigEdit unsent : mUnsentConfigEdits) {
+                        unsent.edit.apply(config);
+                    }
+                }
+                mConfigSnapshot = new ConfigSnapshot(config, mLocalDeviceId);
+            }
+            Log.v(TAG, "onReloadConfigComplete: Successfully parsed configuration.");
+            if (BuildConfig.DEBUG) {
+                Log.v(TAG, "config.pendingDevices = " + GSON.toJson(config.pendingDevices));
+                Log.v(TAG, "config.remoteIgnoredDevices = " + GSON.toJson(config.remoteIgnoredDevices));
+            }
 
-        // Update cached device and folder information stored in the mCompletion model.
-        mCompletion.updateFromConfig(getDevices(true), getFolders());
+            // Update cached device and folder information stored in the mCompletion model.
+            ConfigSnapshot snapshot = mConfigSnapshot;
+            mCompletion.updateFromConfig(snapshot.devices, snapshot.deviceFolderIds);
+        } finally {
+            Tracer.end(traced);
+        }
     }
 
     /**
@@ -267,37 +652,49 @@ public class RestApi {
      */
     public void ignoreDevice(String deviceId) {
         synchronized (mConfigLock) {
-            // Check if the device has already been ignored.
-            for (RemoteIgnoredDevice remoteIgnoredDevice : mConfig.remoteIgnoredDevices) {
-                if (deviceId.equals(remoteIgnoredDevice.deviceID)) {
-                    // Device already ignored.
-                    Log.d(TAG, "Device already ignored [" + deviceId + "]");
-                    return;
-                }
+            Config config = mConfigSnapshot.copyConfig();
+            if (!ignoreDeviceInternal(config, deviceId)) {
+                // Device already ignored.
+                Log.d(TAG, "Device already ignored [" + deviceId + "]");
+                return;
             }
+            commitConfig(config);
+            queueConfig(c -> ignoreDeviceInternal(c, deviceId));
+            Log.d(TAG, "Ignored device [" + deviceId + "]");
+        }
+    }
 
-            /**
-             * Ignore device by moving its corresponding "pendingDevice" entry to
-             * a newly created "remotePendingDevice" entry.
-             */
-            RemoteIgnoredDevice remoteIgnoredDevice = new RemoteIgnoredDevice();
-            remoteIgnoredDevice.deviceID = deviceId;
-            Iterator<PendingDevice> it = mConfig.pendingDevices.iterator();
-            while (it.hasNext()) {
-                PendingDevice pendingDevice = it.next();
-                if (deviceId.equals(pendingDevice.deviceID)) {
-                    // Move over information stored in the "pendingDevice" entry.
-                    remoteIgnoredDevice.address = pendingDevice.address;
-                    remoteIgnoredDevice.name = pendingDevice.name;
-                    remoteIgnoredDevice.time = pendingDevice.time;
-                    it.remove();
-                    break;
-                }
+    /**
+     * Returns false if the device is already ignored in config.
+     */
+    private static boolean ignoreDeviceInternal(Config config, String deviceId) {
+        // Check if the device has already been ignored.
+        for (RemoteIgnoredDevice remoteIgnoredDevice : config.remoteIgnoredDevices) {
+            if (deviceId.equals(remoteIgnoredDevice.deviceID)) {
+                return false;
             }
-            mConfig.remoteIgnoredDevices.add(remoteIgnoredDevice);
-            sendConfig();
-            Log.d(TAG, "Ignored device [" + deviceId + "]");
         }
+
+        /**
+         * Ignore device by moving its corresponding "pendingDevice" entry to
+         * a newly created "remotePendingDevice" entry.
+         */
+        RemoteIgnoredDevice remoteIgnoredDevice = new RemoteIgnoredDevice();
+        remoteIgnoredDevice.deviceID = deviceId;
+        Iterator<PendingDevice> it = config.pendingDevices.iterator();
+        while (it.hasNext()) {
+            PendingDevice pendingDevice = it.next();
+            if (deviceId.equals(pendingDevice.deviceID)) {
+                // Move over information stored in the "pendingDevice" entry.
+                remoteIgnoredDevice.address = pendingDevice.address;
+                remoteIgnoredDevice.name = pendingDevice.name;
+                remoteIgnoredDevice.time = pendingDevice.time;
+                it.remove();
+                break;
+            }
+        }
+        config.remoteIgnoredDevices.add(remoteIgnoredDevice);
+        return true;
     }
 
     /**
@@ -307,61 +704,73 @@ public class RestApi {
      */
     public void ignoreFolder(String deviceId, String folderId) {
         synchronized (mConfigLock) {
-            for (Device device : mConfig.devices) {
-                if (deviceId.equals(device.deviceID)) {
-                    /**
-                     * Check if the folder has already been ignored.
-                     */
-                    for (IgnoredFolder ignoredFolder : device.ignoredFolders) {
-                        if (folderId.equals(ignoredFolder.id)) {
-                            // Folder already ignored.
-                            Log.d(TAG, "Folder [" + folderId + "] already ignored on device [" + deviceId + "]");
-                            return;
-                        }
-                    }
+            Device device = mConfigSnapshot.devicesById.get(deviceId);
+            if (device == null) {
+                return;
+            }
 
-                    /**
-                     * Ignore folder by moving its corresponding "pendingFolder" entry to
-                     * a newly created "ignoredFolder" entry.
-                     */
-                    IgnoredFolder ignoredFolder = new IgnoredFolder();
-                    ignoredFolder.id = folderId;
-                    Iterator<PendingFolder> it = device.pendingFolders.iterator();
-                    while (it.hasNext()) {
-                        PendingFolder pendingFolder = it.next();
-                        if (folderId.equals(pendingFolder.id)) {
-                            // Move over information stored in the "pendingFolder" entry.
-                            ignoredFolder.label = pendingFolder.label;
-                            ignoredFolder.time = pendingFolder.time;
-                            it.remove();
-                            break;
-                        }
-                    }
-                    device.ignoredFolders.add(ignoredFolder);
-                    if (BuildConfig.DEBUG) {
-                        Log.v(TAG, "device.pendingFolders = " + new Gson().toJson(device.pendingFolders));
-                        Log.v(TAG, "device.ignoredFolders = " + new Gson().toJson(device.ignoredFolders));
-                    }
-                    sendConfig();
-                    Log.d(TAG, "Ignored folder [" + folderId + "] announced by device [" + deviceId + "]");
+            /**
+             * Check if the folder has already been ignored.
+             */
+            for (IgnoredFolder ignoredFolder : device.ignoredFolders) {
+                if (folderId.equals(ignoredFolder.id)) {
+                    // Folder already ignored.
+                    Log.d(TAG, "Folder [" + folderId + "] already ignored on device [" + deviceId + "]");
+                    return;
+                }
+            }
 
-                    // Given deviceId handled.
+            /**
+             * Ignore folder by moving its corresponding "pendingFolder" entry to
+             * a newly created "ignoredFolder" entry.
+             */
+            Config config = mConfigSnapshot.copyConfig();
+            int deviceIndex = config.devices.indexOf(device);
+            IgnoredFolder ignoredFolder = new IgnoredFolder();
+            ignoredFolder.id = folderId;
+            device = deepCopy(device, Device.class);
+            Iterator<PendingFolder> it = device.pendingFolders.iterator();
+            while (it.hasNext()) {
+                PendingFolder pendingFolder = it.next();
+                if (folderId.equals(pendingFolder.id)) {
+                    // Move over information stored in the "pendingFolder" entry.
+                    ignoredFolder.label = pendingFolder.label;
+                    ignoredFolder.time = pendingFolder.time;
+                    it.remove();
                     break;
                 }
             }
+            device.ignoredFolders.add(ignoredFolder);
+            config.devices.set(deviceIndex, device);
+            if (BuildConfig.DEBUG) {
+                Log.v(TAG, "device.pendingFolders = " + GSON.toJson(device.pendingFolders));
+                Log.v(TAG, "device.ignoredFolders = " + GSON.toJson(device.ignoredFolders));
+            }
+            commitConfig(config);
+            queueConfigObject(ConfigObjectRequest.URI_CONFIG_DEVICES + device.deviceID, device);
+            Log.d(TAG, "Ignored folder [" + folderId + "] announced by device [" + deviceId + "]");
         }
     }
 
     /**
-     * Undo ignoring devices and folders.
+     * Undo ignoring devices and folders. Sent with the next full config, see
+     * {@link #saveConfigAndRestart}.
      */
     public void undoIgnoredDevicesAndFolders() {
         Log.d(TAG, "Undo ignoring devices and folders ...");
-        synchronized (mConfigLock) {
-            mConfig.remoteIgnoredDevices.clear();
-            for (Device device : mConfig.devices) {
+        ConfigEdit edit = config -> {
+            config.remoteIgnoredDevices.clear();
+            for (int i = 0; i < config.devices.size(); i++) {
+                Device device = deepCopy(config.devices.get(i), Device.class);
                 device.ignoredFolders.clear();
+                config.devices.set(i, device);
             }
+        };
+        synchronized (mConfigLock) {
+            Config config = mConfigSnapshot.copyConfig();
+            edit.apply(config);
+            commitConfig(config);
+            mUnsentConfigEdits.add(new UnsentConfigEdit(null, edit));
         }
     }
 
@@ -375,27 +784,241 @@ public class RestApi {
             ImmutableMap.of("folder", folderId), null);
     }
 
+    /**
+     * Replaces the current config snapshot by the given config.
+     * The config must not be modified afterwards.
+     */
+    private void commitConfig(Config config) {
+        synchronized (mConfigLock) {
+            mConfigSnapshot = new ConfigSnapshot(config, mLocalDeviceId);
+        }
+    }
+
+    /**
+     * Queues sending the current config to Syncthing, see {@link #scheduleSendQueuedConfig}.
+     *
+     * @param edit The change that was made, see {@link #mUnsentConfigEdits}.
+     */
+    private void queueConfig(ConfigEdit edit) {
+        synchronized (mConfigLock) {
+            mUnsentConfigEdits.add(new UnsentConfigEdit(null, edit));
+            mQueuedFullConfig = true;
+            scheduleSendQueuedConfig();
+        }
+    }
+
+    /**
+     * Queues sending a single changed config object to Syncthing,
+     * see {@link #scheduleSendQueuedConfig}.
+     *
+     * @param path   Path of the object, see {@link ConfigObjectRequest}.
+     * @param object The changed object, or null if it was removed.
+     */
+    private void queueConfigObject(String path, @Nullable Object object) {
+        synchronized (mConfigLock) {
+            mQueuedConfigObjects.put(path, object);
+            mUnsentConfigEdits.add(new UnsentConfigEdit(path,
+                    config -> applyConfigObject(config, path, object)));
+            scheduleSendQueuedConfig();
+        }
+    }
+
+    /**
+     * Replaces the object at path in config, or removes it if object is null.
+     */
+    private static void applyConfigObject(Config config, String path, @Nullable Object object) {
+        if (path.startsWith(ConfigObjectRequest.URI_CONFIG_FOLDERS)) {
+            String id = path.substring(ConfigObjectRequest.URI_CONFIG_FOLDERS.length());
+            Iterator<Folder> it = config.folders.iterator();
+            while (it.hasNext()) {
+                if (id.equals(it.next().id)) {
+                    it.remove();
+                }
+            }
+            if (object != null) {
+                config.folders.add((Folder) object);
+            }
+        } else if (path.startsWith(ConfigObjectRequest.URI_CONFIG_DEVICES)) {
+            String id = path.substring(ConfigObjectRequest.URI_CONFIG_DEVICES.length());
+            Iterator<Device> it = config.devices.iterator();
+            while (it.hasNext()) {
+                if (id.equals(it.next().deviceID)) {
+                    it.remove();
+                }
+            }
+            if (object != null) {
+                config.devices.add((Device) object);
+            }
+        }
+    }
+
+    /**
+     * Sends queued config changes after {@link #SEND_CONFIG_DELAY}, unless a config
+     * transaction is open. Every further change restarts the delay.
+     */
+    private void scheduleSendQueuedConfig() {
+        synchronized (mConfigLock) {
+            if (mConfigTransactionDepth > 0) {
+                return;
+            }
+            mHandler.removeCallbacks(mSendQueuedConfigRunnable);
+            mHandler.postDelayed(mSendQueuedConfigRunnable, SEND_CONFIG_DELAY);
+        }
+    }
+
+    /**
+     * Sends all queued config changes. Up to {@link #CONFIG_OBJECT_REQUESTS_MAX} changed
+     * objects are sent on their own, more changes are combined into one request containing
+     * the full config.
+     */
+    private void sendQueuedConfig() {
+        synchronized (mConfigLock) {
+            mHandler.removeCallbacks(mSendQueuedConfigRunnable);
+            if (mQueuedFullConfig || mQueuedConfigObjects.size() > CONFIG_OBJECT_REQUESTS_MAX ||
+                    (!mQueuedConfigObjects.isEmpty() && !isConfigObjectApiSupported())) {
+                Log.v(TAG, "sendQueuedConfig: Sending full config for " +
+                        mQueuedConfigObjects.size() + " queued object(s)");
+                sendConfig();
+                // The full config contains all local changes.
+                mUnsentConfigEdits.clear();
+            } else {
+                for (Map.Entry<String, Object> entry : mQueuedConfigObjects.entrySet()) {
+                    sendConfigObject(entry.getKey(), entry.getValue());
+                }
+                Iterator<UnsentConfigEdit> it = mUnsentConfigEdits.iterator();
+                while (it.hasNext()) {
+                    if (it.next().path != null) {
+                        it.remove();
+                    }
+                }
+            }
+            mQueuedFullConfig = false;
+            mQueuedConfigObjects.clear();
+        }
+    }
+
+    /**
+     * Starts collecting config changes instead of sending them to Syncthing until the
+     * matching {@link #commitConfigTransaction}, so that multi-step edits are sent as one
+     * request and cause a single config reload. Transactions may be nested.
+     */
+    public void beginConfigTransaction() {
+        synchronized (mConfigLock) {
+            mConfigTransactionDepth++;
+            mHandler.removeCallbacks(mSendQueuedConfigRunnable);
+        }
+    }
+
+    /**
+     * Ends a transaction started by {@link #beginConfigTransaction}. Closing the outermost
+     * transaction immediately sends all changes made since it was opened.
+     */
+    public void commitConfigTransaction() {
+        synchronized (mConfigLock) {
+            if (mConfigTransactionDepth == 0) {
+                Log.w(TAG, "commitConfigTransaction: No transaction open.");
+                return;
+            }
+            mConfigTransactionDepth--;
+            if (mConfigTransactionDepth == 0) {
+                sendQueuedConfig();
+            }
+        }
+    }
+
     /**
      * Sends current config to Syncthing.
      * Will result in a "ConfigSaved" event.
      * EventProcessor will trigger this.reloadConfig().
      */
     private void sendConfig() {
-        String jsonConfig;
-        synchronized (mConfigLock) {
-            jsonConfig = new Gson().toJson(mConfig);
-        }
-        new PostConfigRequest(mContext, mUrl, mApiKey, jsonConfig, null);
+        new PostConfigRequest(mContext, mUrl, mApiKey, toJsonWriter(mConfigSnapshot.config), null);
         mOnConfigChangedListener.onConfigChanged();
     }
 
+    /**
+     * Sends a single changed config object to Syncthing instead of the whole config.
+     * The running binary must offer the granular config endpoints, see
+     * {@link #isConfigObjectApiSupported}. If the request fails, the full config is queued,
+     * so several failed objects cause one request.
+     * Will result in a "ConfigSaved" event like {@link #sendConfig}.
+     *
+     * @param path   Path of the object, see {@link ConfigObjectRequest}.
+     * @param object The changed object, or null if it was removed.
+     */
+    private void sendConfigObject(String path, @Nullable Object object) {
+        byte[] jsonObject = (object != null) ? toJsonBytes(object) : null;
+        new ConfigObjectRequest(mContext, mUrl, path, mApiKey, jsonObject, null, error -> {
+            Log.w(TAG, "sendConfigObject: Failed to send " + path + ", sending full config instead", error);
+            queueConfig(config -> applyConfigObject(config, path, object));
+        });
+        mOnConfigChangedListener.onConfigChanged();
+    }
+
+    /**
+     * Returns true if the running syncthing binary offers the granular config endpoints
+     * used by {@link ConfigObjectRequest}, which were added in v1.12.0.
+     */
+    private boolean isConfigObjectApiSupported() {
+        if (mVersion == null) {
+            return false;
+        }
+        Matcher matcher = VERSION_PATTERN.matcher(mVersion);
+        if (!matcher.find()) {
+            return false;
+        }
+        int major = Integer.parseInt(matcher.group(1));
+        int minor = Integer.parseInt(matcher.group(2));
+        return major > 1 || (major == 1 && minor >= 12);
+    }
+
+    /**
+     * Serializes the object directly to UTF-8 encoded JSON, without building a String first.
+     */
+    private static byte[] toJsonBytes(Object object) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Writer writer = new OutputStreamWriter(out, Charsets.UTF_8);
+        GSON.toJson(object, writer);
+        try {
+            writer.close();
+        } catch (IOException e) {
+            throw new JsonIOException(e);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Returns a writer that serializes the object as UTF-8 encoded JSON directly to the
+     * request, so a large config is never held in memory as a whole.
+     */
+    private static ApiRequest.BodyWriter toJsonWriter(Object object) {
+        return out -> {
+            Writer writer = new OutputStreamWriter(out, Charsets.UTF_8);
+            try {
+                GSON.toJson(object, writer);
+            } catch (JsonIOException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw e;
+            }
+            // Not closed, the stream belongs to the connection.
+            writer.flush();
+        };
+    }
+
     /**
      * Sends current config and restarts Syncthing.
      */
     public void saveConfigAndRestart() {
-        String jsonConfig;
+        ApiRequest.BodyWriter jsonConfig;
         synchronized (mConfigLock) {
-            jsonConfig = new Gson().toJson(mConfig);
+            // The full config contains all queued changes.
+            mHandler.removeCallbacks(mSendQueuedConfigRunnable);
+            mQueuedFullConfig = false;
+            mQueuedConfigObjects.clear();
+            mUnsentConfigEdits.clear();
+            jsonConfig = toJsonWriter(mConfigSnapshot.config);
         }
         new PostConfigRequest(mContext, mUrl, mApiKey, jsonConfig, result -> {
             Intent intent = new Intent(mContext, SyncthingService.class)
@@ -406,7 +1029,16 @@ public class RestApi {
     }
 
     public void shutdown() {
+        mEventBus.unsubscribe(mFolderSummarySubscriber);
+        mEventBus.unsubscribe(mStateChangedSubscriber);
+        mEventBus.unsubscribe(mConnectionSubscriber);
+        mEventBus.unregisterOnEventsMissedListener(mEventsMissedListener);
+        mHandler.removeCallbacks(mResyncFolderStatusesRunnable);
+        cancelCompletionBootstrap();
+        cancelFolderStatusBootstrap();
         mNotificationHandler.cancelRestartNotification();
+        // Don't lose changes that are still waiting for the send delay.
+        sendQueuedConfig();
     }
 
     /**
@@ -416,13 +1048,31 @@ public class RestApi {
         return mVersion;
     }
 
+    /**
+     * Returns all folders sorted by label.
+     *
+     * The returned list and folders are shared with other callers and must not be modified.
+     * Use {@link #deepCopy} to obtain a folder that can be edited and passed to
+     * {@link #updateFolder}.
+     */
     public List<Folder> getFolders() {
-        List<Folder> folders;
-        synchronized (mConfigLock) {
-            folders = deepCopy(mConfig.folders, new TypeToken<List<Folder>>(){}.getType());
-        }
-        Collections.sort(folders, FOLDERS_COMPARATOR);
-        return folders;
+        return mConfigSnapshot.folders;
+    }
+
+    /**
+     * Returns the folder with the given ID or null if it does not exist.
+     *
+     * The returned folder is shared with other callers and must not be modified.
+     */
+    public @Nullable Folder getFolder(String folderId) {
+        return mConfigSnapshot.foldersById.get(folderId);
+    }
+
+    /**
+     * Returns the IDs of all devices the given folder is shared with.
+     */
+    public Set<String> getFolderDeviceIds(String folderId) {
+        return mConfigSnapshot.folderDeviceIds.get(folderId);
     }
 
     /**
@@ -431,25 +1081,33 @@ public class RestApi {
     public void createFolder(Folder folder) {
         synchronized (mConfigLock) {
             // Add the new folder to the model.
-            mConfig.folders.add(folder);
+            Config config = mConfigSnapshot.copyConfig();
+            Folder newFolder = deepCopy(folder, Folder.class);
+            config.folders.add(newFolder);
+            commitConfig(config);
             // Send model changes to syncthing, does not require a restart.
-            sendConfig();
+            queueConfigObject(ConfigObjectRequest.URI_CONFIG_FOLDERS + newFolder.id, newFolder);
         }
     }
 
     public void updateFolder(Folder newFolder) {
         synchronized (mConfigLock) {
-            removeFolderInternal(newFolder.id);
-            mConfig.folders.add(newFolder);
-            sendConfig();
+            Config config = mConfigSnapshot.copyConfig();
+            removeFolderInternal(config, newFolder.id);
+            Folder folder = deepCopy(newFolder, Folder.class);
+            config.folders.add(folder);
+            commitConfig(config);
+            queueConfigObject(ConfigObjectRequest.URI_CONFIG_FOLDERS + folder.id, folder);
         }
     }
 
     public void removeFolder(String id) {
         synchronized (mConfigLock) {
-            removeFolderInternal(id);
+            Config config = mConfigSnapshot.copyConfig();
+            removeFolderInternal(config, id);
+            commitConfig(config);
             // mCompletion will be updated after the ConfigSaved event.
-            sendConfig();
+            queueConfigObject(ConfigObjectRequest.URI_CONFIG_FOLDERS + id, null);
             // Remove saved data from share activity for this folder.
         }
         PreferenceManager.getDefaultSharedPreferences(mContext).edit()
@@ -457,201 +1115,524 @@ public class RestApi {
                 .apply();
     }
 
-    private void removeFolderInternal(String id) {
-        synchronized (mConfigLock) {
-            Iterator<Folder> it = mConfig.folders.iterator();
-            while (it.hasNext()) {
-                Folder f = it.next();
-                if (f.id.equals(id)) {
-                    it.remove();
-                    break;
-                }
-            }
+    private void removeFolderInternal(Config config, String id) {
+        Folder folder = mConfigSnapshot.foldersById.get(id);
+        if (folder != null) {
+            config.folders.remove(folder);
         }
     }
 
     /**
      * Returns a list of all existing devices.
      *
+     * The returned list and devices are shared with other callers and must not be modified.
+     * Use {@link #deepCopy} to obtain a device that can be edited and passed to
+     * {@link #editDevice}.
+     *
      * @param includeLocal True if the local device should be included in the result.
      */
     public List<Device> getDevices(boolean includeLocal) {
-        List<Device> devices;
-        synchronized (mConfigLock) {
-            devices = deepCopy(mConfig.devices, new TypeToken<List<Device>>(){}.getType());
-        }
+        ConfigSnapshot snapshot = mConfigSnapshot;
+        return includeLocal ? snapshot.devices : snapshot.remoteDevices;
+    }
 
-        Iterator<Device> it = devices.iterator();
-        while (it.hasNext()) {
-            Device device = it.next();
-            boolean isLocalDevice = Objects.equal(mLocalDeviceId, device.deviceID);
-            if (!includeLocal && isLocalDevice) {
-                it.remove();
-                break;
-            }
-        }
-        return devices;
+    /**
+     * Returns the device with the given ID or null if it does not exist.
+     *
+     * The returned device is shared with other callers and must not be modified.
+     */
+    public @Nullable Device getDevice(String deviceId) {
+        return mConfigSnapshot.devicesById.get(deviceId);
     }
 
+    /**
+     * Returns the IDs of all folders shared with the given device.
+     */
+    public Set<String> getDeviceFolderIds(String deviceId) {
+        return mConfigSnapshot.deviceFolderIds.get(deviceId);
+    }
+
+    /**
+     * Returns the local device, which is shared with other callers and must not be modified.
+     */
     public Device getLocalDevice() {
-        List<Device> devices = getDevices(true);
-        if (devices.isEmpty()) {
+        ConfigSnapshot snapshot = mConfigSnapshot;
+        if (snapshot.devices.isEmpty()) {
             throw new RuntimeException("RestApi.getLocalDevice: devices is empty.");
         }
         Log.v(TAG, "getLocalDevice: Looking for local device ID " + mLocalDeviceId);
-        for (Device d : devices) {
-            if (d.deviceID.equals(mLocalDeviceId)) {
-                return deepCopy(d, Device.class);
-            }
+        if (snapshot.localDevice == null) {
+            throw new RuntimeException("RestApi.getLocalDevice: Failed to get the local device crucial to continuing execution.");
         }
-        throw new RuntimeException("RestApi.getLocalDevice: Failed to get the local device crucial to continuing execution.");
+        return snapshot.localDevice;
     }
 
     public void addDevice(Device device, OnResultListener1<String> errorListener) {
+        Device newDevice = deepCopy(device, Device.class);
         normalizeDeviceId(device.deviceID, normalizedId -> {
             synchronized (mConfigLock) {
-                mConfig.devices.add(device);
-                sendConfig();
+                Config config = mConfigSnapshot.copyConfig();
+                config.devices.add(newDevice);
+                commitConfig(config);
+                queueConfigObject(ConfigObjectRequest.URI_CONFIG_DEVICES + newDevice.deviceID, newDevice);
             }
         }, errorListener);
     }
 
     public void editDevice(Device newDevice) {
         synchronized (mConfigLock) {
-            removeDeviceInternal(newDevice.deviceID);
-            mConfig.devices.add(newDevice);
-            sendConfig();
+            Config config = mConfigSnapshot.copyConfig();
+            removeDeviceInternal(config, newDevice.deviceID);
+            Device device = deepCopy(newDevice, Device.class);
+            config.devices.add(device);
+            commitConfig(config);
+            queueConfigObject(ConfigObjectRequest.URI_CONFIG_DEVICES + device.deviceID, device);
         }
     }
 
     public void removeDevice(String deviceId) {
         synchronized (mConfigLock) {
-            removeDeviceInternal(deviceId);
+            Config config = mConfigSnapshot.copyConfig();
+            removeDeviceInternal(config, deviceId);
+            commitConfig(config);
             // mCompletion will be updated after the ConfigSaved event.
-            sendConfig();
+            queueConfigObject(ConfigObjectRequest.URI_CONFIG_DEVICES + deviceId, null);
         }
     }
 
-    private void removeDeviceInternal(String deviceId) {
-        synchronized (mConfigLock) {
-            Iterator<Device> it = mConfig.devices.iterator();
-            while (it.hasNext()) {
-                Device d = it.next();
-                if (d.deviceID.equals(deviceId)) {
-                    it.remove();
-                    break;
-                }
-            }
+    private void removeDeviceInternal(Config config, String deviceId) {
+        Device device = mConfigSnapshot.devicesById.get(deviceId);
+        if (device != null) {
+            config.devices.remove(device);
         }
     }
 
+    /**
+     * Returns the options, which are shared with other callers and must not be modified.
+     */
     public Options getOptions() {
-        synchronized (mConfigLock) {
-            return deepCopy(mConfig.options, Options.class);
-        }
+        return mConfigSnapshot.config.options;
     }
 
+    /**
+     * Returns the GUI config, which is shared with other callers and must not be modified.
+     */
     public Config.Gui getGui() {
-        synchronized (mConfigLock) {
-            return deepCopy(mConfig.gui, Config.Gui.class);
-        }
+        return mConfigSnapshot.config.gui;
     }
 
+    /**
+     * Replaces GUI and options. Sent with the next full config, see
+     * {@link #saveConfigAndRestart}.
+     */
     public void editSettings(Config.Gui newGui, Options newOptions) {
+        Config.Gui gui = deepCopy(newGui, Config.Gui.class);
+        Options options = deepCopy(newOptions, Options.class);
+        ConfigEdit edit = config -> {
+            config.gui = gui;
+            config.options = options;
+        };
         synchronized (mConfigLock) {
-            mConfig.gui = newGui;
-            mConfig.options = newOptions;
+            Config config = mConfigSnapshot.copyConfig();
+            edit.apply(config);
+            commitConfig(config);
+            mUnsentConfigEdits.add(new UnsentConfigEdit(null, edit));
         }
     }
 
     /**
      * Returns a deep copy of object.
      *
+     * Objects returned by the config getters are shared and have to be copied
+     * before they may be modified.
+     *
      * This method uses Gson and only works with objects that can be converted with Gson.
      */
-    private <T> T deepCopy(T object, Type type) {
-        Gson gson = new Gson();
-        return gson.fromJson(gson.toJson(object, type), type);
+    public <T> T deepCopy(T object, Type type) {
+        return GSON.fromJson(GSON.toJson(object, type), type);
     }
 
     /**
      * Requests and parses information about current system status and resource usage.
      */
     public void getSystemInfo(OnResultListener1<SystemInfo> listener) {
-        new GetRequest(mContext, mUrl, GetRequest.URI_SYSTEM, mApiKey, null, result ->
-                listener.onResult(new Gson().fromJson(result, SystemInfo.class)));
+        getCoalesced(GetRequest.URI_SYSTEM, null, ApiRequest.Priority.BACKGROUND, null,
+                result -> GSON.fromJson(result, SystemInfo.class), listener);
     }
 
-    public boolean isConfigLoaded() {
-        synchronized(mConfigLock) {
-            return mConfig != null;
+    /**
+     * Like {@link #getSystemInfo(OnResultListener1)}, for the screen identified by tag, see
+     * {@link #cancelRequests}.
+     */
+    public void getSystemInfo(Object tag, OnResultListener1<SystemInfo> listener) {
+        getCoalesced(GetRequest.URI_SYSTEM, null, ApiRequest.Priority.INTERACTIVE, tag,
+                result -> GSON.fromJson(result, SystemInfo.class), listener);
+    }
+
+    /**
+     * Cancels the requests made for the screen identified by tag, e.g. when the user leaves
+     * it. Listeners registered with the tag are not called anymore. A coalesced request is only
+     * cancelled once no other listener waits for it.
+     */
+    public void cancelRequests(Object tag) {
+        List<ApiRequest> unused = new ArrayList<>();
+        synchronized (mInFlightGets) {
+            Iterator<InFlightGet> it = mInFlightGets.values().iterator();
+            while (it.hasNext()) {
+                InFlightGet inFlight = it.next();
+                Iterator<Waiter> waiters = inFlight.waiters.iterator();
+                while (waiters.hasNext()) {
+                    if (waiters.next().tag == tag) {
+                        waiters.remove();
+                    }
+                }
+                if (inFlight.waiters.isEmpty()) {
+                    it.remove();
+                    if (inFlight.request != null) {
+                        unused.add(inFlight.request);
+                    }
+                }
+            }
+        }
+        for (ApiRequest request : unused) {
+            request.cancel();
+        }
+        ApiRequest.cancelAll(tag);
+    }
+
+    /**
+     * Performs a GET request and passes the parsed result to the listener.
+     *
+     * If an identical request (same path and params) is still running, no new request is
+     * made. Instead the listener is added to the running one, and the response is parsed
+     * once and passed to all of them. The result is shared, so listeners must not modify it.
+     * On error, the waiting listeners are dropped like for any other failed request.
+     *
+     * The priority is that of the first request, a running request is not sent earlier when
+     * a listener with a higher priority is added.
+     *
+     * @param tag If not null, the listener is dropped by {@link #cancelRequests} with this tag.
+     */
+    private <T> void getCoalesced(String path, @Nullable Map<String, String> params,
+                                  ApiRequest.Priority priority, @Nullable Object tag,
+                                  Function<String, T> parser, OnResultListener1<T> listener) {
+        final String key = getRequestKey(path, params);
+        final InFlightGet inFlight;
+        synchronized (mInFlightGets) {
+            InFlightGet running = mInFlightGets.get(key);
+            if (running != null) {
+                running.waiters.add(new Waiter(listener, tag));
+                return;
+            }
+            inFlight = new InFlightGet();
+            inFlight.waiters.add(new Waiter(listener, tag));
+            mInFlightGets.put(key, inFlight);
+        }
+        ApiRequest request = new GetRequest(mContext, mUrl, path, mApiKey, params, priority,
+                null, result -> {
+            List<Waiter> waiters = removeInFlightGet(key, inFlight);
+            if (waiters.isEmpty()) {
+                return;
+            }
+            T parsed = parser.apply(result);
+            for (Waiter waiter : waiters) {
+                @SuppressWarnings("unchecked")
+                OnResultListener1<T> typed = (OnResultListener1<T>) waiter.listener;
+                typed.onResult(parsed);
+            }
+        }, error -> {
+            List<Waiter> waiters = removeInFlightGet(key, inFlight);
+            Log.w(TAG, "Request to " + path + " failed, dropping " + waiters.size() +
+                    " listener(s): " + error.getMessage());
+        });
+        synchronized (mInFlightGets) {
+            inFlight.request = request;
         }
     }
 
+    /**
+     * Returns the listeners waiting for inFlight, or none if all of them were cancelled.
+     */
+    private List<Waiter> removeInFlightGet(String key, InFlightGet inFlight) {
+        synchronized (mInFlightGets) {
+            if (mInFlightGets.get(key) != inFlight) {
+                return new ArrayList<>();
+            }
+            mInFlightGets.remove(key);
+            return new ArrayList<>(inFlight.waiters);
+        }
+    }
+
+    private static String getRequestKey(String path, @Nullable Map<String, String> params) {
+        return params == null || params.isEmpty()
+                ? path
+                : path + "?" + new TreeMap<>(params);
+    }
+
+    public boolean isConfigLoaded() {
+        return mConfigSnapshot != null;
+    }
+
     /**
      * Requests and parses system version information.
      */
     public void getSystemVersion(OnResultListener1<SystemVersion> listener) {
-        new GetRequest(mContext, mUrl, GetRequest.URI_VERSION, mApiKey, null, result -> {
-            SystemVersion systemVersion = new Gson().fromJson(result, SystemVersion.class);
-            listener.onResult(systemVersion);
-        });
+        getCoalesced(GetRequest.URI_VERSION, null, ApiRequest.Priority.BACKGROUND, null,
+                result -> GSON.fromJson(result, SystemVersion.class), listener);
     }
 
     /**
-     * Returns connection info for the local device and all connected devices.
+     * Like {@link #getSystemVersion(OnResultListener1)}, for the screen identified by tag, see
+     * {@link #cancelRequests}.
+     */
+    public void getSystemVersion(Object tag, OnResultListener1<SystemVersion> listener) {
+        getCoalesced(GetRequest.URI_VERSION, null, ApiRequest.Priority.INTERACTIVE, tag,
+                result -> GSON.fromJson(result, SystemVersion.class), listener);
+    }
+
+    /**
+     * Returns connection info for the local device and all connected devices, including
+     * transfer rates. This samples the byte counters of all connections, so it should only
+     * be called while transfer rates are shown. Use {@link #getConnectionStates} otherwise.
      */
     public void getConnections(final OnResultListener1<Connections> listener) {
-        new GetRequest(mContext, mUrl, GetRequest.URI_CONNECTIONS, mApiKey, null, result -> {
+        getCoalesced(GetRequest.URI_CONNECTIONS, null, ApiRequest.Priority.BACKGROUND, null,
+                this::parseConnections, listener);
+    }
+
+    /**
+     * Like {@link #getConnections(OnResultListener1)}, for the screen identified by tag, see
+     * {@link #cancelRequests}.
+     */
+    public void getConnections(Object tag, final OnResultListener1<Connections> listener) {
+        getCoalesced(GetRequest.URI_CONNECTIONS, null, ApiRequest.Priority.INTERACTIVE, tag,
+                this::parseConnections, listener);
+    }
+
+    /**
+     * Adds the byte counters of connection to {@link #mThroughputStore} and sets its rates to
+     * the smoothed rates of the store.
+     */
+    private void setTransferRate(String id, Connections.Connection connection, long now) {
+        mThroughputStore.record(id, connection.inBytesTotal, connection.outBytesTotal, now);
+        connection.inBits = mThroughputStore.getInRate(id);
+        connection.outBits = mThroughputStore.getOutRate(id);
+    }
+
+    /**
+     * Parses connection info and calculates transfer rates using {@link #mThroughputStore}.
+     * Returns a copy, so {@link #mPreviousConnections} can't be modified by listeners.
+     */
+    private Connections parseConnections(String result) {
+        boolean traced = Tracer.begin("RestApi.parseConnections");
+        try {
             Long now = System.currentTimeMillis();
             Long msElapsed = now - mPreviousConnectionTime;
-            if (msElapsed < Constants.GUI_UPDATE_INTERVAL) {
-                listener.onResult(deepCopy(mPreviousConnections.get(), Connections.class));
-                return;
+            if (msElapsed < Constants.GUI_UPDATE_INTERVAL && mPreviousConnections.isPresent()) {
+                return deepCopy(mPreviousConnections.get(), Connections.class);
             }
-
             mPreviousConnectionTime = now;
-            Connections connections = new Gson().fromJson(result, Connections.class);
+            Connections connections = GSON.fromJson(result, Connections.class);
             for (Map.Entry<String, Connections.Connection> e : connections.connections.entrySet()) {
                 e.getValue().completion = mCompletion.getDeviceCompletion(e.getKey());
-
-                Connections.Connection prev =
-                        (mPreviousConnections.isPresent() && mPreviousConnections.get().connections.containsKey(e.getKey()))
-                                ? mPreviousConnections.get().connections.get(e.getKey())
-                                : new Connections.Connection();
-                e.getValue().setTransferRate(prev, msElapsed);
+                setTransferRate(e.getKey(), e.getValue(), now);
             }
-            Connections.Connection prev =
-                    mPreviousConnections.transform(c -> c.total).or(new Connections.Connection());
-            connections.total.setTransferRate(prev, msElapsed);
+            setTransferRate(ThroughputStore.TOTAL, connections.total, now);
             mPreviousConnections = Optional.of(connections);
-            listener.onResult(deepCopy(connections, Connections.class));
-        });
+            Connections copy = deepCopy(connections, Connections.class);
+            setConnectionStates(copy);
+            return copy;
+        } finally {
+            Tracer.end(traced);
+        }
+    }
+
+    /**
+     * Returns the connection state of all devices without a request if it is known, which is
+     * the case after the first call. Transfer rates are those of the last
+     * {@link #getConnections} call, if any. The result must not be modified.
+     */
+    public void getConnectionStates(final OnResultListener1<Connections> listener) {
+        Connections connections = mConnectionStates;
+        if (connections != null) {
+            listener.onResult(connections);
+        } else {
+            getConnections(listener);
+        }
+    }
+
+    /**
+     * Registers a listener that is called on the main thread with the new connection states
+     * whenever they changed, see {@link #getConnectionStates}.
+     */
+    public void registerOnConnectionStatesChangedListener(OnResultListener1<Connections> listener) {
+        mOnConnectionStatesChangedListeners.add(listener);
+    }
+
+    public void unregisterOnConnectionStatesChangedListener(OnResultListener1<Connections> listener) {
+        mOnConnectionStatesChangedListeners.remove(listener);
+    }
+
+    private void setConnectionStates(Connections connections) {
+        mConnectionStates = connections;
+        for (OnResultListener1<Connections> listener : mOnConnectionStatesChangedListeners) {
+            listener.onResult(connections);
+        }
+    }
+
+    /**
+     * Applies a "DeviceConnected", "DeviceDisconnected", "DevicePaused" or "DeviceResumed"
+     * event to {@link #mConnectionStates}.
+     */
+    private void onConnectionEvent(Event event) {
+        Connections connections = mConnectionStates;
+        if (connections == null) {
+            // Not fetched yet, the first fetch will include this change.
+            return;
+        }
+        String deviceId = (String) (event.data.containsKey("id")
+                ? event.data.get("id")
+                : event.data.get("device"));
+        if (deviceId == null) {
+            return;
+        }
+        Connections.Connection previous = connections.connections.get(deviceId);
+        Connections.Connection connection = (previous != null)
+                ? deepCopy(previous, Connections.Connection.class)
+                : new Connections.Connection();
+        switch (event.type) {
+            case Event.TYPE_DEVICE_CONNECTED:
+                connection.connected = true;
+                connection.at = event.time;
+                connection.address = (String) event.data.get("addr");
+                connection.clientVersion = (String) event.data.get("clientVersion");
+                connection.type = (String) event.data.get("type");
+                break;
+            case Event.TYPE_DEVICE_DISCONNECTED:
+                connection.connected = false;
+                connection.address = "";
+                connection.clientVersion = "";
+                connection.type = "";
+                connection.inBits = 0;
+                connection.outBits = 0;
+                break;
+            case Event.TYPE_DEVICE_PAUSED:
+                connection.paused = true;
+                connection.inBits = 0;
+                connection.outBits = 0;
+                break;
+            case Event.TYPE_DEVICE_RESUMED:
+                connection.paused = false;
+                break;
+        }
+        Connections updated = new Connections();
+        updated.total = connections.total;
+        updated.connections = new HashMap<>(connections.connections);
+        updated.connections.put(deviceId, connection);
+        setConnectionStates(updated);
     }
 
     /**
      * Returns status information about the folder with the given id.
      */
     public void getFolderStatus(final String folderId, final OnResultListener2<String, FolderStatus> listener) {
-        new GetRequest(mContext, mUrl, GetRequest.URI_STATUS, mApiKey,
-                    ImmutableMap.of("folder", folderId), result -> {
-            FolderStatus m = new Gson().fromJson(result, FolderStatus.class);
+        getFolderStatus(folderId, ApiRequest.Priority.BACKGROUND, null, listener);
+    }
+
+    /**
+     * Like {@link #getFolderStatus(String, OnResultListener2)}, for the screen identified by
+     * tag, see {@link #cancelRequests}.
+     */
+    public void getFolderStatus(final String folderId, Object tag,
+                                final OnResultListener2<String, FolderStatus> listener) {
+        getFolderStatus(folderId, ApiRequest.Priority.INTERACTIVE, tag, listener);
+    }
+
+    private void getFolderStatus(final String folderId, ApiRequest.Priority priority,
+                                 @Nullable Object tag,
+                                 final OnResultListener2<String, FolderStatus> listener) {
+        getCoalesced(GetRequest.URI_STATUS, ImmutableMap.of("folder", folderId), priority, tag,
+                result -> {
+            FolderStatus m = GSON.fromJson(result, FolderStatus.class);
             mCachedFolderStatuses.put(folderId, m);
-            listener.onResult(folderId, m);
-        });
+            return m;
+        }, status -> listener.onResult(folderId, status));
     }
 
     /**
-     * Listener for {@link #getEvents}.
+     * Returns the last known status of the folder without a request, or null if it has not
+     * been fetched by {@link #getFolderStatus} yet. The result must not be modified.
+     */
+    public @Nullable FolderStatus getCachedFolderStatus(String folderId) {
+        return mCachedFolderStatuses.get(folderId);
+    }
+
+    private void onFolderSummary(Event event) {
+        String folderId = (event.data != null) ? (String) event.data.get("folder") : null;
+        if (folderId == null || event.folderSummary == null) {
+            return;
+        }
+        if (!mRunningFolderStatusRequests.isEmpty() || !mPendingFolderStatusRequests.isEmpty()) {
+            mFolderStatusUpdatedByEvent.add(folderId);
+        }
+        mCachedFolderStatuses.put(folderId, event.folderSummary);
+    }
+
+    private void onFolderStateChanged(Event event) {
+        String folderId = (String) event.data.get("folder");
+        FolderStatus cached = folderId != null ? mCachedFolderStatuses.get(folderId) : null;
+        if (cached == null) {
+            // Nobody asked for this folder's status yet.
+            return;
+        }
+        FolderStatus status = deepCopy(cached, FolderStatus.class);
+        status.state = (String) event.data.get("to");
+        status.stateChanged = event.time;
+        if (event.data.containsKey("error")) {
+            status.error = (String) event.data.get("error");
+        }
+        mCachedFolderStatuses.put(folderId, status);
+    }
+
+    /**
+     * Fetches the status of all cached folders again, as events updating them may have been
+     * missed. Happens at most once per {@link #FOLDER_STATUS_RESYNC_INTERVAL}.
+     * Connection states are dropped and fetched again when needed.
+     */
+    private void onEventsMissed() {
+        // Fetched again when needed next.
+        mConnectionStates = null;
+
+        long wait = mLastFolderStatusResync + FOLDER_STATUS_RESYNC_INTERVAL
+                - SystemClock.elapsedRealtime();
+        mHandler.removeCallbacks(mResyncFolderStatusesRunnable);
+        if (mLastFolderStatusResync != 0 && wait > 0) {
+            mHandler.postDelayed(mResyncFolderStatusesRunnable, wait);
+        } else {
+            resyncFolderStatuses();
+        }
+    }
+
+    private void resyncFolderStatuses() {
+        Log.v(TAG, "Re-syncing status of " + mCachedFolderStatuses.size() + " folder(s)");
+        mLastFolderStatusResync = SystemClock.elapsedRealtime();
+        for (String folderId : new ArrayList<>(mCachedFolderStatuses.keySet())) {
+            getFolderStatus(folderId, (id, status) -> {});
+        }
+    }
+
+    /**
+     * Listener for {@link #getEvents} and {@link #pollEvents}.
      */
     public interface OnReceiveEventListener {
         /**
-         * Called for each event.
+         * Called on the main thread for each event, in order, while the rest of the response
+         * is still being received.
          */
         void onEvent(Event event);
 
         /**
-         * Called after all available events have been processed.
+         * Called on the main thread after all events of the response have been processed.
          * @param lastId The id of the last event processed. Should be used as a starting point for
          *               the next round of event processing.
          */
@@ -661,27 +1642,147 @@ public class RestApi {
     /**
      * Retrieves the events that have accumulated since the given event id.
      *
-     * The OnReceiveEventListeners onEvent method is called for each event.
+     * The OnReceiveEventListeners onEvent method is called for each event. Syncthing answers
+     * immediately, even if there are no events yet, instead of waiting like {@link #pollEvents}.
+     *
+     * @param eventTypes Types of the events to return, or all types if empty. Event ids are
+     *                   only comparable between requests for the same types.
      */
-    public final void getEvents(final long sinceId, final long limit, final OnReceiveEventListener listener) {
-        Map<String, String> params =
-                ImmutableMap.of("since", String.valueOf(sinceId), "limit", String.valueOf(limit));
-        new GetRequest(mContext, mUrl, GetRequest.URI_EVENTS, mApiKey, params, result -> {
-            JsonArray jsonEvents = new JsonParser().parse(result).getAsJsonArray();
-            long lastId = 0;
+    public final void getEvents(final long sinceId, final long limit,
+                                final Collection<String> eventTypes,
+                                final OnReceiveEventListener listener,
+                                final OnResultListener1<String> errorListener) {
+        Map<String, String> params = new HashMap<>();
+        params.put("since", String.valueOf(sinceId));
+        params.put("limit", String.valueOf(limit));
+        // Otherwise Syncthing holds the request open until there is an event.
+        params.put("timeout", "0");
+        if (!eventTypes.isEmpty()) {
+            params.put("events", TextUtils.join(",", eventTypes));
+        }
+        EventStream stream = new EventStream(listener);
+        stream.attach(new GetRequest(mContext, mUrl, GetRequest.URI_EVENTS, mApiKey, params,
+                stream::parse, stream::onDone, error -> errorListener.onResult(error.toString())));
+    }
+
+    /**
+     * Waits for events after the given event id, using Syncthing's long polling.
+     *
+     * Syncthing answers as soon as there are events of one of the given types, or with an
+     * empty list after {@link #EVENTS_LONG_POLL_TIMEOUT}. The request is made on its own
+     * connection and not retried, errors are passed to errorListener instead.
+     *
+     * @param eventTypes Types of the events to return, or all types if empty. Event ids are
+     *                   only comparable between requests for the same types.
+     * @return The request, which should be cancelled if the result is no longer needed.
+     */
+    public ApiRequest pollEvents(final long sinceId, final Collection<String> eventTypes,
+                                 final OnReceiveEventListener listener,
+                                 final OnResultListener1<String> errorListener) {
+        Map<String, String> params = new HashMap<>();
+        params.put("since", String.valueOf(sinceId));
+        params.put("timeout", String.valueOf(EVENTS_LONG_POLL_TIMEOUT));
+        if (!eventTypes.isEmpty()) {
+            params.put("events", TextUtils.join(",", eventTypes));
+        }
+        int timeoutMs = (int) TimeUnit.SECONDS.toMillis(EVENTS_LONG_POLL_TIMEOUT + EVENTS_LONG_POLL_GRACE);
+        EventStream stream = new EventStream(listener);
+        return stream.attach(new LongPollRequest(mContext, mUrl, GetRequest.URI_EVENTS, mApiKey,
+                params, timeoutMs, stream::parse, stream::onDone,
+                error -> errorListener.onResult(error.toString())));
+    }
+
+    /**
+     * Passes the events of one response to a listener while the rest of the response is still
+     * received and decoded, so the whole batch, which can contain thousands of events, is never
+     * held at once.
+     *
+     * Events are decoded on a network thread and handed to the main thread in chunks of
+     * {@link #EVENTS_CHUNK_SIZE}. Decoding waits while {@link #EVENTS_CHUNKS_PENDING} chunks
+     * are not dispatched yet. Chunks of a cancelled request are dropped.
+     */
+    private class EventStream {
+
+        private final OnReceiveEventListener mListener;
+        private final Semaphore mPendingChunks = new Semaphore(EVENTS_CHUNKS_PENDING);
+        private @Nullable ApiRequest mRequest;
+
+        EventStream(OnReceiveEventListener listener) {
+            mListener = listener;
+        }
+
+        /**
+         * Must be called on the main thread, right after the request was created.
+         */
+        <R extends ApiRequest> R attach(R request) {
+            mRequest = request;
+            return request;
+        }
 
-            for (int i = 0; i < jsonEvents.size(); i++) {
-                JsonElement json = jsonEvents.get(i);
-                Event event = new Gson().fromJson(json, Event.class);
+        /**
+         * Called on a network thread. Returns the id of the last event.
+         */
+        Long parse(Reader body) throws IOException {
+            TypeAdapter<Event> eventAdapter = GSON.getAdapter(Event.class);
+            long lastId = 0;
+            try {
+                JsonReader reader = new JsonReader(body);
+                reader.beginArray();
+                List<Event> chunk = new ArrayList<>(EVENTS_CHUNK_SIZE);
+                while (reader.hasNext()) {
+                    Event event = eventAdapter.read(reader);
+                    if (lastId < event.id)
+                        lastId = event.id;
+                    chunk.add(event);
+                    if (chunk.size() == EVENTS_CHUNK_SIZE) {
+                        post(chunk);
+                        chunk = new ArrayList<>(EVENTS_CHUNK_SIZE);
+                    }
+                }
+                reader.endArray();
+                if (!chunk.isEmpty()) {
+                    post(chunk);
+                }
+            } catch (MalformedJsonException | IllegalStateException e) {
+                throw new JsonSyntaxException("Failed to parse events", e);
+            }
+            return lastId;
+        }
 
-                if (lastId < event.id)
-                    lastId = event.id;
+        private void post(List<Event> chunk) throws IOException {
+            try {
+                mPendingChunks.acquire();
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException("Interrupted while dispatching events");
+            }
+            mHandler.post(() -> {
+                try {
+                    if (mRequest == null || !mRequest.isCancelled()) {
+                        dispatch(chunk);
+                    }
+                } finally {
+                    mPendingChunks.release();
+                }
+            });
+        }
 
-                listener.onEvent(event);
+        private void dispatch(List<Event> chunk) {
+            boolean traced = Tracer.begin("RestApi.dispatchEvents");
+            try {
+                for (Event event : chunk) {
+                    mListener.onEvent(event);
+                }
+            } finally {
+                Tracer.end(traced);
             }
+        }
 
-            listener.onDone(lastId);
-        });
+        /**
+         * Called on the main thread after all chunks were dispatched.
+         */
+        void onDone(Long lastId) {
+            mListener.onDone(lastId);
+        }
     }
 
     /**
@@ -706,18 +1807,23 @@ public class RestApi {
      * Updates cached folder and device completion info according to event data.
      */
     public void setCompletionInfo(String deviceId, String folderId, CompletionInfo completionInfo) {
+        if (!mRunningCompletionRequests.isEmpty() || !mPendingCompletionRequests.isEmpty()) {
+            mCompletionUpdatedByEvent.add(getCompletionKey(deviceId, folderId));
+        }
         mCompletion.setCompletionInfo(deviceId, folderId, completionInfo);
     }
 
     /**
-     * Returns prettyfied usage report.
+     * Returns prettyfied usage report, for the screen identified by tag, see
+     * {@link #cancelRequests}.
      */
-    public void getUsageReport(final OnResultListener1<String> listener) {
-        new GetRequest(mContext, mUrl, GetRequest.URI_REPORT, mApiKey, null, result -> {
+    public void getUsageReport(Object tag, final OnResultListener1<String> listener) {
+        new GetRequest(mContext, mUrl, GetRequest.URI_REPORT, mApiKey, null,
+                ApiRequest.Priority.INTERACTIVE, tag, result -> {
             JsonElement json = new JsonParser().parse(result);
             Gson gson = new GsonBuilder().setPrettyPrinting().create();
             listener.onResult(gson.toJson(json));
-        });
+        }, null);
     }
 
     public URL getUrl() {
@@ -734,14 +1840,16 @@ public class RestApi {
     }
 
     public void setUsageReporting(Boolean acceptUsageReporting) {
-        Options options = getOptions();
-        if (options == null) {
-            Log.e(TAG, "setUsageReporting called while options == null");
-            return;
-        }
-        options.urAccepted = acceptUsageReporting ? mUrVersionMax : Options.USAGE_REPORTING_DENIED;
         synchronized (mConfigLock) {
-            mConfig.options = options;
+            Options options = getOptions();
+            if (options == null) {
+                Log.e(TAG, "setUsageReporting called while options == null");
+                return;
+            }
+            Config config = mConfigSnapshot.copyConfig();
+            config.options = deepCopy(options, Options.class);
+            config.options.urAccepted = acceptUsageReporting ? mUrVersionMax : Options.USAGE_REPORTING_DENIED;
+            commitConfig(config);
         }
     }
 }
@@ -15,9 +15,13 @@ import com.android.PRNGFixes;
 import com.google.common.io.Files;
 import com.nutomic.syncthingandroid.R;
 import com.nutomic.syncthingandroid.SyncthingApp;
+import com.nutomic.syncthingandroid.http.ApiRequest;
+import com.nutomic.syncthingandroid.http.LocalSocketForwarder;
 import com.nutomic.syncthingandroid.http.PollWebGuiAvailableTask;
+import com.nutomic.syncthingandroid.http.ResponseCache;
 import com.nutomic.syncthingandroid.model.RunConditionCheckResult;
 import com.nutomic.syncthingandroid.util.ConfigXml;
+import com.nutomic.syncthingandroid.util.Tracer;
 
 import java.io.File;
 import java.io.IOException;
@@ -133,6 +137,7 @@ public class SyncthingService extends Service {
 
     private ConfigXml mConfig;
     private @Nullable PollWebGuiAvailableTask mPollWebGuiAvailableTask = null;
+    private @Nullable LocalSocketForwarder mWebGuiForwarder = null;
     private @Nullable RestApi mApi = null;
     private @Nullable EventProcessor mEventProcessor = null;
     private @Nullable RunConditionMonitor mRunConditionMonitor = null;
@@ -147,6 +152,7 @@ public class SyncthingService extends Service {
 
     @Inject NotificationHandler mNotificationHandler;
     @Inject SharedPreferences mPreferences;
+    @Inject EventBus mEventBus;
 
     /**
      * Object that must be locked upon accessing mCurrentState
@@ -192,6 +198,10 @@ public class SyncthingService extends Service {
         if (mNotificationHandler != null) {
             mNotificationHandler.setAppShutdownInProgress(false);
         }
+
+        if (mStoragePermissionGranted) {
+            MediaReconciliationJobService.schedule(this);
+        }
     }
 
     /**
@@ -350,6 +360,7 @@ public class SyncthingService extends Service {
                  cancel(true);
                  return null;
              }
+             boolean traced = Tracer.begin("StartupTask");
              try {
                  syncthingService.mConfig = new ConfigXml(syncthingService);
                  syncthingService.mConfig.updateIfNeeded();
@@ -359,6 +370,8 @@ public class SyncthingService extends Service {
                      syncthingService.onServiceStateChange(State.ERROR);
                  }
                  cancel(true);
+             } finally {
+                 Tracer.end(traced);
              }
              return null;
          }
@@ -377,6 +390,8 @@ public class SyncthingService extends Service {
       * Callback on {@link StartupTask#onPostExecute}.
       */
      private void onStartupTaskCompleteListener() {
+         File apiSocket = mConfig.getApiSocket();
+         ApiRequest.setApiSocket(apiSocket);
          if (mApi == null) {
              mApi = new RestApi(this, mConfig.getWebGuiUrl(), mConfig.getApiKey(),
                                  this::onApiAvailable, () -> onServiceStateChange(mCurrentState));
@@ -388,6 +403,13 @@ public class SyncthingService extends Service {
              Log.e(TAG, "onStartupTaskCompleteListener: Syncthing binary lifecycle violated");
              return;
          }
+         if (apiSocket != null) {
+             // Syncthing can't listen on a socket file left over from a previous run.
+             if (apiSocket.exists() && !apiSocket.delete()) {
+                 Log.w(TAG, "Failed to delete stale socket " + apiSocket);
+             }
+             startWebGuiForwarder(apiSocket);
+         }
          mSyncthingRunnable = new SyncthingRunnable(this, SyncthingRunnable.Command.main);
          mSyncthingRunnableThread = new Thread(mSyncthingRunnable);
          mSyncthingRunnableThread.start();
@@ -411,6 +433,22 @@ public class SyncthingService extends Service {
          }
      }
 
+    /**
+     * Makes the web GUI reachable over TCP while Syncthing listens on the given Unix socket.
+     */
+    private void startWebGuiForwarder(File apiSocket) {
+        if (mWebGuiForwarder != null) {
+            return;
+        }
+        LocalSocketForwarder forwarder = new LocalSocketForwarder(mConfig.getWebGuiUrl(), apiSocket);
+        try {
+            forwarder.start();
+            mWebGuiForwarder = forwarder;
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to forward web GUI from " + mConfig.getWebGuiUrl(), e);
+        }
+    }
+
     /**
      * Called when {@link RestApi#checkReadConfigFromRestApiCompleted} detects
      * the RestApi class has been fully initialized.
@@ -514,6 +552,11 @@ public class SyncthingService extends Service {
             mApi = null;
         }
 
+        if (mWebGuiForwarder != null) {
+            mWebGuiForwarder.stop();
+            mWebGuiForwarder = null;
+        }
+
         if (mSyncthingRunnable != null) {
             mSyncthingRunnable.killSyncthing();
             if (mSyncthingRunnableThread != null) {
@@ -535,6 +578,14 @@ public class SyncthingService extends Service {
         return mApi;
     }
 
+    /**
+     * Returns the bus to subscribe to Syncthing events. Subscriptions remain valid while
+     * Syncthing is restarted, but events are only delivered while it is running.
+     */
+    public EventBus getEventBus() {
+        return mEventBus;
+    }
+
     /**
      * Force re-evaluating run conditions immediately e.g. after
      * preferences were modified by {@link SettingsActivity}.
@@ -576,17 +627,28 @@ public class SyncthingService extends Service {
      */
     private void onServiceStateChange(State newState) {
         Log.v(TAG, "onServiceStateChange: from " + mCurrentState + " to " + newState);
+        Tracer.instant("SyncthingService " + mCurrentState + " -> " + newState);
+        if (newState != mCurrentState && newState != State.ACTIVE) {
+            // The binary is being (re)started or stopped, so cached responses may be from a
+            // previous instance or version. Responses cached while starting remain valid.
+            ResponseCache.invalidate();
+        }
         mCurrentState = newState;
         mHandler.post(() -> {
-            mNotificationHandler.updatePersistentNotification(this);
-            for (Iterator<OnServiceStateChangeListener> i = mOnServiceStateChangeListeners.iterator();
-                 i.hasNext(); ) {
-                OnServiceStateChangeListener listener = i.next();
-                if (listener != null) {
-                    listener.onServiceStateChange(mCurrentState);
-                } else {
-                    i.remove();
+            boolean traced = Tracer.begin("SyncthingService.notifyStateChange");
+            try {
+                mNotificationHandler.updatePersistentNotification(this);
+                for (Iterator<OnServiceStateChangeListener> i = mOnServiceStateChangeListeners.iterator();
+                     i.hasNext(); ) {
+                    OnServiceStateChangeListener listener = i.next();
+                    if (listener != null) {
+                        listener.onServiceStateChange(mCurrentState);
+                    } else {
+                        i.remove();
+                    }
                 }
+            } finally {
+                Tracer.end(traced);
             }
         });
     }
@@ -0,0 +1,101 @@
+package com.nutomic.syncthingandroid.service;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the smoothed transfer rate of each device and of the total.
+ *
+ * Samples are the cumulative byte counters reported in "/rest/system/connections", which are
+ * only requested while a transfer rate is shown. For each series, an exponentially weighted
+ * moving average of the rate is kept, which doesn't depend on samples arriving in whole
+ * seconds.
+ *
+ * All methods are thread-safe. Rates are returned in bits per second.
+ */
+public class ThroughputStore {
+
+    /**
+     * Series ID of the total over all devices. Device IDs never have this format.
+     */
+    public static final String TOTAL = "total";
+
+    /**
+     * Time constant in ms of the moving average of the rate.
+     */
+    private static final long EWMA_TIME_CONSTANT = TimeUnit.SECONDS.toMillis(10);
+
+    /**
+     * Maximum time in ms between two samples of a series. After a longer gap, the next sample
+     * only sets the new baseline, as the transfer can't be attributed to a time anymore.
+     */
+    private static final long MAX_SAMPLE_GAP = TimeUnit.MINUTES.toMillis(10);
+
+    private static class Series {
+        long lastTime;
+        long lastInBytes;
+        long lastOutBytes;
+
+        /**
+         * Moving averages in bytes per second.
+         */
+        double inRate;
+        double outRate;
+    }
+
+    private final Map<String, Series> mSeries = new HashMap<>();
+
+    /**
+     * Adds a sample of the cumulative byte counters of a device, or of {@link #TOTAL}.
+     */
+    public synchronized void record(String id, long inBytesTotal, long outBytesTotal, long now) {
+        Series series = mSeries.get(id);
+        if (series == null) {
+            series = new Series();
+            mSeries.put(id, series);
+            setBaseline(series, inBytesTotal, outBytesTotal, now);
+            return;
+        }
+        long elapsed = now - series.lastTime;
+        long inBytes = inBytesTotal - series.lastInBytes;
+        long outBytes = outBytesTotal - series.lastOutBytes;
+        // Counters are reset when Syncthing restarts, and the clock may be changed.
+        if (elapsed <= 0 || elapsed > MAX_SAMPLE_GAP || inBytes < 0 || outBytes < 0) {
+            setBaseline(series, inBytesTotal, outBytesTotal, now);
+            return;
+        }
+        series.lastTime = now;
+        series.lastInBytes = inBytesTotal;
+        series.lastOutBytes = outBytesTotal;
+
+        double alpha = 1 - Math.exp(-(double) elapsed / EWMA_TIME_CONSTANT);
+        series.inRate += alpha * (inBytes * 1000.0 / elapsed - series.inRate);
+        series.outRate += alpha * (outBytes * 1000.0 / elapsed - series.outRate);
+    }
+
+    private static void setBaseline(Series series, long inBytesTotal, long outBytesTotal,
+                                    long now) {
+        series.lastTime = now;
+        series.lastInBytes = inBytesTotal;
+        series.lastOutBytes = outBytesTotal;
+        series.inRate = 0;
+        series.outRate = 0;
+    }
+
+    /**
+     * Returns the smoothed receive rate in bits per second.
+     */
+    public synchronized long getInRate(String id) {
+        Series series = mSeries.get(id);
+        return (series != null) ? (long) (series.inRate * 8) : 0;
+    }
+
+    /**
+     * Returns the smoothed send rate in bits per second.
+     */
+    public synchronized long getOutRate(String id) {
+        Series series = mSeries.get(id);
+        return (series != null) ? (long) (series.outRate * 8) : 0;
+    }
+}
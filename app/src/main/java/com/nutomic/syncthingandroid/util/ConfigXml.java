@@ -5,6 +5,7 @@ import android.content.SharedPreferences;
 import android.os.Build;
 import android.os.Environment;
 import android.preference.PreferenceManager;
+import android.support.annotation.Nullable;
 import android.text.TextUtils;
 import android.util.Log;
 
@@ -25,7 +26,9 @@ import java.io.InputStreamReader;
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.HashMap;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Random;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -53,6 +56,13 @@ public class ConfigXml {
     private static final String TAG = "ConfigXml";
     private static final int FOLDER_ID_APPENDIX_LENGTH = 4;
 
+    private static final String UNIX_SOCKET_PREFIX = "unix://";
+
+    /**
+     * Web GUI address of a newly generated config, used if the TCP address was not remembered.
+     */
+    private static final String DEFAULT_GUI_ADDRESS = "127.0.0.1:8384";
+
     private final Context mContext;
     @Inject SharedPreferences mPreferences;
 
@@ -94,6 +104,7 @@ public class ConfigXml {
         if (!mConfigFile.canRead() && !Util.fixAppDataPermissions(mContext)) {
             throw new OpenConfigException();
         }
+        boolean traced = Tracer.begin("ConfigXml.readConfig");
         try {
             DocumentBuilder db = DocumentBuilderFactory.newInstance().newDocumentBuilder();
             Log.d(TAG, "Trying to read '" + mConfigFile + "'");
@@ -101,19 +112,67 @@ public class ConfigXml {
         } catch (SAXException | ParserConfigurationException | IOException e) {
             Log.w(TAG, "Cannot read '" + mConfigFile + "'", e);
             throw new OpenConfigException();
+        } finally {
+            Tracer.end(traced);
         }
         Log.i(TAG, "Loaded Syncthing config file");
     }
 
+    /**
+     * Returns the TCP URL of the web GUI. If Syncthing listens on a Unix socket, this is the
+     * address {@link com.nutomic.syncthingandroid.http.LocalSocketForwarder} accepts plain
+     * HTTP connections on: the port of the previous TCP address, always on the loopback
+     * address, so neither the web GUI nor the API are reachable from the network without TLS.
+     */
     public URL getWebGuiUrl() {
         String urlProtocol = Constants.osSupportsTLS12() ? "https" : "http";
+        String address = getGuiAddress();
+        if (address.startsWith(UNIX_SOCKET_PREFIX)) {
+            urlProtocol = "http";
+            address = toLoopbackAddress(PreferenceManager.getDefaultSharedPreferences(mContext)
+                    .getString(Constants.PREF_WEB_GUI_TCP_ADDRESS, DEFAULT_GUI_ADDRESS));
+        }
         try {
-            return new URL(urlProtocol + "://" + getGuiElement().getElementsByTagName("address").item(0).getTextContent());
+            return new URL(urlProtocol + "://" + address);
         } catch (MalformedURLException e) {
             throw new RuntimeException("Failed to parse web interface URL", e);
         }
     }
 
+    /**
+     * Returns 127.0.0.1 with the port of the given "host:port" address, e.g. "0.0.0.0:8384"
+     * or "[::]:8384", or {@link #DEFAULT_GUI_ADDRESS} if it has no valid port.
+     */
+    private static String toLoopbackAddress(String address) {
+        int colon = address.lastIndexOf(':');
+        if (colon != -1) {
+            try {
+                int port = Integer.parseInt(address.substring(colon + 1));
+                if (port > 0 && port <= 65535) {
+                    return "127.0.0.1:" + port;
+                }
+            } catch (NumberFormatException e) {
+                // Fall through to the default.
+            }
+        }
+        Log.w(TAG, "No port in web GUI address " + address + ", using " + DEFAULT_GUI_ADDRESS);
+        return DEFAULT_GUI_ADDRESS;
+    }
+
+    /**
+     * Returns the Unix socket Syncthing serves the REST API on, or null if it listens on TCP.
+     */
+    public @Nullable File getApiSocket() {
+        String address = getGuiAddress();
+        return address.startsWith(UNIX_SOCKET_PREFIX)
+                ? new File(address.substring(UNIX_SOCKET_PREFIX.length()))
+                : null;
+    }
+
+    private String getGuiAddress() {
+        return getGuiElement().getElementsByTagName("address").item(0).getTextContent();
+    }
+
     public String getApiKey() {
         return getGuiElement().getElementsByTagName("apikey").item(0).getTextContent();
     }
@@ -122,6 +181,21 @@ public class ConfigXml {
         return getGuiElement().getElementsByTagName("user").item(0).getTextContent();
     }
 
+    /**
+     * Returns the local paths of all folders, keyed by folder id.
+     */
+    public Map<String, String> getFolderPaths() {
+        NodeList folders = mConfig.getDocumentElement().getElementsByTagName("folder");
+        Map<String, String> paths = new HashMap<>();
+        for (int i = 0; i < folders.getLength(); i++) {
+            Element r = (Element) folders.item(i);
+            if (r.getParentNode() == mConfig.getDocumentElement()) {
+                paths.put(r.getAttribute("id"), r.getAttribute("path"));
+            }
+        }
+        return paths;
+    }
+
     /**
      * Updates the config file.
      *
@@ -157,8 +231,30 @@ public class ConfigXml {
         /* Section - GUI */
         Element gui = getGuiElement();
 
+        // Serve the REST API on an app-private Unix socket if enabled. The TCP address is
+        // remembered, so the web GUI can still be reached there through a forwarder.
+        // Off by default, see LocalSocketStack for the trade-off.
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        boolean useUnixSocket = prefs.getBoolean(Constants.PREF_USE_UNIX_SOCKET, false);
+        Node address = gui.getElementsByTagName("address").item(0);
+        String currentAddress = address.getTextContent();
+        if (useUnixSocket && !currentAddress.startsWith(UNIX_SOCKET_PREFIX)) {
+            Log.i(TAG, "Moving web GUI from " + currentAddress + " to Unix socket");
+            prefs.edit().putString(Constants.PREF_WEB_GUI_TCP_ADDRESS, currentAddress).apply();
+            address.setTextContent(UNIX_SOCKET_PREFIX
+                    + Constants.getGuiSocketFile(mContext).getAbsolutePath());
+            changed = true;
+        } else if (!useUnixSocket && currentAddress.startsWith(UNIX_SOCKET_PREFIX)) {
+            String tcpAddress = prefs.getString(Constants.PREF_WEB_GUI_TCP_ADDRESS,
+                    DEFAULT_GUI_ADDRESS);
+            Log.i(TAG, "Moving web GUI from Unix socket to " + tcpAddress);
+            address.setTextContent(tcpAddress);
+            changed = true;
+        }
+
         // Platform-specific: Force REST API and Web UI access to use TLS 1.2 or not.
-        Boolean forceHttps = Constants.osSupportsTLS12();
+        // The socket is only accessible to this app and doesn't need TLS.
+        Boolean forceHttps = Constants.osSupportsTLS12() && !useUnixSocket;
         if (!gui.hasAttribute("tls") ||
                 Boolean.parseBoolean(gui.getAttribute("tls")) != forceHttps) {
             gui.setAttribute("tls", forceHttps ? "true" : "false");
@@ -348,6 +444,7 @@ public class ConfigXml {
 
         Log.i(TAG, "Writing updated config file");
         File mConfigTempFile = Constants.getConfigTempFile(mContext);
+        boolean traced = Tracer.begin("ConfigXml.saveChanges");
         try {
             TransformerFactory transformerFactory = TransformerFactory.newInstance();
             Transformer transformer = transformerFactory.newTransformer();
@@ -357,6 +454,8 @@ public class ConfigXml {
         } catch (TransformerException e) {
             Log.w(TAG, "Failed to save temporary config file", e);
             return;
+        } finally {
+            Tracer.end(traced);
         }
         try {
             mConfigTempFile.renameTo(mConfigFile);
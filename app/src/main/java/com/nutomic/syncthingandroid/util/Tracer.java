@@ -0,0 +1,159 @@
+package com.nutomic.syncthingandroid.util;
+
+import android.os.Build;
+import android.os.Process;
+import android.os.Trace;
+
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records trace sections of hot paths, both with {@link Trace} for systrace/Perfetto and in
+ * an in-app ring buffer that can be exported in Chrome trace format (chrome://tracing,
+ * ui.perfetto.dev).
+ *
+ * Disabled by default. When disabled, every call only reads a volatile flag. Sections must be
+ * ended on the thread that began them, in reverse order, passing the result of
+ * {@link #begin}, so a section is ended exactly if it was begun even if tracing is switched
+ * on or off in between:
+ *
+ * <pre>
+ * boolean traced = Tracer.begin("name");
+ * try {
+ *     ...
+ * } finally {
+ *     Tracer.end(traced);
+ * }
+ * </pre>
+ *
+ * The ring buffer is written without locks. If it wraps around while being exported, some
+ * events of the export may be inconsistent.
+ */
+public class Tracer {
+
+    /**
+     * Number of events kept in the ring buffer.
+     */
+    private static final int CAPACITY = 1 << 14;
+
+    private static final byte PHASE_BEGIN = 'B';
+    private static final byte PHASE_END = 'E';
+    private static final byte PHASE_INSTANT = 'i';
+
+    /**
+     * {@link Trace} limits section names to 127 characters.
+     */
+    private static final int MAX_SECTION_NAME_LENGTH = 127;
+
+    private static volatile boolean sEnabled = false;
+
+    private static final AtomicLong sNextIndex = new AtomicLong();
+    private static final long[] sTimestamps = new long[CAPACITY];
+    private static final int[] sThreadIds = new int[CAPACITY];
+    private static final byte[] sPhases = new byte[CAPACITY];
+    private static final String[] sNames = new String[CAPACITY];
+
+    public static boolean isEnabled() {
+        return sEnabled;
+    }
+
+    /**
+     * Starts or stops recording. Events recorded before are kept until they are overwritten.
+     */
+    public static void setEnabled(boolean enabled) {
+        sEnabled = enabled;
+    }
+
+    /**
+     * Begins a section on the current thread.
+     *
+     * @return Whether the section was begun, to be passed to {@link #end}.
+     */
+    public static boolean begin(String name) {
+        if (!sEnabled) {
+            return false;
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            Trace.beginSection(name.length() > MAX_SECTION_NAME_LENGTH
+                    ? name.substring(0, MAX_SECTION_NAME_LENGTH)
+                    : name);
+        }
+        record(PHASE_BEGIN, name);
+        return true;
+    }
+
+    /**
+     * Ends the section begun last on the current thread.
+     *
+     * @param begun The result of the matching {@link #begin} call.
+     */
+    public static void end(boolean begun) {
+        if (!begun) {
+            return;
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            Trace.endSection();
+        }
+        record(PHASE_END, null);
+    }
+
+    /**
+     * Records an event without duration, e.g. a state transition. Only in the ring buffer.
+     */
+    public static void instant(String name) {
+        if (!sEnabled) {
+            return;
+        }
+        record(PHASE_INSTANT, name);
+    }
+
+    private static void record(byte phase, String name) {
+        int slot = (int) (sNextIndex.getAndIncrement() & (CAPACITY - 1));
+        sTimestamps[slot] = System.nanoTime();
+        sThreadIds[slot] = Process.myTid();
+        sPhases[slot] = phase;
+        sNames[slot] = name;
+    }
+
+    /**
+     * Removes all recorded events.
+     */
+    public static void clear() {
+        sNextIndex.set(0);
+    }
+
+    /**
+     * Writes the recorded events, oldest first, in Chrome trace event format.
+     */
+    public static void writeChromeTrace(Writer writer) throws IOException {
+        long end = sNextIndex.get();
+        long start = Math.max(0, end - CAPACITY);
+        int pid = Process.myPid();
+        JsonWriter json = new JsonWriter(writer);
+        json.beginObject();
+        json.name("displayTimeUnit").value("ms");
+        json.name("traceEvents").beginArray();
+        for (long i = start; i < end; i++) {
+            int slot = (int) (i & (CAPACITY - 1));
+            byte phase = sPhases[slot];
+            json.beginObject();
+            json.name("ph").value(String.valueOf((char) phase));
+            json.name("ts").value(sTimestamps[slot] / 1000.0);
+            json.name("pid").value(pid);
+            json.name("tid").value(sThreadIds[slot]);
+            if (phase != PHASE_END) {
+                json.name("name").value(sNames[slot]);
+            }
+            if (phase == PHASE_INSTANT) {
+                json.name("s").value("t");
+            }
+            json.endObject();
+        }
+        json.endArray();
+        json.endObject();
+        json.flush();
+    }
+}
@@ -14,6 +14,7 @@ import com.nutomic.syncthingandroid.R;
 import com.nutomic.syncthingandroid.model.Connections;
 import com.nutomic.syncthingandroid.model.Device;
 import com.nutomic.syncthingandroid.service.RestApi;
+import com.nutomic.syncthingandroid.util.Tracer;
 import com.nutomic.syncthingandroid.util.Util;
 
 /**
@@ -30,6 +31,15 @@ public class DevicesAdapter extends ArrayAdapter<Device> {
     @Override
     @NonNull
     public View getView(int position, View convertView, @NonNull ViewGroup parent) {
+        boolean traced = Tracer.begin("DevicesAdapter.getView");
+        try {
+            return bindView(position, convertView, parent);
+        } finally {
+            Tracer.end(traced);
+        }
+    }
+
+    private View bindView(int position, View convertView, ViewGroup parent) {
         if (convertView == null) {
             LayoutInflater inflater = (LayoutInflater) getContext()
                     .getSystemService(Context.LAYOUT_INFLATER_SERVICE);
@@ -90,10 +100,20 @@ public class DevicesAdapter extends ArrayAdapter<Device> {
 
     /**
      * Requests new connection info for all devices visible in listView.
+     * A single response contains the info for all devices.
+     *
+     * @param sampleRates True to request current transfer rates, which should only be done
+     *                    while the list is visible. Otherwise the connection state known from
+     *                    events is used.
      */
-    public void updateConnections(RestApi api) {
-        for (int i = 0; i < getCount(); i++) {
-            api.getConnections(this::onReceiveConnections);
+    public void updateConnections(RestApi api, boolean sampleRates) {
+        if (getCount() == 0) {
+            return;
+        }
+        if (sampleRates) {
+            api.getConnections(getContext(), this::onReceiveConnections);
+        } else {
+            api.getConnectionStates(this::onReceiveConnections);
         }
     }
 
@@ -22,6 +22,7 @@ import com.nutomic.syncthingandroid.model.FolderStatus;
 import com.nutomic.syncthingandroid.service.Constants;
 import com.nutomic.syncthingandroid.service.RestApi;
 import com.nutomic.syncthingandroid.service.SyncthingService;
+import com.nutomic.syncthingandroid.util.Tracer;
 import com.nutomic.syncthingandroid.util.Util;
 
 import java.io.File;
@@ -49,6 +50,15 @@ public class FoldersAdapter extends ArrayAdapter<Folder> {
     @Override
     @NonNull
     public View getView(int position, View convertView, @NonNull ViewGroup parent) {
+        boolean traced = Tracer.begin("FoldersAdapter.getView");
+        try {
+            return bindView(position, convertView, parent);
+        } finally {
+            Tracer.end(traced);
+        }
+    }
+
+    private View bindView(int position, View convertView, ViewGroup parent) {
         ItemFolderListBinding binding = (convertView == null)
                 ? DataBindingUtil.inflate(LayoutInflater.from(mContext), R.layout.item_folder_list, parent, false)
                 : DataBindingUtil.bind(convertView);
@@ -161,11 +171,19 @@ public class FoldersAdapter extends ArrayAdapter<Folder> {
     }
 
     /**
-     * Requests updated folder status from the api for all visible items.
+     * Updates the folder status of all visible items. The api fetches the status of all
+     * folders once it is available and keeps it current from events, so it is only requested
+     * here for folders whose status is not known yet, e.g. while that fetch is running.
      */
     public void updateFolderStatus(RestApi api) {
         for (int i = 0; i < getCount(); i++) {
-            api.getFolderStatus(getItem(i).id, this::onReceiveFolderStatus);
+            String folderId = getItem(i).id;
+            FolderStatus folderStatus = api.getCachedFolderStatus(folderId);
+            if (folderStatus != null) {
+                mLocalFolderStatuses.put(folderId, folderStatus);
+            } else {
+                api.getFolderStatus(folderId, getContext(), this::onReceiveFolderStatus);
+            }
         }
     }
 
@@ -0,0 +1,45 @@
+package com.nutomic.syncthingandroid.model;
+
+import com.google.gson.Gson;
+
+import java.util.Locale;
+
+/**
+ * Compares the time {@link ModelTypeAdapters} and Gson's reflective adapters need to parse a
+ * config with many folders. Not part of the unit tests, run {@link #main} manually.
+ *
+ * Not a strict benchmark, but enough to compare both approaches on the same JVM. Numbers on
+ * a device with ART will differ.
+ */
+public class ModelTypeAdaptersBenchmark {
+
+    private static final int FOLDER_COUNT = 1000;
+    private static final int DEVICE_COUNT = 20;
+
+    private static final int WARMUP_ITERATIONS = 20;
+    private static final int BENCHMARK_ITERATIONS = 50;
+
+    public static void main(String[] args) {
+        String json = ModelTypeAdaptersTest.createConfigJson(FOLDER_COUNT, DEVICE_COUNT);
+
+        long reflectiveNanos = timeParsing(new Gson(), json);
+        long adaptedNanos = timeParsing(ModelTypeAdapters.GSON, json);
+
+        System.out.println(String.format(Locale.US,
+                "Parsing config with %d folders (%d KiB): reflective %.2f ms, adapters %.2f ms",
+                FOLDER_COUNT, json.length() / 1024,
+                reflectiveNanos / 1e6 / BENCHMARK_ITERATIONS,
+                adaptedNanos / 1e6 / BENCHMARK_ITERATIONS));
+    }
+
+    private static long timeParsing(Gson gson, String json) {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            gson.fromJson(json, Config.class);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < BENCHMARK_ITERATIONS; i++) {
+            gson.fromJson(json, Config.class);
+        }
+        return System.nanoTime() - start;
+    }
+}
@@ -0,0 +1,259 @@
+package com.nutomic.syncthingandroid.model;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.reflect.TypeToken;
+
+import org.junit.Test;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Checks that {@link ModelTypeAdapters} read and write the same JSON as Gson's reflective
+ * adapters. See {@link ModelTypeAdaptersBenchmark} for a comparison of their speed.
+ */
+public class ModelTypeAdaptersTest {
+
+    private static final int FOLDER_COUNT = 1000;
+    private static final int DEVICE_COUNT = 20;
+
+    /**
+     * All classes that {@link ModelTypeAdapters#FACTORY} has an adapter for.
+     */
+    private static final Class<?>[] ADAPTED_CLASSES = {
+            CompletionInfo.class, Connections.class, Connections.Connection.class, Device.class,
+            Event.class, Folder.class, FolderStatus.class, IgnoredFolder.class,
+            PendingDevice.class, PendingFolder.class, RemoteIgnoredDevice.class,
+            SystemInfo.class, SystemVersion.class,
+    };
+
+    private final Gson mReflectiveGson = new Gson();
+
+    /**
+     * Sets every field of each adapted class, including nested objects, to a value other than
+     * its default, so a field that is added to a model class but not to its adapter is noticed.
+     */
+    @Test
+    public void adaptersCoverAllFields() throws ReflectiveOperationException {
+        for (Class<?> type : ADAPTED_CLASSES) {
+            assertNotNull("No adapter for " + type.getName(),
+                    ModelTypeAdapters.FACTORY.create(ModelTypeAdapters.GSON, TypeToken.get(type)));
+
+            Object value = createInstance(type);
+            JsonElement expected = mReflectiveGson.toJsonTree(value);
+
+            assertEquals("Fields not written by adapter for " + type.getName(),
+                    expected, parse(ModelTypeAdapters.GSON.toJson(value)));
+            Object read = ModelTypeAdapters.GSON.fromJson(mReflectiveGson.toJson(value), type);
+            assertEquals("Fields not read by adapter for " + type.getName(),
+                    expected, mReflectiveGson.toJsonTree(read));
+        }
+    }
+
+    @Test
+    public void configRoundTrip() {
+        String json = createConfigJson(FOLDER_COUNT, DEVICE_COUNT);
+
+        Config adapted = ModelTypeAdapters.GSON.fromJson(json, Config.class);
+        Config reflective = mReflectiveGson.fromJson(json, Config.class);
+
+        // Reading: both parsed configs serialize to the same tree.
+        assertEquals(mReflectiveGson.toJsonTree(reflective), mReflectiveGson.toJsonTree(adapted));
+        // Writing: the adapters produce the same tree as the reflective adapters.
+        assertEquals(mReflectiveGson.toJsonTree(reflective),
+                parse(ModelTypeAdapters.GSON.toJson(reflective)));
+        assertEquals(FOLDER_COUNT, adapted.folders.size());
+    }
+
+    @Test
+    public void eventsRoundTrip() {
+        String json = "[{\"id\":1,\"globalID\":11,\"type\":\"FolderSummary\",\"time\":\"2020-01-01T00:00:00Z\","
+                + "\"data\":{\"folder\":\"folder-1\",\"summary\":{\"state\":\"idle\",\"globalBytes\":123}}},"
+                + "{\"id\":2,\"globalID\":12,\"type\":\"ItemFinished\",\"time\":\"2020-01-01T00:00:01Z\","
+                + "\"data\":{\"item\":\"a/b.jpg\",\"folder\":\"folder-1\",\"error\":null,"
+                + "\"type\":\"file\",\"action\":\"update\",\"tags\":[\"x\",1.5,true]}}]";
+
+        Event[] adapted = ModelTypeAdapters.GSON.fromJson(json, Event[].class);
+        Event[] reflective = mReflectiveGson.fromJson(json, Event[].class);
+
+        assertEquals(mReflectiveGson.toJsonTree(reflective[1]),
+                mReflectiveGson.toJsonTree(adapted[1]));
+        // The summary of "FolderSummary" is not part of data, but decoded into folderSummary.
+        Object summary = reflective[0].data.remove("summary");
+        assertEquals(mReflectiveGson.toJsonTree(reflective[0]),
+                mReflectiveGson.toJsonTree(adapted[0]));
+        assertEquals(mReflectiveGson.toJsonTree(
+                mReflectiveGson.fromJson(mReflectiveGson.toJsonTree(summary), FolderStatus.class)),
+                mReflectiveGson.toJsonTree(adapted[0].folderSummary));
+        // Writing puts the summary back into data.
+        assertEquals(parse(mReflectiveGson.toJson(adapted[0].folderSummary)),
+                parse(ModelTypeAdapters.GSON.toJson(adapted[0]))
+                        .getAsJsonObject().getAsJsonObject("data").get("summary"));
+    }
+
+    @Test
+    public void configSavedDataIsSkipped() {
+        String json = "{\"id\":3,\"globalID\":13,\"type\":\"ConfigSaved\",\"time\":\"2020-01-01T00:00:02Z\","
+                + "\"data\":{\"version\":30,\"folders\":[]}}";
+
+        Event event = ModelTypeAdapters.GSON.fromJson(json, Event.class);
+
+        assertEquals(3, event.id);
+        assertNull(event.data);
+    }
+
+    private static JsonElement parse(String json) {
+        return new JsonParser().parse(json);
+    }
+
+    /**
+     * Returns a new instance of type whose fields are all set with {@link #createValue}.
+     * Final fields are constants and skipped.
+     */
+    private static Object createInstance(Class<?> type) throws ReflectiveOperationException {
+        Constructor<?> constructor = type.getDeclaredConstructor();
+        constructor.setAccessible(true);
+        Object instance = constructor.newInstance();
+        for (Field field : type.getDeclaredFields()) {
+            int modifiers = field.getModifiers();
+            if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers) ||
+                    Modifier.isFinal(modifiers) || field.isSynthetic()) {
+                continue;
+            }
+            field.setAccessible(true);
+            field.set(instance, createValue(field.getGenericType(), field.get(instance),
+                    field.getName()));
+        }
+        return instance;
+    }
+
+    /**
+     * Returns a value of the given type that differs from defaultValue. Numbers don't fit into
+     * a smaller type, so reading them with the wrong type fails.
+     */
+    private static Object createValue(Type type, Object defaultValue, String name)
+            throws ReflectiveOperationException {
+        Class<?> raw = (type instanceof ParameterizedType)
+                ? (Class<?>) ((ParameterizedType) type).getRawType()
+                : (Class<?>) type;
+        if (raw == String.class || raw == Object.class) {
+            return name + "-value";
+        } else if (raw == boolean.class || raw == Boolean.class) {
+            return !Boolean.TRUE.equals(defaultValue);
+        } else if (raw == int.class || raw == Integer.class) {
+            return (defaultValue != null ? (Integer) defaultValue : 0) + 1000003;
+        } else if (raw == long.class || raw == Long.class) {
+            return (defaultValue != null ? (Long) defaultValue : 0) + 10000000019L;
+        } else if (raw == double.class || raw == Double.class) {
+            return (defaultValue != null ? (Double) defaultValue : 0) + 0.5;
+        } else if (raw == float.class || raw == Float.class) {
+            return (defaultValue != null ? (Float) defaultValue : 0) + 0.25f;
+        } else if (List.class.isAssignableFrom(raw)) {
+            Type[] args = ((ParameterizedType) type).getActualTypeArguments();
+            List<Object> list = new ArrayList<>();
+            list.add(createValue(args[0], null, name + "-0"));
+            return list;
+        } else if (Map.class.isAssignableFrom(raw)) {
+            Type[] args = ((ParameterizedType) type).getActualTypeArguments();
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put(name + "-key", createValue(args[1], null, name));
+            return map;
+        }
+        return createInstance(raw);
+    }
+
+    /**
+     * Returns a config like the one sent by /rest/system/config, where every folder is shared
+     * with every device.
+     */
+    static String createConfigJson(int folderCount, int deviceCount) {
+        JsonArray devices = new JsonArray();
+        JsonArray folderDevices = new JsonArray();
+        for (int i = 0; i < deviceCount; i++) {
+            String deviceId = String.format(Locale.US,
+                    "DEVICE%d-AAAAAAA-BBBBBBB-CCCCCCC-DDDDDDD-EEEEEEE-FFFFFFF-GGGGGGG", i);
+            JsonObject device = new JsonObject();
+            device.addProperty("deviceID", deviceId);
+            device.addProperty("name", "device-" + i);
+            JsonArray addresses = new JsonArray();
+            addresses.add("dynamic");
+            addresses.add("tcp://192.168.0." + i + ":22000");
+            device.add("addresses", addresses);
+            device.addProperty("compression", "metadata");
+            device.addProperty("certName", "");
+            device.addProperty("introducer", i % 2 == 0);
+            device.addProperty("paused", false);
+            device.addProperty("autoAcceptFolders", false);
+            devices.add(device);
+
+            JsonObject folderDevice = new JsonObject();
+            folderDevice.addProperty("deviceID", deviceId);
+            folderDevice.addProperty("introducedBy", "");
+            folderDevices.add(folderDevice);
+        }
+
+        JsonArray folders = new JsonArray();
+        for (int i = 0; i < folderCount; i++) {
+            JsonObject folder = new JsonObject();
+            folder.addProperty("id", "folder-" + i);
+            folder.addProperty("label", "Folder " + i);
+            folder.addProperty("filesystemType", "basic");
+            folder.addProperty("path", "/storage/emulated/0/Sync/folder-" + i);
+            folder.addProperty("type", (i % 3 == 0) ? "sendonly" : "sendreceive");
+            folder.add("devices", folderDevices);
+            folder.addProperty("rescanIntervalS", 3600);
+            folder.addProperty("fsWatcherEnabled", true);
+            folder.addProperty("fsWatcherDelayS", 10);
+            folder.addProperty("ignorePerms", true);
+            folder.addProperty("autoNormalize", true);
+            JsonObject minDiskFree = new JsonObject();
+            minDiskFree.addProperty("value", 1);
+            minDiskFree.addProperty("unit", "%");
+            folder.add("minDiskFree", minDiskFree);
+            JsonObject versioning = new JsonObject();
+            versioning.addProperty("type", (i % 2 == 0) ? "simple" : "");
+            JsonObject params = new JsonObject();
+            if (i % 2 == 0) {
+                params.addProperty("keep", "5");
+            }
+            versioning.add("params", params);
+            folder.add("versioning", versioning);
+            folder.addProperty("copiers", 0);
+            folder.addProperty("pullerMaxPendingKiB", 0);
+            folder.addProperty("hashers", 0);
+            folder.addProperty("order", "random");
+            folder.addProperty("ignoreDelete", false);
+            folder.addProperty("scanProgressIntervalS", 0);
+            folder.addProperty("pullerPauseS", 0);
+            folder.addProperty("maxConflicts", 10);
+            folder.addProperty("disableSparseFiles", false);
+            folder.addProperty("disableTempIndexes", false);
+            folder.addProperty("paused", i % 10 == 0);
+            folder.addProperty("weakHashThresholdPct", 25);
+            folder.addProperty("markerName", ".stfolder");
+            folders.add(folder);
+        }
+
+        JsonObject config = new JsonObject();
+        config.addProperty("version", 30);
+        config.add("folders", folders);
+        config.add("devices", devices);
+        return config.toString();
+    }
+}
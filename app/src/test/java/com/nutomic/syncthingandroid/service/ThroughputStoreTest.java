@@ -0,0 +1,78 @@
+package com.nutomic.syncthingandroid.service;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ThroughputStoreTest {
+
+    private static final String DEVICE = "device";
+
+    private final ThroughputStore mStore = new ThroughputStore();
+
+    @Test
+    public void firstSampleOnlySetsBaseline() {
+        mStore.record(DEVICE, 1000000, 2000000, 1000);
+
+        assertEquals(0, mStore.getInRate(DEVICE));
+        assertEquals(0, mStore.getOutRate(DEVICE));
+        assertEquals(0, mStore.getInRate("unknown"));
+    }
+
+    @Test
+    public void rateConvergesToConstantTransfer() {
+        // 1000 bytes received and 500 sent every 500 ms, i.e. 16000 and 8000 bits per second.
+        for (int i = 0; i <= 200; i++) {
+            mStore.record(DEVICE, i * 1000L, i * 500L, 1000 + i * 500L);
+        }
+
+        assertEquals(16000, mStore.getInRate(DEVICE), 16);
+        assertEquals(8000, mStore.getOutRate(DEVICE), 8);
+    }
+
+    @Test
+    public void subSecondSamplesAreSmoothed() {
+        mStore.record(DEVICE, 0, 0, 1000);
+        mStore.record(DEVICE, 1000, 0, 1100);
+
+        long rate = mStore.getInRate(DEVICE);
+        // One sample of 80000 bit/s over 100 ms, weighted with 1 - e^(-0.01).
+        assertTrue("rate " + rate, rate > 0 && rate < 80000);
+        assertEquals(80000 * (1 - Math.exp(-0.01)), rate, 1);
+    }
+
+    @Test
+    public void clockChangeResetsRate() {
+        mStore.record(DEVICE, 0, 0, 10000);
+        mStore.record(DEVICE, 10000, 10000, 11000);
+        assertTrue(mStore.getInRate(DEVICE) > 0);
+
+        mStore.record(DEVICE, 20000, 20000, 5000);
+        assertEquals(0, mStore.getInRate(DEVICE));
+
+        // The next sample is measured from the new baseline.
+        mStore.record(DEVICE, 30000, 30000, 6000);
+        assertTrue(mStore.getInRate(DEVICE) > 0);
+    }
+
+    @Test
+    public void counterResetResetsRate() {
+        mStore.record(DEVICE, 0, 0, 1000);
+        mStore.record(DEVICE, 10000, 10000, 2000);
+        assertTrue(mStore.getOutRate(DEVICE) > 0);
+
+        // Syncthing restarted.
+        mStore.record(DEVICE, 100, 100, 3000);
+        assertEquals(0, mStore.getOutRate(DEVICE));
+    }
+
+    @Test
+    public void longGapResetsRate() {
+        mStore.record(DEVICE, 0, 0, 1000);
+        mStore.record(DEVICE, 10000, 10000, 2000);
+
+        mStore.record(DEVICE, 20000, 20000, 2000 + 11 * 60 * 1000);
+        assertEquals(0, mStore.getInRate(DEVICE));
+    }
+}